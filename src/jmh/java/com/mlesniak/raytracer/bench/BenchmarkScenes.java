@@ -0,0 +1,69 @@
+package com.mlesniak.raytracer.bench;
+
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible reference scenes for benchmarks.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class BenchmarkScenes {
+    private static final long SEED = 42;
+
+    private BenchmarkScenes() {
+    }
+
+    /**
+     * Create a scene with randomly placed spheres above a ground plane.
+     * <p>
+     * The spheres fill a box in front of the camera whose volume grows with the number of objects, such that the
+     * fraction of covered pixels stays roughly the same for all scene sizes.
+     *
+     * @param objects number of spheres
+     * @param width   image width
+     * @param height  image height
+     * @return the scene
+     */
+    public static Scene create(int objects, int width, int height) {
+        Scene scene = new Scene();
+        scene.setFilename("benchmark.png");
+        scene.setWidth(width);
+        scene.setHeight(height);
+        scene.setFov(90);
+        scene.setCamera(new Vector3D(0, 5, 10));
+        scene.setLookAt(new Vector3D(0, 5, 0));
+        scene.setLights(Collections.singletonList(new Vector3D(5, 20, 10)));
+
+        Random random = new Random(SEED);
+        double extent = 10 * Math.cbrt(objects / 10.0);
+        double radius = 0.5 * Math.min(1, 10 / extent);
+        List<SceneObject> sceneObjects = new ArrayList<>();
+        for (int i = 0; i < objects; i++) {
+            Sphere sphere = new Sphere();
+            sphere.setCenter(new Vector3D(
+                    (random.nextDouble() - 0.5) * extent,
+                    radius + random.nextDouble() * 10,
+                    -random.nextDouble() * extent));
+            sphere.setRadius(radius * (0.5 + random.nextDouble()));
+            sphere.setColor(random.nextInt(0xFFFFFF));
+            sceneObjects.add(sphere);
+        }
+
+        Plane plane = new Plane();
+        plane.setNormal(new Vector3D(0, 1, 0));
+        plane.setColor(0xDDDDDD);
+        sceneObjects.add(plane);
+
+        scene.setObjects(sceneObjects);
+        return scene;
+    }
+}
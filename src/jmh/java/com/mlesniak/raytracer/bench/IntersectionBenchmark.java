@@ -0,0 +1,87 @@
+package com.mlesniak.raytracer.bench;
+
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for ray/object intersection, for both the primitive and the <code>Optional</code> based API.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+    private Sphere sphere;
+    private Plane plane;
+    private Vector3D origin;
+    private Vector3D hitDirection;
+    private Vector3D missDirection;
+    private Ray hitRay;
+    private Ray missRay;
+
+    @Setup
+    public void setup() {
+        sphere = new Sphere();
+        sphere.setCenter(new Vector3D(0, 0, -10));
+        sphere.setRadius(2);
+
+        plane = new Plane();
+        plane.setPoint(new Vector3D(0, -1, 0));
+        plane.setNormal(new Vector3D(0, 1, 0));
+
+        origin = new Vector3D(0, 0, 0);
+        hitDirection = new Vector3D(0.05, -0.2, -1).normalize();
+        missDirection = new Vector3D(1, 1, 0).normalize();
+        hitRay = new Ray().set(origin, hitDirection);
+        missRay = new Ray().set(origin, missDirection);
+    }
+
+    @Benchmark
+    public double sphereHit() {
+        return sphere.intersect(hitRay);
+    }
+
+    @Benchmark
+    public double sphereMiss() {
+        return sphere.intersect(missRay);
+    }
+
+    @Benchmark
+    public Optional<Vector3D> sphereComputeIntersection() {
+        return sphere.computeIntersection(origin, hitDirection);
+    }
+
+    @Benchmark
+    public double planeHit() {
+        return plane.intersect(hitRay);
+    }
+
+    @Benchmark
+    public double planeMiss() {
+        return plane.intersect(missRay);
+    }
+
+    @Benchmark
+    public Optional<Vector3D> planeComputeIntersection() {
+        return plane.computeIntersection(origin, hitDirection);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mlesniak.raytracer.bench;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.scene.Scene;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Macrobenchmarks rendering full frames of reference scenes with different sizes and resolutions.
+ * <p>
+ * Building the raytracer (including its acceleration structures) is measured separately from rendering.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"10", "1000", "100000"})
+    private int objects;
+
+    @Param({"320x240", "1280x720", "1920x1080"})
+    private String resolution;
+
+    private Scene scene;
+    private Raytracer raytracer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] dimensions = resolution.split("x");
+        scene = BenchmarkScenes.create(objects, Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        raytracer = new Raytracer(scene);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return raytracer.raytrace();
+    }
+
+    @Benchmark
+    public Raytracer build() {
+        return new Raytracer(scene);
+    }
+}
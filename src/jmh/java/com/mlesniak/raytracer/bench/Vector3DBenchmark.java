@@ -0,0 +1,72 @@
+package com.mlesniak.raytracer.bench;
+
+import com.mlesniak.raytracer.math.Vector3D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for vector operations.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Vector3DBenchmark {
+    private Vector3D a;
+    private Vector3D b;
+
+    @Setup
+    public void setup() {
+        a = new Vector3D(1, 2, 3);
+        b = new Vector3D(-4, 0.5, 7);
+    }
+
+    @Benchmark
+    public Vector3D plus() {
+        return a.plus(b);
+    }
+
+    @Benchmark
+    public Vector3D scale() {
+        return a.scale(0.5);
+    }
+
+    @Benchmark
+    public Vector3D path() {
+        return a.path(b);
+    }
+
+    @Benchmark
+    public Vector3D normalize() {
+        return a.normalize();
+    }
+
+    @Benchmark
+    public double dot() {
+        return a.dot(b);
+    }
+
+    @Benchmark
+    public Vector3D crossProduct() {
+        return a.crossProduct(b);
+    }
+
+    @Benchmark
+    public double distance() {
+        return a.distance(b);
+    }
+}
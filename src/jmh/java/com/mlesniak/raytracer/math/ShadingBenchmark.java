@@ -0,0 +1,63 @@
+package com.mlesniak.raytracer.math;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.bench.BenchmarkScenes;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for shading a single intersection.
+ * <p>
+ * Lives in the package of the raytracer to access its package-private shading method.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadingBenchmark {
+    private Raytracer raytracer;
+    private HitRecord hit;
+    private double diffuse;
+
+    @Setup
+    public void setup() {
+        Scene scene = BenchmarkScenes.create(10, 64, 64);
+        raytracer = new Raytracer(scene);
+
+        Sphere sphere = new Sphere();
+        sphere.setCenter(new Vector3D(0, 0, -10));
+        sphere.setRadius(2);
+        sphere.setColor(0x336699);
+
+        CompiledScene compiledScene = CompiledScene.compile(Collections.singletonList(sphere));
+        Ray ray = new Ray().set(0, 0, 0, 0, 0, -1);
+        hit = new HitRecord();
+        compiledScene.closestHit(ray, hit, new TraversalStack());
+        compiledScene.resolve(ray, hit);
+        diffuse = hit.normal.x * 0.6 + hit.normal.y * 0.8;
+    }
+
+    @Benchmark
+    public int computeColor() {
+        return raytracer.computeColor(hit, diffuse);
+    }
+}
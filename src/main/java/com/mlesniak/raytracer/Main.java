@@ -1,9 +1,16 @@
 package com.mlesniak.raytracer;
 
 import com.mlesniak.raytracer.animation.Animation;
+import com.mlesniak.raytracer.distributed.RenderCoordinator;
+import com.mlesniak.raytracer.distributed.RenderWorker;
 import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.SceneSnapshot;
 import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.render.ImageFramebuffer;
+import com.mlesniak.raytracer.render.MappedFramebuffer;
+import com.mlesniak.raytracer.render.RenderJob;
 import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.util.ImageOutputs;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
@@ -16,10 +23,13 @@ import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -31,6 +41,10 @@ public final class Main extends Application {
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
     private double prevX = -1;
     private double prevY = -1;
+    // Snapshot of the scene with the current camera of the realtime view.
+    private SceneSnapshot snapshot;
+    // Background render of the realtime view, superseded by every camera change.
+    private RenderJob currentRender;
 
     public Main() {
         // Empty.
@@ -41,12 +55,29 @@ public final class Main extends Application {
         // launch(args);
         // Create simple JavaFX interface.
 
+        if (args.length == 2 && "--worker".equals(args[0])) {
+            // Serve tiles for a coordinator until the process is killed.
+            new RenderWorker(Integer.parseInt(args[1])).run();
+            return;
+        }
+        if (args.length == 4 && "--worker".equals(args[0]) && "--bind".equals(args[2])) {
+            new RenderWorker(InetAddress.getByName(args[3]), Integer.parseInt(args[1])).run();
+            return;
+        }
+        if (args.length == 3 && "--coordinator".equals(args[0])) {
+            renderDistributed(RenderCoordinator.parseAddresses(args[1]), Scene.readScene(args[2]));
+            LOG.info("Application finished");
+            return;
+        }
+
         Optional<Scene> scene = readScene(args);
         if (scene.isPresent()) {
             Scene s = scene.get();
 
             if (Animation.isAnimated(s)) {
                 new Animation(s).animate();
+            } else if (s.getFilename().endsWith(".ppm")) {
+                renderMapped(s);
             } else {
                 BufferedImage image = new Raytracer(s).raytrace();
                 writeSingleImage(s, image);
@@ -56,6 +87,24 @@ public final class Main extends Application {
         Platform.exit();
     }
 
+    private static void renderDistributed(List<InetSocketAddress> workers, Scene scene) throws Exception {
+        RenderCoordinator coordinator = new RenderCoordinator(workers);
+        if (Animation.isAnimated(scene)) {
+            new Animation(scene, coordinator::prepare).animate();
+        } else {
+            writeSingleImage(scene, coordinator.render(scene));
+        }
+    }
+
+    // Render directly into the mapped image file, which allows images larger than the heap.
+    private static void renderMapped(Scene scene) throws IOException {
+        Path path = Paths.get(scene.getFilename());
+        try (MappedFramebuffer framebuffer = new MappedFramebuffer(path, scene.getWidth(), scene.getHeight())) {
+            new Raytracer(scene).raytrace(framebuffer);
+        }
+        LOG.info("Wrote image to file {}", path);
+    }
+
     private static Optional<Scene> readScene(Object[] args) throws IOException {
         if (args.length < 1) {
             LOG.error("No filename given. Aborting.");
@@ -66,7 +115,8 @@ public final class Main extends Application {
 
     private static void writeSingleImage(Scene scene, BufferedImage image) throws IOException {
         final String pathname = scene.getFilename();
-        ImageIO.write(image, "png", new File(pathname));
+        // The format is selected by the file extension, PNG by default.
+        ImageOutputs.forFilename(pathname).write(new ImageFramebuffer(image), Paths.get(pathname));
         LOG.info("Wrote image to file {}", pathname);
     }
 
@@ -80,8 +130,10 @@ public final class Main extends Application {
 
             if (Animation.isAnimated(s)) {
                 new Animation(s).animate();
+                snapshot = SceneSnapshot.of(s);
             } else {
-                renderScene(imageView, s);
+                snapshot = SceneSnapshot.of(s);
+                renderScene(imageView, snapshot);
                 //writeSingleImage(s, image);
             }
             imageView.addEventHandler(MouseEvent.MOUSE_MOVED, new EventHandler<MouseEvent>() {
@@ -103,15 +155,12 @@ public final class Main extends Application {
                     prevY = event.getY();
                     LOG.info("deltaX={}, deltaY={}", deltaX, deltaY);
 
-                    // Vector3D should be immutable...
-                    Vector3D lookAt = s.getLookAt();
+                    // The scene is not modified, a new snapshot shares the compiled objects with the previous one.
+                    Vector3D lookAt = snapshot.getLookAt();
                     lookAt.setX(lookAt.getX() + 0.01 * deltaX);
                     lookAt.setY(lookAt.getY() + 0.01 * deltaY);
-                    try {
-                        renderScene(imageView, s);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+                    snapshot = snapshot.withCamera(snapshot.getCamera(), lookAt);
+                    renderScene(imageView, snapshot);
 
                     event.consume();
                 }
@@ -127,10 +176,21 @@ public final class Main extends Application {
         stage.show();
     }
 
-    private void renderScene(ImageView imageView, Scene s) throws InterruptedException {
-        BufferedImage image = new Raytracer(s).raytrace();
-        WritableImage img = new WritableImage(s.getWidth(), s.getHeight());
-        SwingFXUtils.toFXImage(image, img);
-        imageView.setImage(img);
+    private void renderScene(ImageView imageView, SceneSnapshot s) {
+        // A changed camera makes a running or waiting render obsolete.
+        if (currentRender != null) {
+            currentRender.cancel();
+        }
+        RenderJob job = new Raytracer(s).raytraceAsync((frame, stride) -> {
+            WritableImage img = new WritableImage(s.getWidth(), s.getHeight());
+            SwingFXUtils.toFXImage(frame, img);
+            Platform.runLater(() -> imageView.setImage(img));
+        });
+        job.getFuture().whenComplete((image, e) -> {
+            if (e != null && !job.isCancelled()) {
+                LOG.error("Unable to render scene", e);
+            }
+        });
+        currentRender = job;
     }
 }
@@ -0,0 +1,601 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bounding volume hierarchy (BVH) over primitives given by their bounding boxes.
+ * <p>
+ * The tree is built once with the surface area heuristic (SAH) on binned centroids and flattened into primitive
+ * arrays in depth-first order: the left child of an inner node is always the next node, hence only the index of the
+ * right child has to be stored. The hierarchy itself does not know the primitives; the owner reorders its primitive
+ * arrays according to <code>getOrder()</code> such that every leaf references a contiguous range and implements the
+ * traversal with its own intersection kernel. Unbounded objects such as planes can not be part of the hierarchy and
+ * have to be checked separately.
+ * <p>
+ * Large hierarchies are built in parallel: the upper levels are split into fork/join tasks and the subtrees are
+ * stitched together afterwards, which results in the same tree as building sequentially. For animations, an existing
+ * hierarchy can be refitted to moved primitives instead, see <code>refit()</code>.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class Bvh {
+    private static final int BINS = 16;
+    private static final int MAX_LEAF_SIZE = 4;
+    // Cost of traversing a node relative to the cost of intersecting a single primitive.
+    private static final double TRAVERSAL_COST = 0.5;
+    // Enlarges the exit distance of the slab test by a few ulps to compensate rounding errors, such that rays through
+    // shared box boundaries, e.g. at vertices of adjacent triangles, enter both boxes (Ize, "Robust BVH Ray
+    // Traversal").
+    private static final double ROUNDING_FACTOR = 1 + 2 * 3 * Math.ulp(1.0);
+    // Ranges with fewer primitives are built sequentially by a single task.
+    private static final int PARALLEL_THRESHOLD = 4096;
+    // A refitted hierarchy is considered degraded once its SAH cost exceeds the cost after building by this factor.
+    private static final double MAX_COST_INCREASE = 1.3;
+
+    // Six values per node: minX, minY, minZ, maxX, maxY, maxZ.
+    final double[] bounds;
+    // Leaf: index of the first primitive. Inner node: index of the right child.
+    final int[] offsets;
+    // Leaf: number of primitives. Inner node: 0.
+    final int[] counts;
+    // Original index of the primitive at each position of the leaf ranges.
+    private final int[] order;
+    private final int nodeCount;
+    private final int depth;
+    // SAH cost of the tree and of the tree it has been refitted from when it was built.
+    private final double cost;
+    private final double buildCost;
+    private final boolean refitted;
+
+    /**
+     * Build a new hierarchy.
+     *
+     * @param primBounds six values per primitive: minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    public Bvh(double[] primBounds) {
+        int n = primBounds.length / 6;
+        order = new int[n];
+
+        // Centroids are only needed while building.
+        double[] centroids = new double[n * 3];
+        for (int i = 0; i < n; i++) {
+            centroids[i * 3] = (primBounds[i * 6] + primBounds[i * 6 + 3]) / 2;
+            centroids[i * 3 + 1] = (primBounds[i * 6 + 1] + primBounds[i * 6 + 4]) / 2;
+            centroids[i * 3 + 2] = (primBounds[i * 6 + 2] + primBounds[i * 6 + 5]) / 2;
+            order[i] = i;
+        }
+
+        if (n == 0) {
+            // A single empty leaf.
+            bounds = new double[6];
+            offsets = new int[1];
+            counts = new int[1];
+            nodeCount = 1;
+            depth = 0;
+            setEmptyBounds(bounds, 0);
+        } else if (n < PARALLEL_THRESHOLD) {
+            int maxNodes = 2 * n - 1;
+            bounds = new double[maxNodes * 6];
+            offsets = new int[maxNodes];
+            counts = new int[maxNodes];
+            Builder builder = new Builder(primBounds, centroids, order, bounds, offsets, counts);
+            builder.build(0, n);
+            nodeCount = builder.nodeCount;
+            depth = builder.depth;
+        } else {
+            Subtree tree = ForkJoinPool.commonPool().invoke(new BuildTask(primBounds, centroids, order, 0, n));
+            bounds = new double[tree.nodeCount * 6];
+            offsets = new int[tree.nodeCount];
+            counts = new int[tree.nodeCount];
+            tree.copyTo(this, 0);
+            nodeCount = tree.nodeCount;
+            depth = tree.depth;
+        }
+        cost = computeCost();
+        buildCost = cost;
+        refitted = false;
+    }
+
+    // Refitted hierarchy: same nodes and primitive order with updated bounds.
+    private Bvh(Bvh tree, double[] primBounds) {
+        offsets = tree.offsets;
+        counts = tree.counts;
+        order = tree.order;
+        nodeCount = tree.nodeCount;
+        depth = tree.depth;
+        bounds = tree.bounds.clone();
+
+        // Children have larger indices than their parent, hence a reverse pass visits them first. Only the bounds
+        // of leaves with moved primitives and of their ancestors change.
+        boolean[] changed = new boolean[nodeCount];
+        double[] leafBounds = new double[6];
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (counts[node] > 0) {
+                setEmptyBounds(leafBounds, 0);
+                for (int i = offsets[node]; i < offsets[node] + counts[node]; i++) {
+                    growBounds(leafBounds, 0, primBounds, order[i]);
+                }
+                for (int i = 0; i < 6; i++) {
+                    if (bounds[node * 6 + i] != leafBounds[i]) {
+                        System.arraycopy(leafBounds, 0, bounds, node * 6, 6);
+                        changed[node] = true;
+                        break;
+                    }
+                }
+            } else if (changed[node + 1] || changed[offsets[node]]) {
+                setEmptyBounds(bounds, node);
+                growBounds(bounds, node, bounds, node + 1);
+                growBounds(bounds, node, bounds, offsets[node]);
+                changed[node] = true;
+            }
+        }
+        cost = computeCost();
+        buildCost = tree.buildCost;
+        refitted = true;
+    }
+
+    /**
+     * Refit the hierarchy to moved primitives, e.g. for the next frame of an animation. The tree structure is kept
+     * and only the bounds of nodes containing moved primitives are updated, which is much faster than building a new
+     * hierarchy. Since the tree has been built for the old positions, its quality degrades the farther primitives
+     * move; check <code>isDegraded()</code> to decide whether a new hierarchy should be built instead.
+     *
+     * @param primBounds new bounds of the same primitives in the same order as used for building
+     * @return a new hierarchy sharing the structure of this one
+     * @throws IllegalArgumentException if the number of primitives differs
+     */
+    public Bvh refit(double[] primBounds) {
+        if (primBounds.length != order.length * 6) {
+            throw new IllegalArgumentException("Expected bounds of " + order.length + " primitives, got " +
+                    primBounds.length / 6);
+        }
+        if (order.length == 0) {
+            return this;
+        }
+        return new Bvh(this, primBounds);
+    }
+
+    /**
+     * Check whether a refitted hierarchy became too slow compared to building a new one.
+     *
+     * @return true if the SAH cost increased by more than 30% since the hierarchy has been built
+     */
+    public boolean isDegraded() {
+        return cost > buildCost * MAX_COST_INCREASE;
+    }
+
+    // SAH cost of the whole tree: every node is weighted with the probability that a ray through the root hits it,
+    // i.e. the ratio of their surface areas.
+    private double computeCost() {
+        double rootArea = area(bounds, 0);
+        if (rootArea <= 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (counts[node] > 0) {
+                sum += area(bounds, node) * counts[node];
+            } else {
+                sum += area(bounds, node) * TRAVERSAL_COST;
+            }
+        }
+        return sum / rootArea;
+    }
+
+    /**
+     * Builds the flattened tree of a range of primitives from primitive bounds and centroids.
+     * <p>
+     * The tree is built without recursion, hence degenerated scenes can not overflow the Java stack. Tasks are
+     * processed depth-first with the left child always being processed directly after its parent, which results in
+     * the flattened layout described in the class comment.
+     */
+    private static final class Builder {
+        private final double[] primBounds;
+        private final double[] centroids;
+        private final int[] indices;
+
+        // Target arrays, the root of the built range is node 0.
+        private final double[] bounds;
+        private final int[] offsets;
+        private final int[] counts;
+        private int nodeCount;
+        private int depth;
+
+        // Scratch space reused for every node.
+        private final double[] centroidBounds = new double[6];
+        private final double[] binBounds = new double[BINS * 6];
+        private final int[] binCounts = new int[BINS];
+        private final double[] rightAreas = new double[BINS];
+        private final double[] accumulated = new double[6];
+
+        Builder(double[] primBounds, double[] centroids, int[] indices, double[] bounds, int[] offsets,
+                int[] counts) {
+            this.primBounds = primBounds;
+            this.centroids = centroids;
+            this.indices = indices;
+            this.bounds = bounds;
+            this.offsets = offsets;
+            this.counts = counts;
+        }
+
+        void build(int rangeStart, int rangeEnd) {
+            // Each task consists of start, end, parent (whose right child index has to be patched or -1) and depth.
+            int[] tasks = new int[4 * (rangeEnd - rangeStart + 1)];
+            int sp = 0;
+            tasks[sp++] = rangeStart;
+            tasks[sp++] = rangeEnd;
+            tasks[sp++] = -1;
+            tasks[sp++] = 0;
+
+            while (sp > 0) {
+                int nodeDepth = tasks[--sp];
+                int parent = tasks[--sp];
+                int end = tasks[--sp];
+                int start = tasks[--sp];
+
+                int node = nodeCount++;
+                depth = Math.max(depth, nodeDepth);
+                if (parent >= 0) {
+                    offsets[parent] = node;
+                }
+
+                int split = split(node, start, end);
+                if (split < 0) {
+                    offsets[node] = start;
+                    counts[node] = end - start;
+                    continue;
+                }
+
+                // Inner node. Push right first, such that the left child is processed next and becomes node + 1.
+                counts[node] = 0;
+                tasks[sp++] = split;
+                tasks[sp++] = end;
+                tasks[sp++] = node;
+                tasks[sp++] = nodeDepth + 1;
+                tasks[sp++] = start;
+                tasks[sp++] = split;
+                tasks[sp++] = -1;
+                tasks[sp++] = nodeDepth + 1;
+            }
+        }
+
+        /**
+         * Compute the bounds of a node and split its primitives.
+         *
+         * @param node  index of the node
+         * @param start first primitive index of the node
+         * @param end   index after the last primitive of the node
+         * @return the index of the first primitive of the right child or -1 if a leaf should be created.
+         */
+        int split(int node, int start, int end) {
+            // Compute node bounds and the bounds of all centroids which are used for binning.
+            setEmptyBounds(bounds, node);
+            setEmptyBounds(centroidBounds, 0);
+            for (int i = start; i < end; i++) {
+                int p = indices[i];
+                growBounds(bounds, node, primBounds, p);
+                growPoint(centroidBounds, centroids, p);
+            }
+            return findSplit(start, end, node);
+        }
+
+        /**
+         * Find the best split position using binned SAH and partition the indices accordingly.
+         *
+         * @param start first primitive index of the node
+         * @param end   index after the last primitive of the node
+         * @param node  index of the node whose bounds are already computed
+         * @return the index of the first primitive of the right child or -1 if a leaf should be created.
+         */
+        private int findSplit(int start, int end, int node) {
+            int count = end - start;
+            if (count <= 1) {
+                return -1;
+            }
+
+            double parentArea = area(bounds, node);
+            double bestCost = Double.MAX_VALUE;
+            int bestAxis = -1;
+            int bestBin = -1;
+            for (int axis = 0; axis < 3; axis++) {
+                double cmin = centroidBounds[axis];
+                double extent = centroidBounds[axis + 3] - cmin;
+                if (extent <= 0) {
+                    continue;
+                }
+
+                // Fill bins.
+                for (int b = 0; b < BINS; b++) {
+                    setEmptyBounds(binBounds, b);
+                    binCounts[b] = 0;
+                }
+                for (int i = start; i < end; i++) {
+                    int p = indices[i];
+                    int b = bin(centroids[p * 3 + axis], cmin, extent);
+                    binCounts[b]++;
+                    growBounds(binBounds, b, primBounds, p);
+                }
+
+                // Sweep from the right to compute the areas of all right sides...
+                setEmptyBounds(accumulated, 0);
+                for (int b = BINS - 1; b > 0; b--) {
+                    growBounds(accumulated, 0, binBounds, b);
+                    rightAreas[b] = area(accumulated, 0);
+                }
+
+                // ...and from the left to evaluate the SAH cost for each split plane.
+                setEmptyBounds(accumulated, 0);
+                int leftCount = 0;
+                for (int b = 0; b < BINS - 1; b++) {
+                    growBounds(accumulated, 0, binBounds, b);
+                    leftCount += binCounts[b];
+                    int rightCount = count - leftCount;
+                    if (leftCount == 0 || rightCount == 0) {
+                        continue;
+                    }
+                    double cost = TRAVERSAL_COST +
+                            (area(accumulated, 0) * leftCount + rightAreas[b + 1] * rightCount) / parentArea;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            if (bestAxis < 0) {
+                // All centroids are identical. Split in the middle if there are too many primitives for one leaf.
+                if (count <= MAX_LEAF_SIZE) {
+                    return -1;
+                }
+                return start + count / 2;
+            }
+            if (count <= MAX_LEAF_SIZE && bestCost >= count) {
+                return -1;
+            }
+
+            // Partition indices in place.
+            double cmin = centroidBounds[bestAxis];
+            double extent = centroidBounds[bestAxis + 3] - cmin;
+            int left = start;
+            int right = end - 1;
+            while (left <= right) {
+                if (bin(centroids[indices[left] * 3 + bestAxis], cmin, extent) <= bestBin) {
+                    left++;
+                } else {
+                    int tmp = indices[left];
+                    indices[left] = indices[right];
+                    indices[right] = tmp;
+                    right--;
+                }
+            }
+            return left;
+        }
+    }
+
+    /**
+     * Builds the upper levels of large hierarchies in parallel. Each task splits its range exactly like the
+     * sequential builder and forks both halves; ranges below the threshold are built sequentially into arrays of their
+     * own.
+     */
+    private static final class BuildTask extends RecursiveTask<Subtree> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] primBounds;
+        private final double[] centroids;
+        private final int[] indices;
+        private final int start;
+        private final int end;
+
+        BuildTask(double[] primBounds, double[] centroids, int[] indices, int start, int end) {
+            this.primBounds = primBounds;
+            this.centroids = centroids;
+            this.indices = indices;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Subtree compute() {
+            int count = end - start;
+            int maxNodes = 1;
+            if (count < PARALLEL_THRESHOLD) {
+                maxNodes = 2 * count - 1;
+            }
+            Subtree tree = new Subtree(maxNodes);
+            Builder builder = new Builder(primBounds, centroids, indices, tree.bounds, tree.offsets, tree.counts);
+            if (count < PARALLEL_THRESHOLD) {
+                builder.build(start, end);
+                tree.nodeCount = builder.nodeCount;
+                tree.depth = builder.depth;
+                return tree;
+            }
+
+            // Ranges above the threshold are never turned into leaves.
+            int split = builder.split(0, start, end);
+            BuildTask left = new BuildTask(primBounds, centroids, indices, start, split);
+            BuildTask right = new BuildTask(primBounds, centroids, indices, split, end);
+            invokeAll(left, right);
+            tree.left = left.join();
+            tree.right = right.join();
+            tree.nodeCount = 1 + tree.left.nodeCount + tree.right.nodeCount;
+            tree.depth = 1 + Math.max(tree.left.depth, tree.right.depth);
+            return tree;
+        }
+    }
+
+    /**
+     * Part of a hierarchy built by a single task. Either a complete subtree in flattened layout, or a single inner
+     * node whose children have been built by other tasks.
+     */
+    private static final class Subtree {
+        private final double[] bounds;
+        private final int[] offsets;
+        private final int[] counts;
+        private int nodeCount;
+        private int depth;
+        private Subtree left;
+        private Subtree right;
+
+        Subtree(int maxNodes) {
+            bounds = new double[maxNodes * 6];
+            offsets = new int[maxNodes];
+            counts = new int[maxNodes];
+        }
+
+        // Copy the nodes into the hierarchy starting at the given node index. Leaves reference primitives by their
+        // global position already, right child indices of inner nodes are relocated.
+        void copyTo(Bvh bvh, int base) {
+            if (left != null) {
+                System.arraycopy(bounds, 0, bvh.bounds, base * 6, 6);
+                bvh.counts[base] = 0;
+                left.copyTo(bvh, base + 1);
+                bvh.offsets[base] = base + 1 + left.nodeCount;
+                right.copyTo(bvh, bvh.offsets[base]);
+                return;
+            }
+            System.arraycopy(bounds, 0, bvh.bounds, base * 6, nodeCount * 6);
+            System.arraycopy(counts, 0, bvh.counts, base, nodeCount);
+            for (int node = 0; node < nodeCount; node++) {
+                if (counts[node] > 0) {
+                    bvh.offsets[base + node] = offsets[node];
+                } else {
+                    bvh.offsets[base + node] = base + offsets[node];
+                }
+            }
+        }
+    }
+
+    private static int bin(double centroid, double min, double extent) {
+        int b = (int) (BINS * (centroid - min) / extent);
+        return Math.min(BINS - 1, Math.max(0, b));
+    }
+
+    private static void setEmptyBounds(double[] target, int index) {
+        int t = index * 6;
+        target[t] = Double.POSITIVE_INFINITY;
+        target[t + 1] = Double.POSITIVE_INFINITY;
+        target[t + 2] = Double.POSITIVE_INFINITY;
+        target[t + 3] = Double.NEGATIVE_INFINITY;
+        target[t + 4] = Double.NEGATIVE_INFINITY;
+        target[t + 5] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void growBounds(double[] target, int index, double[] source, int sourceIndex) {
+        int t = index * 6;
+        int s = sourceIndex * 6;
+        for (int i = 0; i < 3; i++) {
+            target[t + i] = Math.min(target[t + i], source[s + i]);
+            target[t + i + 3] = Math.max(target[t + i + 3], source[s + i + 3]);
+        }
+    }
+
+    private static void growPoint(double[] target, double[] points, int pointIndex) {
+        int p = pointIndex * 3;
+        for (int i = 0; i < 3; i++) {
+            target[i] = Math.min(target[i], points[p + i]);
+            target[i + 3] = Math.max(target[i + 3], points[p + i]);
+        }
+    }
+
+    private static double area(double[] source, int index) {
+        int s = index * 6;
+        double dx = source[s + 3] - source[s];
+        double dy = source[s + 4] - source[s + 1];
+        double dz = source[s + 5] - source[s + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0;
+        }
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Slab test of the ray against the bounds of a node.
+     *
+     * @param node        index of the node
+     * @param ray         ray with precomputed inverse direction
+     * @param maxDistance boxes farther away are ignored
+     * @return the distance at which the ray enters the box or <code>Ray.NO_INTERSECTION</code> if the box is missed or
+     * farther away than <code>maxDistance</code>.
+     */
+    double intersectBox(int node, Ray ray, double maxDistance) {
+        int b = node * 6;
+        double near = 0;
+        double far = maxDistance;
+
+        // Comparisons are written such that NaN values (ray parallel to and on a slab) are ignored.
+        double t0 = (bounds[b] - ray.ox) * ray.invX;
+        double t1 = (bounds[b + 3] - ray.ox) * ray.invX;
+        if (t0 > t1) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > near) {
+            near = t0;
+        }
+        if (t1 < far) {
+            far = t1;
+        }
+
+        t0 = (bounds[b + 1] - ray.oy) * ray.invY;
+        t1 = (bounds[b + 4] - ray.oy) * ray.invY;
+        if (t0 > t1) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > near) {
+            near = t0;
+        }
+        if (t1 < far) {
+            far = t1;
+        }
+
+        t0 = (bounds[b + 2] - ray.oz) * ray.invZ;
+        t1 = (bounds[b + 5] - ray.oz) * ray.invZ;
+        if (t0 > t1) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > near) {
+            near = t0;
+        }
+        if (t1 < far) {
+            far = t1;
+        }
+
+        if (near > far * ROUNDING_FACTOR) {
+            return Ray.NO_INTERSECTION;
+        }
+        return near;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int[] getOrder() {
+        return order;
+    }
+
+    public int getPrimitiveCount() {
+        return order.length;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public boolean isRefitted() {
+        return refitted;
+    }
+}
@@ -0,0 +1,944 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.scene.Geometry;
+import com.mlesniak.raytracer.scene.Instance;
+import com.mlesniak.raytracer.scene.Mesh;
+import com.mlesniak.raytracer.scene.SceneObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed representation of the objects of a scene which is optimized for intersection tests.
+ * <p>
+ * While {@link com.mlesniak.raytracer.scene.Scene} is the YAML-facing model with polymorphic objects, the compiled
+ * scene stores all primitives of one type in parallel primitive arrays (structure of arrays). Spheres are ordered
+ * along the leaves of a {@link Bvh}, hence testing a ray against a leaf reads consecutive memory and the intersection
+ * kernels are monomorphic. Primitives are identified by a single integer: spheres use <code>[0, sphereCount)</code>,
+ * planes the following range and the triangles of all meshes the remaining identifiers, one consecutive range per
+ * mesh. Every {@link TriangleMesh} has its own hierarchy; the meshes themselves are tested one after another.
+ * <p>
+ * Instances form a second level: every referenced {@link Geometry} is compiled once into its own compiled scene and
+ * a separate hierarchy over the bounds of all instances finds the instances a ray has to be tested against. The ray is
+ * transformed into the space of the geometry, hence an instance only stores its transformation. The primitives of
+ * every instance get their own identifiers after all other primitives, one consecutive range per instance.
+ * <p>
+ * Frames of an animation are compiled with the compiled scene of the previous frame: its hierarchies are refitted to
+ * the moved objects instead of being built again, unless the number of primitives changed or the refitted hierarchy
+ * has become too slow, see {@link Bvh#isDegraded()}.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class CompiledScene {
+    /**
+     * Identifier used if no primitive was hit.
+     */
+    public static final int NONE = -1;
+
+    // Spheres in BVH leaf order. Package-private for alternative kernels, e.g. the vectorized packet tracer.
+    final int sphereCount;
+    final double[] sphereX;
+    final double[] sphereY;
+    final double[] sphereZ;
+    final double[] sphereRadius;
+    final double[] sphereRadius2;
+    final int[] sphereColor;
+    final Bvh bvh;
+
+    // Planes are unbounded and always checked.
+    final int planeCount;
+    final double[] planePointX;
+    final double[] planePointY;
+    final double[] planePointZ;
+    final double[] planeNormalX;
+    final double[] planeNormalY;
+    final double[] planeNormalZ;
+    final int[] planeColor;
+
+    // Meshes with the identifier of their first triangle. Loaded meshes are shared, not copied.
+    final int meshCount;
+    final TriangleMesh[] meshes;
+    final int[] meshBase;
+    final int[] meshColor;
+    private final int triangleCount;
+
+    // Instances in leaf order of their own BVH, with the identifier of their first primitive and the transformation
+    // from the scene into their geometry (row-major 3x4 matrix).
+    final int instanceCount;
+    final CompiledScene[] geometries;
+    final int[] instanceGeometry;
+    final int[] instanceBase;
+    final double[] instanceInverse;
+    final Bvh instanceBvh;
+    // Compiled geometries by name, to refit them when compiling the next frame.
+    private final Map<String, CompiledScene> geometryNames;
+    private final int firstInstancePrimitive;
+    private final int primitiveCount;
+
+    // Materials of all primitives, indexed by identifier.
+    private final double[] reflectivity;
+    private final double[] transparency;
+    private final double[] refractiveIndex;
+
+    private CompiledScene(PackedObjects objects, Map<String, CompiledScene> compiledGeometries,
+            List<Instance> instances, CompiledScene previous) {
+        Bvh previousBvh = null;
+        Bvh previousInstanceBvh = null;
+        if (previous != null) {
+            previousBvh = previous.bvh;
+            previousInstanceBvh = previous.instanceBvh;
+        }
+
+        sphereCount = objects.sphereCount;
+        double[] spheres = objects.spheres;
+        double[] bounds = new double[sphereCount * 6];
+        for (int i = 0; i < sphereCount; i++) {
+            int offset = i * PackedObjects.SPHERE_STRIDE;
+            double radius = spheres[offset + 3];
+            bounds[i * 6] = spheres[offset] - radius;
+            bounds[i * 6 + 1] = spheres[offset + 1] - radius;
+            bounds[i * 6 + 2] = spheres[offset + 2] - radius;
+            bounds[i * 6 + 3] = spheres[offset] + radius;
+            bounds[i * 6 + 4] = spheres[offset + 1] + radius;
+            bounds[i * 6 + 5] = spheres[offset + 2] + radius;
+        }
+        bvh = buildOrRefit(previousBvh, bounds);
+
+        planeCount = objects.planeCount;
+        meshCount = objects.meshes.size();
+        // Triangles share the material of their mesh.
+        int materials = sphereCount + planeCount + meshCount;
+        reflectivity = new double[materials];
+        transparency = new double[materials];
+        refractiveIndex = new double[materials];
+
+        sphereX = new double[sphereCount];
+        sphereY = new double[sphereCount];
+        sphereZ = new double[sphereCount];
+        sphereRadius = new double[sphereCount];
+        sphereRadius2 = new double[sphereCount];
+        sphereColor = new int[sphereCount];
+        int[] order = bvh.getOrder();
+        for (int i = 0; i < sphereCount; i++) {
+            int offset = order[i] * PackedObjects.SPHERE_STRIDE;
+            double radius = spheres[offset + 3];
+            sphereX[i] = spheres[offset];
+            sphereY[i] = spheres[offset + 1];
+            sphereZ[i] = spheres[offset + 2];
+            sphereRadius[i] = radius;
+            sphereRadius2[i] = radius * radius;
+            sphereColor[i] = objects.sphereColors[order[i]];
+            setMaterial(i, spheres, offset + 4);
+        }
+
+        double[] planes = objects.planes;
+        planePointX = new double[planeCount];
+        planePointY = new double[planeCount];
+        planePointZ = new double[planeCount];
+        planeNormalX = new double[planeCount];
+        planeNormalY = new double[planeCount];
+        planeNormalZ = new double[planeCount];
+        planeColor = new int[planeCount];
+        for (int i = 0; i < planeCount; i++) {
+            int offset = i * PackedObjects.PLANE_STRIDE;
+            planePointX[i] = planes[offset];
+            planePointY[i] = planes[offset + 1];
+            planePointZ[i] = planes[offset + 2];
+            planeNormalX[i] = planes[offset + 3];
+            planeNormalY[i] = planes[offset + 4];
+            planeNormalZ[i] = planes[offset + 5];
+            planeColor[i] = objects.planeColors[i];
+            setMaterial(sphereCount + i, planes, offset + 6);
+        }
+
+        meshes = new TriangleMesh[meshCount];
+        meshBase = new int[meshCount];
+        meshColor = new int[meshCount];
+        int base = sphereCount + planeCount;
+        for (int i = 0; i < meshCount; i++) {
+            Mesh mesh = objects.meshes.get(i);
+            meshes[i] = mesh.loadTriangles();
+            meshBase[i] = base;
+            meshColor[i] = mesh.getColor();
+            int material = sphereCount + planeCount + i;
+            reflectivity[material] = mesh.getReflectivity();
+            transparency[material] = mesh.getTransparency();
+            refractiveIndex[material] = mesh.getRefractiveIndex();
+            if (meshes[i].getTriangleCount() > Integer.MAX_VALUE - base) {
+                throw new IllegalArgumentException("Too many triangles in scene");
+            }
+            base += meshes[i].getTriangleCount();
+        }
+        triangleCount = base - sphereCount - planeCount;
+
+        // Instances of geometries without primitives are dropped.
+        geometryNames = compiledGeometries;
+        geometries = compiledGeometries.values().toArray(new CompiledScene[0]);
+        Map<CompiledScene, Integer> geometryIndex = new HashMap<>();
+        for (int i = 0; i < geometries.length; i++) {
+            geometryIndex.put(geometries[i], i);
+        }
+        List<Instance> placed = new ArrayList<>();
+        for (Instance instance : instances) {
+            if (compiledGeometries.get(instance.getGeometry()).primitiveCount > 0) {
+                placed.add(instance);
+            }
+        }
+        instanceCount = placed.size();
+        double[] transforms = new double[instanceCount * 12];
+        double[] instanceBounds = new double[instanceCount * 6];
+        for (int i = 0; i < instanceCount; i++) {
+            double[] matrix = placed.get(i).computeMatrix();
+            System.arraycopy(matrix, 0, transforms, i * 12, 12);
+            transformBounds(compiledGeometries.get(placed.get(i).getGeometry()).computeBounds(), matrix,
+                    instanceBounds, i * 6);
+        }
+        instanceBvh = buildOrRefit(previousInstanceBvh, instanceBounds);
+
+        instanceGeometry = new int[instanceCount];
+        instanceBase = new int[instanceCount];
+        instanceInverse = new double[instanceCount * 12];
+        int[] instanceOrder = instanceBvh.getOrder();
+        firstInstancePrimitive = base;
+        long next = base;
+        for (int i = 0; i < instanceCount; i++) {
+            CompiledScene geometry = compiledGeometries.get(placed.get(instanceOrder[i]).getGeometry());
+            instanceGeometry[i] = geometryIndex.get(geometry);
+            instanceBase[i] = (int) next;
+            next += geometry.primitiveCount;
+            if (next > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many instanced primitives in scene");
+            }
+            invert(transforms, instanceOrder[i] * 12, instanceInverse, i * 12);
+        }
+        primitiveCount = (int) next;
+    }
+
+    // Refit the hierarchy of the previous frame if it contains the same number of primitives and is still good enough.
+    private static Bvh buildOrRefit(Bvh previous, double[] bounds) {
+        if (previous != null && previous.getPrimitiveCount() * 6 == bounds.length) {
+            Bvh refitted = previous.refit(bounds);
+            if (!refitted.isDegraded()) {
+                return refitted;
+            }
+        }
+        return new Bvh(bounds);
+    }
+
+    // Bounds of all primitives, which have to be bounded.
+    private double[] computeBounds() {
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        if (sphereCount > 0) {
+            include(bounds, bvh.bounds);
+        }
+        for (TriangleMesh mesh : meshes) {
+            if (mesh.getTriangleCount() > 0) {
+                include(bounds, mesh.getBounds());
+            }
+        }
+        if (instanceCount > 0) {
+            include(bounds, instanceBvh.bounds);
+        }
+        return bounds;
+    }
+
+    private static void include(double[] bounds, double[] other) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[axis] = Math.min(bounds[axis], other[axis]);
+            bounds[axis + 3] = Math.max(bounds[axis + 3], other[axis + 3]);
+        }
+    }
+
+    // Bounds of the eight transformed corners of a box.
+    private static void transformBounds(double[] box, double[] m, double[] target, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            target[offset + axis] = Double.POSITIVE_INFINITY;
+            target[offset + axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+        for (int corner = 0; corner < 8; corner++) {
+            double x = box[(corner & 1) * 3];
+            double y = box[1 + (corner >> 1 & 1) * 3];
+            double z = box[2 + (corner >> 2 & 1) * 3];
+            for (int axis = 0; axis < 3; axis++) {
+                int row = axis * 4;
+                double value = m[row] * x + m[row + 1] * y + m[row + 2] * z + m[row + 3];
+                target[offset + axis] = Math.min(target[offset + axis], value);
+                target[offset + axis + 3] = Math.max(target[offset + axis + 3], value);
+            }
+        }
+    }
+
+    // Invert an affine 3x4 matrix: the inverse of the linear part and the inverted translation.
+    private static void invert(double[] m, int from, double[] target, int to) {
+        double a = m[from];
+        double b = m[from + 1];
+        double c = m[from + 2];
+        double d = m[from + 4];
+        double e = m[from + 5];
+        double f = m[from + 6];
+        double g = m[from + 8];
+        double h = m[from + 9];
+        double i = m[from + 10];
+        double det = a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+        if (det == 0 || Double.isNaN(det)) {
+            throw new IllegalArgumentException("Instance transformation is not invertible");
+        }
+        double[] inverse = {
+                (e * i - f * h) / det, (c * h - b * i) / det, (b * f - c * e) / det,
+                (f * g - d * i) / det, (a * i - c * g) / det, (c * d - a * f) / det,
+                (d * h - e * g) / det, (b * g - a * h) / det, (a * e - b * d) / det};
+        for (int row = 0; row < 3; row++) {
+            double r0 = inverse[row * 3];
+            double r1 = inverse[row * 3 + 1];
+            double r2 = inverse[row * 3 + 2];
+            target[to + row * 4] = r0;
+            target[to + row * 4 + 1] = r1;
+            target[to + row * 4 + 2] = r2;
+            target[to + row * 4 + 3] = -(r0 * m[from + 3] + r1 * m[from + 7] + r2 * m[from + 11]);
+        }
+    }
+
+    // Copy reflectivity, transparency and refractive index of a packed sphere or plane.
+    private void setMaterial(int primitive, double[] values, int offset) {
+        reflectivity[primitive] = values[offset];
+        transparency[primitive] = values[offset + 1];
+        refractiveIndex[primitive] = values[offset + 2];
+    }
+
+    /**
+     * Compile scene objects. The objects are copied, i.e. later modifications are not visible in the compiled scene.
+     * Meshes are loaded if necessary, their triangles are shared.
+     *
+     * @param objects objects of a scene
+     * @return the compiled scene
+     */
+    public static CompiledScene compile(List<SceneObject> objects) {
+        return compile(objects, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Compile scene objects and instances of shared geometries. Every geometry which is referenced by an instance is
+     * compiled once.
+     *
+     * @param objects    objects of a scene
+     * @param geometries named geometries, may be null
+     * @param instances  instances of the geometries, may be null
+     * @return the compiled scene
+     * @throws IllegalArgumentException if an instance references an unknown or unbounded geometry
+     */
+    public static CompiledScene compile(List<SceneObject> objects, List<Geometry> geometries,
+            List<Instance> instances) {
+        return compile(PackedObjects.of(objects), geometries, instances);
+    }
+
+    /**
+     * Compile packed scene objects, e.g. of a streamed scene file, and instances of shared geometries. The objects are
+     * copied, hence they can be released afterwards.
+     *
+     * @param objects    packed objects of a scene
+     * @param geometries named geometries, may be null
+     * @param instances  instances of the geometries, may be null
+     * @return the compiled scene
+     * @throws IllegalArgumentException if an instance references an unknown or unbounded geometry
+     */
+    public static CompiledScene compile(PackedObjects objects, List<Geometry> geometries, List<Instance> instances) {
+        return compile(objects, geometries, instances, null);
+    }
+
+    /**
+     * Compile the next frame of an animation. The hierarchies of the previous frame, including those of geometries
+     * with the same name, are refitted to the moved objects if possible, otherwise they are built again. Objects are
+     * expected to keep their order; if objects are added or removed, the result is correct but may be slower.
+     *
+     * @param objects    packed objects of a scene
+     * @param geometries named geometries, may be null
+     * @param instances  instances of the geometries, may be null
+     * @param previous   compiled scene of the previous frame, may be null
+     * @return the compiled scene
+     * @throws IllegalArgumentException if an instance references an unknown or unbounded geometry
+     */
+    public static CompiledScene compile(PackedObjects objects, List<Geometry> geometries, List<Instance> instances,
+            CompiledScene previous) {
+        Map<String, CompiledScene> compiledGeometries = new HashMap<>();
+        if (instances == null) {
+            instances = Collections.emptyList();
+        }
+        for (Instance instance : instances) {
+            String name = instance.getGeometry();
+            if (!compiledGeometries.containsKey(name)) {
+                compiledGeometries.put(name, compileGeometry(geometries, name, previous));
+            }
+        }
+        return new CompiledScene(objects, compiledGeometries, instances, previous);
+    }
+
+    private static CompiledScene compileGeometry(List<Geometry> geometries, String name, CompiledScene previous) {
+        CompiledScene previousGeometry = null;
+        if (previous != null) {
+            previousGeometry = previous.geometryNames.get(name);
+        }
+        if (geometries != null) {
+            for (Geometry geometry : geometries) {
+                if (geometry.getName() != null && geometry.getName().equals(name)) {
+                    CompiledScene compiled = new CompiledScene(PackedObjects.of(geometry.getObjects()),
+                            Collections.emptyMap(), Collections.emptyList(), previousGeometry);
+                    if (compiled.planeCount > 0) {
+                        throw new IllegalArgumentException("Geometry " + name + " contains unbounded objects");
+                    }
+                    return compiled;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown geometry: " + name);
+    }
+
+    /**
+     * Find the nearest primitive intersected by the ray. Only hits nearer than the one already stored in the hit
+     * record are considered.
+     *
+     * @param ray   ray with normalized direction
+     * @param hit   record which is updated with the nearest hit
+     * @param stack reusable traversal stack
+     * @return true if a nearer hit was found
+     */
+    public boolean closestHit(Ray ray, HitRecord hit, TraversalStack stack) {
+        boolean found = false;
+        if (sphereCount > 0) {
+            found = closestSphere(ray, hit, stack);
+        }
+        for (int i = 0; i < planeCount; i++) {
+            found |= hit.update(sphereCount + i, intersectPlane(i, ray));
+        }
+        stack.planeTests += planeCount;
+        found |= closestNestedHit(ray, hit, stack);
+        return found;
+    }
+
+    /**
+     * Find the nearest hit among meshes and instances, which are traversed with their own hierarchies. Used by
+     * alternative kernels which only handle spheres and planes themselves.
+     *
+     * @param ray   ray with normalized direction
+     * @param hit   record which is updated with the nearest hit
+     * @param stack reusable traversal stack
+     * @return true if a nearer hit was found
+     */
+    boolean closestNestedHit(Ray ray, HitRecord hit, TraversalStack stack) {
+        boolean found = false;
+        for (int i = 0; i < meshCount; i++) {
+            found |= meshes[i].closestHit(ray, hit, meshBase[i], stack);
+        }
+        if (instanceCount > 0) {
+            found |= closestInstance(ray, hit, stack);
+        }
+        return found;
+    }
+
+    // Front-to-back traversal of the instance hierarchy. Uses separate stack arrays, since the geometries of the
+    // instances are traversed while the instance hierarchy is.
+    private boolean closestInstance(Ray ray, HitRecord hit, TraversalStack stack) {
+        stack.nodesVisited++;
+        if (instanceBvh.intersectBox(0, ray, hit.distance) == Ray.NO_INTERSECTION) {
+            return false;
+        }
+        stack.ensureInstanceCapacity(instanceBvh.getDepth() + 1);
+        int[] nodes = stack.instanceNodes;
+        double[] distances = stack.instanceDistances;
+        int[] offsets = instanceBvh.offsets;
+        int[] counts = instanceBvh.counts;
+
+        boolean found = false;
+        int sp = 0;
+        int node = 0;
+        while (true) {
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                for (int i = first; i < last; i++) {
+                    found |= closestInstanceHit(i, ray, hit, stack);
+                }
+            } else {
+                stack.nodesVisited += 2;
+                int left = node + 1;
+                int right = offsets[node];
+                double leftDistance = instanceBvh.intersectBox(left, ray, hit.distance);
+                double rightDistance = instanceBvh.intersectBox(right, ray, hit.distance);
+                if (leftDistance <= rightDistance) {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        if (rightDistance != Ray.NO_INTERSECTION) {
+                            nodes[sp] = right;
+                            distances[sp++] = rightDistance;
+                        }
+                        node = left;
+                        continue;
+                    }
+                } else {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        nodes[sp] = left;
+                        distances[sp++] = leftDistance;
+                    }
+                    node = right;
+                    continue;
+                }
+            }
+
+            node = -1;
+            while (sp > 0) {
+                sp--;
+                if (distances[sp] < hit.distance) {
+                    node = nodes[sp];
+                    break;
+                }
+            }
+            if (node < 0) {
+                return found;
+            }
+        }
+    }
+
+    // Query the geometry of an instance with the transformed ray. Distances along the transformed ray are scaled by
+    // the length of the transformed direction.
+    private boolean closestInstanceHit(int instance, Ray ray, HitRecord hit, TraversalStack stack) {
+        Ray local = stack.instanceRay;
+        double scale = transform(instance, ray, local);
+        int primitive = hit.primitive;
+        double distance = hit.distance;
+        hit.primitive = NONE;
+        hit.distance = distance * scale;
+        if (geometries[instanceGeometry[instance]].closestHit(local, hit, stack)) {
+            hit.primitive += instanceBase[instance];
+            hit.distance /= scale;
+            return true;
+        }
+        hit.primitive = primitive;
+        hit.distance = distance;
+        return false;
+    }
+
+    // Transform a ray into the space of the geometry of an instance and return the length of the transformed
+    // direction, which is normalized afterwards.
+    private double transform(int instance, Ray ray, Ray target) {
+        double[] m = instanceInverse;
+        int o = instance * 12;
+        double ox = m[o] * ray.ox + m[o + 1] * ray.oy + m[o + 2] * ray.oz + m[o + 3];
+        double oy = m[o + 4] * ray.ox + m[o + 5] * ray.oy + m[o + 6] * ray.oz + m[o + 7];
+        double oz = m[o + 8] * ray.ox + m[o + 9] * ray.oy + m[o + 10] * ray.oz + m[o + 11];
+        double dx = m[o] * ray.dx + m[o + 1] * ray.dy + m[o + 2] * ray.dz;
+        double dy = m[o + 4] * ray.dx + m[o + 5] * ray.dy + m[o + 6] * ray.dz;
+        double dz = m[o + 8] * ray.dx + m[o + 9] * ray.dy + m[o + 10] * ray.dz;
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        target.set(ox, oy, oz, dx / length, dy / length, dz / length);
+        return length;
+    }
+
+    // Front-to-back traversal of the sphere hierarchy.
+    private boolean closestSphere(Ray ray, HitRecord hit, TraversalStack stack) {
+        stack.nodesVisited++;
+        if (bvh.intersectBox(0, ray, hit.distance) == Ray.NO_INTERSECTION) {
+            return false;
+        }
+        stack.ensureCapacity(bvh.getDepth() + 1);
+        int[] nodes = stack.nodes;
+        double[] distances = stack.distances;
+        int[] offsets = bvh.offsets;
+        int[] counts = bvh.counts;
+
+        // Counted locally and added to the stack once per query.
+        long visited = 0;
+        long tests = 0;
+        boolean found = false;
+        int sp = 0;
+        int node = 0;
+        while (true) {
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                tests += last - first;
+                for (int i = first; i < last; i++) {
+                    found |= hit.update(i, intersectSphere(i, ray));
+                }
+            } else {
+                visited += 2;
+                // Visit the nearer child first and remember the other one.
+                int left = node + 1;
+                int right = offsets[node];
+                double leftDistance = bvh.intersectBox(left, ray, hit.distance);
+                double rightDistance = bvh.intersectBox(right, ray, hit.distance);
+                if (leftDistance <= rightDistance) {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        if (rightDistance != Ray.NO_INTERSECTION) {
+                            nodes[sp] = right;
+                            distances[sp++] = rightDistance;
+                        }
+                        node = left;
+                        continue;
+                    }
+                } else {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        nodes[sp] = left;
+                        distances[sp++] = leftDistance;
+                    }
+                    node = right;
+                    continue;
+                }
+            }
+
+            // Continue with the next remembered node which might still contain a nearer primitive.
+            node = -1;
+            while (sp > 0) {
+                sp--;
+                if (distances[sp] < hit.distance) {
+                    node = nodes[sp];
+                    break;
+                }
+            }
+            if (node < 0) {
+                stack.nodesVisited += visited;
+                stack.sphereTests += tests;
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Check if the ray intersects any primitive.
+     *
+     * @param ray    ray with normalized direction
+     * @param ignore identifier of a primitive which is not considered, e.g. the one the ray starts from
+     * @param stack  reusable traversal stack
+     * @return true if any primitive besides the ignored one is intersected
+     */
+    public boolean anyHit(Ray ray, int ignore, TraversalStack stack) {
+        return findOccluder(ray, Ray.NO_INTERSECTION, ignore, NONE, stack) != NONE;
+    }
+
+    /**
+     * Find any primitive which blocks a shadow ray before it reaches the light source.
+     * <p>
+     * Neighbouring shadow rays are usually blocked by the same primitive, hence the caller can pass the occluder of
+     * its previous shadow ray, which is tested before the hierarchy is traversed.
+     *
+     * @param ray         ray from a surface point towards the light, with normalized direction
+     * @param maxDistance distance to the light source
+     * @param ignore      identifier of a primitive which is not considered, e.g. the one the ray starts from
+     * @param candidate   identifier of the primitive to test first or <code>NONE</code>
+     * @param stack       reusable traversal stack
+     * @return identifier of an occluding primitive or <code>NONE</code> if the light is visible.
+     */
+    public int findOccluder(Ray ray, double maxDistance, int ignore, int candidate, TraversalStack stack) {
+        if (candidate != NONE && candidate != ignore && occludes(candidate, ray, maxDistance, stack)) {
+            return candidate;
+        }
+        if (sphereCount > 0) {
+            int occluder = findSphereOccluder(ray, maxDistance, ignore, stack);
+            if (occluder != NONE) {
+                return occluder;
+            }
+        }
+        for (int i = 0; i < planeCount; i++) {
+            stack.planeTests++;
+            if (sphereCount + i != ignore && intersectPlane(i, ray) < maxDistance) {
+                return sphereCount + i;
+            }
+        }
+        for (int i = 0; i < meshCount; i++) {
+            int local = ignore - meshBase[i];
+            if (local < 0 || local >= meshes[i].getTriangleCount()) {
+                local = NONE;
+            }
+            int occluder = meshes[i].findOccluder(ray, maxDistance, local, stack);
+            if (occluder != NONE) {
+                return meshBase[i] + occluder;
+            }
+        }
+        if (instanceCount > 0) {
+            return findInstanceOccluder(ray, maxDistance, ignore, stack);
+        }
+        return NONE;
+    }
+
+    private int findInstanceOccluder(Ray ray, double maxDistance, int ignore, TraversalStack stack) {
+        stack.ensureInstanceCapacity(instanceBvh.getDepth() + 2);
+        int[] nodes = stack.instanceNodes;
+        int[] offsets = instanceBvh.offsets;
+        int[] counts = instanceBvh.counts;
+
+        int sp = 0;
+        nodes[sp++] = 0;
+        while (sp > 0) {
+            int node = nodes[--sp];
+            stack.nodesVisited++;
+            if (instanceBvh.intersectBox(node, ray, maxDistance) == Ray.NO_INTERSECTION) {
+                continue;
+            }
+
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                for (int i = first; i < last; i++) {
+                    CompiledScene geometry = geometries[instanceGeometry[i]];
+                    int local = ignore - instanceBase[i];
+                    if (local < 0 || local >= geometry.primitiveCount) {
+                        local = NONE;
+                    }
+                    double scale = transform(i, ray, stack.instanceRay);
+                    int occluder = geometry.findOccluder(stack.instanceRay, maxDistance * scale, local, NONE, stack);
+                    if (occluder != NONE) {
+                        return instanceBase[i] + occluder;
+                    }
+                }
+            } else {
+                nodes[sp++] = offsets[node];
+                nodes[sp++] = node + 1;
+            }
+        }
+        return NONE;
+    }
+
+    private int findSphereOccluder(Ray ray, double maxDistance, int ignore, TraversalStack stack) {
+        stack.ensureCapacity(bvh.getDepth() + 2);
+        int[] nodes = stack.nodes;
+        int[] offsets = bvh.offsets;
+        int[] counts = bvh.counts;
+
+        long visited = 0;
+        long tests = 0;
+        int occluder = NONE;
+        int sp = 0;
+        nodes[sp++] = 0;
+        while (sp > 0 && occluder == NONE) {
+            int node = nodes[--sp];
+            visited++;
+            if (bvh.intersectBox(node, ray, maxDistance) == Ray.NO_INTERSECTION) {
+                continue;
+            }
+
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                for (int i = first; i < last; i++) {
+                    tests++;
+                    if (i != ignore && occludesSphere(i, ray, maxDistance)) {
+                        occluder = i;
+                        break;
+                    }
+                }
+            } else {
+                nodes[sp++] = offsets[node];
+                nodes[sp++] = node + 1;
+            }
+        }
+        stack.nodesVisited += visited;
+        stack.sphereTests += tests;
+        return occluder;
+    }
+
+    private boolean occludes(int primitive, Ray ray, double maxDistance, TraversalStack stack) {
+        if (primitive < sphereCount) {
+            return occludesSphere(primitive, ray, maxDistance);
+        }
+        if (primitive < sphereCount + planeCount) {
+            return intersectPlane(primitive - sphereCount, ray) < maxDistance;
+        }
+        if (primitive >= firstInstancePrimitive) {
+            int instance = findInstance(primitive);
+            double scale = transform(instance, ray, stack.instanceRay);
+            return geometries[instanceGeometry[instance]].occludes(primitive - instanceBase[instance],
+                    stack.instanceRay, maxDistance * scale, stack);
+        }
+        int mesh = findMesh(primitive);
+        return meshes[mesh].intersect(primitive - meshBase[mesh], ray, maxDistance, stack) != Ray.NO_INTERSECTION;
+    }
+
+    // Binary search for the instance containing the primitive with the given identifier.
+    private int findInstance(int primitive) {
+        int index = Arrays.binarySearch(instanceBase, primitive);
+        if (index >= 0) {
+            return index;
+        }
+        return -index - 2;
+    }
+
+    // Binary search for the mesh containing the triangle with the given identifier.
+    private int findMesh(int primitive) {
+        int index = Arrays.binarySearch(meshBase, primitive);
+        if (index >= 0) {
+            // Skip meshes without triangles which share the identifier of the next mesh.
+            while (index + 1 < meshCount && meshBase[index + 1] == primitive) {
+                index++;
+            }
+            return index;
+        }
+        return -index - 2;
+    }
+
+    /**
+     * Compute intersection point, normal, color and material for the primitive stored in the hit record.
+     *
+     * @param ray the ray used for the query
+     * @param hit the record of a successful query
+     */
+    public void resolve(Ray ray, HitRecord hit) {
+        double t = hit.distance;
+        double x = ray.ox + ray.dx * t;
+        double y = ray.oy + ray.dy * t;
+        double z = ray.oz + ray.dz * t;
+        hit.point.set(x, y, z);
+
+        int p = hit.primitive;
+        if (p >= firstInstancePrimitive) {
+            resolveInstance(ray, hit);
+            return;
+        }
+        if (p < sphereCount) {
+            double r = sphereRadius[p];
+            double nx = (x - sphereX[p]) / r;
+            double ny = (y - sphereY[p]) / r;
+            double nz = (z - sphereZ[p]) / r;
+            double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            hit.normal.set(nx / len, ny / len, nz / len);
+            hit.color = sphereColor[p];
+        } else if (p < sphereCount + planeCount) {
+            int i = p - sphereCount;
+            hit.normal.set(planeNormalX[i], planeNormalY[i], planeNormalZ[i]);
+            hit.color = planeColor[i];
+        } else {
+            int m = findMesh(p);
+            meshes[m].computeNormal(p - meshBase[m], hit.normal);
+            hit.color = meshColor[m];
+            p = sphereCount + planeCount + m;
+        }
+        hit.reflectivity = reflectivity[p];
+        hit.transparency = transparency[p];
+        hit.refractiveIndex = refractiveIndex[p];
+    }
+
+    // Resolve the hit in the space of the geometry and transform point and normal back. Normals are transformed with
+    // the transposed inverse matrix.
+    private void resolveInstance(Ray ray, HitRecord hit) {
+        int p = hit.primitive;
+        double t = hit.distance;
+        int instance = findInstance(p);
+        Ray local = hit.instanceRay;
+        double scale = transform(instance, ray, local);
+        hit.primitive = p - instanceBase[instance];
+        hit.distance = t * scale;
+        geometries[instanceGeometry[instance]].resolve(local, hit);
+        hit.primitive = p;
+        hit.distance = t;
+        hit.point.set(ray.ox + ray.dx * t, ray.oy + ray.dy * t, ray.oz + ray.dz * t);
+
+        double[] m = instanceInverse;
+        int o = instance * 12;
+        double x = hit.normal.x;
+        double y = hit.normal.y;
+        double z = hit.normal.z;
+        double nx = m[o] * x + m[o + 4] * y + m[o + 8] * z;
+        double ny = m[o + 1] * x + m[o + 5] * y + m[o + 9] * z;
+        double nz = m[o + 2] * x + m[o + 6] * y + m[o + 10] * z;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        hit.normal.set(nx / len, ny / len, nz / len);
+    }
+
+    // Sphere intersection kernel, see Sphere.intersect(). Uses the half-b form of the quadratic formula, which
+    // yields identical results.
+    private double intersectSphere(int i, Ray ray) {
+        double ocx = ray.ox - sphereX[i];
+        double ocy = ray.oy - sphereY[i];
+        double ocz = ray.oz - sphereZ[i];
+        double b = ray.dx * ocx + ray.dy * ocy + ray.dz * ocz;
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - sphereRadius2[i];
+
+        double disc = b * b - c;
+        if (disc < 0) {
+            return Ray.NO_INTERSECTION;
+        }
+        double t = -b - Math.sqrt(disc);
+        if (t < 0) {
+            // Intersection is behind the eye, for rays starting inside the sphere use the far intersection.
+            t = -b + Math.sqrt(disc);
+            if (t < 0) {
+                return Ray.NO_INTERSECTION;
+            }
+        }
+        return t;
+    }
+
+    // Occlusion kernel with the same hits as intersectSphere(), but bounded by the distance to the light. Rejects
+    // spheres behind the origin without a square root.
+    private boolean occludesSphere(int i, Ray ray, double maxDistance) {
+        double ocx = ray.ox - sphereX[i];
+        double ocy = ray.oy - sphereY[i];
+        double ocz = ray.oz - sphereZ[i];
+        double b = ray.dx * ocx + ray.dy * ocy + ray.dz * ocz;
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - sphereRadius2[i];
+        if (c >= 0 && b > 0) {
+            return false;
+        }
+        double disc = b * b - c;
+        if (disc < 0) {
+            return false;
+        }
+        double t = -b - Math.sqrt(disc);
+        if (t < 0) {
+            // Origin inside the sphere, e.g. a dome around the scene: as for closest hits, the far intersection counts.
+            t = -b + Math.sqrt(disc);
+        }
+        return t < maxDistance;
+    }
+
+    // Plane intersection kernel, see Plane.intersect().
+    private double intersectPlane(int i, Ray ray) {
+        double vd = ray.dx * planeNormalX[i] + ray.dy * planeNormalY[i] + ray.dz * planeNormalZ[i];
+        if (Math.abs(vd) < 0.0001) {
+            return Ray.NO_INTERSECTION;
+        }
+        double v0 = planeNormalX[i] * (planePointX[i] - ray.ox) + planeNormalY[i] * (planePointY[i] - ray.oy) +
+                planeNormalZ[i] * (planePointZ[i] - ray.oz);
+        double t = v0 / vd;
+        if (t < 0) {
+            // Plane behind eye, ignore it.
+            return Ray.NO_INTERSECTION;
+        }
+        return t;
+    }
+
+    public int getSphereCount() {
+        return sphereCount;
+    }
+
+    public int getPlaneCount() {
+        return planeCount;
+    }
+
+    public int getMeshCount() {
+        return meshCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * Return the number of identifiers used by the primitives of this scene including those of all instances.
+     *
+     * @return number of primitives
+     */
+    public int getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    public Bvh getBvh() {
+        return bvh;
+    }
+}
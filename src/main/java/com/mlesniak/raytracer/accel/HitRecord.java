@@ -0,0 +1,59 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+
+/**
+ * Mutable result of a closest-hit query.
+ * <p>
+ * A hit record is reused for every ray of a thread. Queries only store the identifier of the intersected primitive
+ * and its distance; the intersection point, normal, color and material are computed once for the nearest primitive
+ * by {@link CompiledScene#resolve(Ray, HitRecord)}.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class HitRecord {
+    public int primitive;
+    public double distance;
+    public final Vector3D point = new Vector3D();
+    public final Vector3D normal = new Vector3D();
+    public int color;
+    public double reflectivity;
+    public double transparency;
+    public double refractiveIndex;
+
+    // Ray in the space of an instanced geometry while resolving a hit.
+    final Ray instanceRay = new Ray();
+
+    public HitRecord() {
+        reset();
+    }
+
+    /**
+     * Prepare this record for a new query.
+     */
+    public void reset() {
+        primitive = CompiledScene.NONE;
+        distance = Ray.NO_INTERSECTION;
+    }
+
+    /**
+     * Store a hit if it is nearer than the current one.
+     *
+     * @param candidate identifier of the intersected primitive
+     * @param t         distance along the ray
+     * @return true if the hit was stored
+     */
+    public boolean update(int candidate, double t) {
+        if (t < distance) {
+            primitive = candidate;
+            distance = t;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isHit() {
+        return primitive != CompiledScene.NONE;
+    }
+}
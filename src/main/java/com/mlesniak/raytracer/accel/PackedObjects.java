@@ -0,0 +1,230 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Mesh;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Scene objects collected in growing primitive arrays, e.g. while a large scene file is parsed.
+ * <p>
+ * Spheres and planes are stored without an object per primitive, hence the memory needed for scenes with millions of
+ * objects stays close to the size of their {@link CompiledScene}. Meshes are few and reference their loaded
+ * triangles, they are kept as beans. The order of all objects is kept, such that they can be converted back into
+ * beans, e.g. for animations or to serialize the scene.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class PackedObjects implements Iterable<SceneObject> {
+    private static final byte SPHERE = 0;
+    private static final byte PLANE = 1;
+    private static final byte MESH = 2;
+
+    // Center, radius, reflectivity, transparency and refractive index.
+    static final int SPHERE_STRIDE = 7;
+    // Point, normal, reflectivity, transparency and refractive index.
+    static final int PLANE_STRIDE = 9;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Type of every object in the order they have been added.
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    int sphereCount;
+    double[] spheres = new double[INITIAL_CAPACITY * SPHERE_STRIDE];
+    int[] sphereColors = new int[INITIAL_CAPACITY];
+
+    int planeCount;
+    double[] planes = new double[INITIAL_CAPACITY * PLANE_STRIDE];
+    int[] planeColors = new int[INITIAL_CAPACITY];
+
+    final List<Mesh> meshes = new ArrayList<>();
+
+    /**
+     * Pack a list of scene objects.
+     *
+     * @param objects scene objects, may be null
+     * @return the packed objects
+     * @throws IllegalArgumentException if an object is not a sphere, plane or mesh
+     */
+    public static PackedObjects of(List<SceneObject> objects) {
+        PackedObjects packed = new PackedObjects();
+        if (objects != null) {
+            for (SceneObject object : objects) {
+                packed.add(object);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Add a scene object. Spheres and planes are copied, meshes are stored as they are.
+     *
+     * @param object sphere, plane or mesh
+     * @throws IllegalArgumentException if the object is not a sphere, plane or mesh
+     */
+    public void add(SceneObject object) {
+        if (object instanceof Sphere) {
+            addSphere((Sphere) object);
+        } else if (object instanceof Plane) {
+            addPlane((Plane) object);
+        } else if (object instanceof Mesh) {
+            addKind(MESH);
+            meshes.add((Mesh) object);
+        } else {
+            throw new IllegalArgumentException("Unsupported scene object: " + object.getClass().getName());
+        }
+    }
+
+    private void addSphere(Sphere sphere) {
+        addKind(SPHERE);
+        if (sphereCount == sphereColors.length) {
+            spheres = Arrays.copyOf(spheres, spheres.length * 2);
+            sphereColors = Arrays.copyOf(sphereColors, sphereColors.length * 2);
+        }
+        int offset = sphereCount * SPHERE_STRIDE;
+        Vector3D center = sphere.getCenter();
+        spheres[offset] = center.x;
+        spheres[offset + 1] = center.y;
+        spheres[offset + 2] = center.z;
+        spheres[offset + 3] = sphere.getRadius();
+        storeMaterial(spheres, offset + 4, sphere);
+        sphereColors[sphereCount++] = sphere.getColor();
+    }
+
+    private void addPlane(Plane plane) {
+        addKind(PLANE);
+        if (planeCount == planeColors.length) {
+            planes = Arrays.copyOf(planes, planes.length * 2);
+            planeColors = Arrays.copyOf(planeColors, planeColors.length * 2);
+        }
+        int offset = planeCount * PLANE_STRIDE;
+        Vector3D point = plane.getPoint();
+        Vector3D normal = plane.getNormal();
+        planes[offset] = point.x;
+        planes[offset + 1] = point.y;
+        planes[offset + 2] = point.z;
+        planes[offset + 3] = normal.x;
+        planes[offset + 4] = normal.y;
+        planes[offset + 5] = normal.z;
+        storeMaterial(planes, offset + 6, plane);
+        planeColors[planeCount++] = plane.getColor();
+    }
+
+    private static void storeMaterial(double[] values, int offset, SceneObject object) {
+        values[offset] = object.getReflectivity();
+        values[offset + 1] = object.getTransparency();
+        values[offset + 2] = object.getRefractiveIndex();
+    }
+
+    private static void loadMaterial(double[] values, int offset, SceneObject object) {
+        object.setReflectivity(values[offset]);
+        object.setTransparency(values[offset + 1]);
+        object.setRefractiveIndex(values[offset + 2]);
+    }
+
+    private void addKind(byte kind) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, kinds.length * 2);
+        }
+        kinds[size++] = kind;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getSphereCount() {
+        return sphereCount;
+    }
+
+    public int getPlaneCount() {
+        return planeCount;
+    }
+
+    public int getMeshCount() {
+        return meshes.size();
+    }
+
+    /**
+     * Convert all objects back into beans.
+     *
+     * @return new list of the objects in the order they have been added
+     */
+    public List<SceneObject> toObjects() {
+        List<SceneObject> objects = new ArrayList<>(size);
+        for (SceneObject object : this) {
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    /**
+     * Iterate over the objects in the order they have been added. Spheres and planes are converted into new beans
+     * one at a time, hence iterating does not keep all objects as beans in memory.
+     *
+     * @return iterator over the objects
+     */
+    @Override
+    public Iterator<SceneObject> iterator() {
+        return new ObjectIterator();
+    }
+
+    /**
+     * Creates a bean per object while iterating.
+     */
+    private final class ObjectIterator implements Iterator<SceneObject> {
+        private int index;
+        private int sphere;
+        private int plane;
+        private int mesh;
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public SceneObject next() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            switch (kinds[index++]) {
+                case SPHERE:
+                    return nextSphere();
+                case PLANE:
+                    return nextPlane();
+                default:
+                    return meshes.get(mesh++);
+            }
+        }
+
+        private Sphere nextSphere() {
+            int offset = sphere * SPHERE_STRIDE;
+            Sphere object = new Sphere();
+            object.setCenter(new Vector3D(spheres[offset], spheres[offset + 1], spheres[offset + 2]));
+            object.setRadius(spheres[offset + 3]);
+            loadMaterial(spheres, offset + 4, object);
+            object.setColor(sphereColors[sphere++]);
+            return object;
+        }
+
+        private Plane nextPlane() {
+            int offset = plane * PLANE_STRIDE;
+            Plane object = new Plane();
+            object.setPoint(new Vector3D(planes[offset], planes[offset + 1], planes[offset + 2]));
+            object.setNormal(new Vector3D(planes[offset + 3], planes[offset + 4], planes[offset + 5]));
+            loadMaterial(planes, offset + 6, object);
+            object.setColor(planeColors[plane++]);
+            return object;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.mlesniak.raytracer.accel;
+
+/**
+ * Computes closest hits for whole packets of rays.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public interface PacketTracer {
+    /**
+     * Number of rays in a packet which is processed best by this tracer.
+     *
+     * @return preferred packet size
+     */
+    int getPacketSize();
+
+    /**
+     * Find the nearest primitive for every ray of the packet.
+     *
+     * @param packet packet of the preferred size whose results are updated
+     * @param stack  reusable traversal stack
+     */
+    void closestHits(RayPacket packet, TraversalStack stack);
+}
@@ -0,0 +1,38 @@
+package com.mlesniak.raytracer.accel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the fastest packet tracer available on the running JVM.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class PacketTracers {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketTracers.class);
+
+    // Only compiled with the simd profile, see pom.xml.
+    private static final String VECTOR_TRACER = "com.mlesniak.raytracer.accel.VectorPacketTracer";
+
+    private PacketTracers() {
+    }
+
+    /**
+     * Create a packet tracer using the Java Vector API if it has been compiled in and the incubator module
+     * <code>jdk.incubator.vector</code> is available at runtime, or the scalar fallback otherwise.
+     *
+     * @param compiledScene scene to trace
+     * @return packet tracer
+     */
+    public static PacketTracer create(CompiledScene compiledScene) {
+        try {
+            Class<?> type = Class.forName(VECTOR_TRACER);
+            PacketTracer tracer = (PacketTracer) type.getConstructor(CompiledScene.class).newInstance(compiledScene);
+            LOG.info("Using vectorized packet tracing with {} rays per packet", tracer.getPacketSize());
+            return tracer;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.info("Vector API not available, using scalar packet tracing: {}", e.toString());
+            return new ScalarPacketTracer(compiledScene);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+
+/**
+ * Packet of coherent rays sharing a common origin, e.g. the primary rays of a small block of pixels.
+ * <p>
+ * Directions are stored in parallel arrays such that they can be loaded into vector registers. A packet is reused for
+ * all blocks of a thread, the results of the last query are stored in <code>distance</code> and
+ * <code>primitive</code>.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class RayPacket {
+    public final int size;
+
+    public double ox;
+    public double oy;
+    public double oz;
+    public final double[] dx;
+    public final double[] dy;
+    public final double[] dz;
+
+    public final double[] distance;
+    public final int[] primitive;
+
+    public RayPacket(int size) {
+        this.size = size;
+        dx = new double[size];
+        dy = new double[size];
+        dz = new double[size];
+        distance = new double[size];
+        primitive = new int[size];
+    }
+
+    /**
+     * Set the direction of a single ray.
+     *
+     * @param i  index of the ray
+     * @param dx x-component of the normalized direction
+     * @param dy y-component of the normalized direction
+     * @param dz z-component of the normalized direction
+     */
+    public void setDirection(int i, double dx, double dy, double dz) {
+        this.dx[i] = dx;
+        this.dy[i] = dy;
+        this.dz[i] = dz;
+    }
+
+    /**
+     * Copy a single ray of the packet.
+     *
+     * @param i   index of the ray
+     * @param ray target ray
+     * @return the target ray
+     */
+    public Ray toRay(int i, Ray ray) {
+        return ray.set(ox, oy, oz, dx[i], dy[i], dz[i]);
+    }
+}
@@ -0,0 +1,37 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+
+/**
+ * Fallback which traces every ray of a packet on its own.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class ScalarPacketTracer implements PacketTracer {
+    private static final int PACKET_SIZE = 4;
+
+    private final CompiledScene compiledScene;
+    private final ThreadLocal<Ray> rays = ThreadLocal.withInitial(Ray::new);
+    private final ThreadLocal<HitRecord> hits = ThreadLocal.withInitial(HitRecord::new);
+
+    public ScalarPacketTracer(CompiledScene compiledScene) {
+        this.compiledScene = compiledScene;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return PACKET_SIZE;
+    }
+
+    @Override
+    public void closestHits(RayPacket packet, TraversalStack stack) {
+        Ray ray = rays.get();
+        HitRecord hit = hits.get();
+        for (int i = 0; i < packet.size; i++) {
+            hit.reset();
+            compiledScene.closestHit(packet.toRay(i, ray), hit, stack);
+            packet.distance[i] = hit.distance;
+            packet.primitive[i] = hit.primitive;
+        }
+    }
+}
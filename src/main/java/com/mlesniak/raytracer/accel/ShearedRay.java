@@ -0,0 +1,72 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+
+/**
+ * Ray prepared for the watertight ray/triangle test of Woop, Benthin and Wald.
+ * <p>
+ * The axes are permuted such that the dominant component of the direction becomes z, and the triangle vertices are
+ * sheared such that the ray points along the z-axis. Edge functions are then evaluated in 2D with the same
+ * arithmetic for both triangles sharing an edge, hence rays through edges and vertices always hit at least one of
+ * the adjacent triangles.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class ShearedRay {
+    // Permutation of the axes, kz is the dominant axis of the direction.
+    int kx;
+    int ky;
+    int kz;
+
+    // Shear constants.
+    double sx;
+    double sy;
+    double sz;
+
+    // Origin in the permuted axes.
+    double ox;
+    double oy;
+    double oz;
+
+    /**
+     * Prepare the transformation for a ray.
+     *
+     * @param ray ray with normalized direction
+     */
+    void set(Ray ray) {
+        double ax = Math.abs(ray.dx);
+        double ay = Math.abs(ray.dy);
+        double az = Math.abs(ray.dz);
+        kz = 2;
+        if (ax > ay && ax > az) {
+            kz = 0;
+        } else if (ay > az) {
+            kz = 1;
+        }
+        kx = (kz + 1) % 3;
+        ky = (kx + 1) % 3;
+        double dz = component(ray.dx, ray.dy, ray.dz, kz);
+        if (dz < 0) {
+            // Keep the winding of the triangle.
+            int tmp = kx;
+            kx = ky;
+            ky = tmp;
+        }
+        sx = component(ray.dx, ray.dy, ray.dz, kx) / dz;
+        sy = component(ray.dx, ray.dy, ray.dz, ky) / dz;
+        sz = 1 / dz;
+        ox = component(ray.ox, ray.oy, ray.oz, kx);
+        oy = component(ray.ox, ray.oy, ray.oz, ky);
+        oz = component(ray.ox, ray.oy, ray.oz, kz);
+    }
+
+    private static double component(double x, double y, double z, int axis) {
+        if (axis == 0) {
+            return x;
+        }
+        if (axis == 1) {
+            return y;
+        }
+        return z;
+    }
+}
@@ -0,0 +1,82 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+
+/**
+ * Reusable stack of nodes which still have to be visited while traversing a {@link Bvh}.
+ * <p>
+ * Since every thread uses its own stack, it also counts the work of the queries of its thread without any
+ * synchronization. The counters are collected by the render metrics.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class TraversalStack {
+    int[] nodes = new int[0];
+    double[] distances = new double[0];
+
+    // Separate stack for the instance hierarchy, whose geometries are traversed with the stack above.
+    int[] instanceNodes = new int[0];
+    double[] instanceDistances = new double[0];
+
+    // Ray transformation of the current triangle mesh query.
+    final ShearedRay sheared = new ShearedRay();
+
+    // Ray in the space of the geometry of the current instance.
+    final Ray instanceRay = new Ray();
+
+    // Statistics of all queries since the last reset.
+    long nodesVisited;
+    long sphereTests;
+    long planeTests;
+    long triangleTests;
+
+    /**
+     * Grow the stack if a hierarchy is deeper than the current capacity. This only allocates for the first rays.
+     *
+     * @param capacity necessary capacity
+     */
+    void ensureCapacity(int capacity) {
+        if (nodes.length < capacity) {
+            nodes = new int[capacity];
+            distances = new double[capacity];
+        }
+    }
+
+    /**
+     * Grow the instance stack if the instance hierarchy is deeper than its current capacity.
+     *
+     * @param capacity necessary capacity
+     */
+    void ensureInstanceCapacity(int capacity) {
+        if (instanceNodes.length < capacity) {
+            instanceNodes = new int[capacity];
+            instanceDistances = new double[capacity];
+        }
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    public long getSphereTests() {
+        return sphereTests;
+    }
+
+    public long getPlaneTests() {
+        return planeTests;
+    }
+
+    public long getTriangleTests() {
+        return triangleTests;
+    }
+
+    /**
+     * Reset all counters, e.g. after they have been added to the render metrics.
+     */
+    public void resetCounters() {
+        nodesVisited = 0;
+        sphereTests = 0;
+        planeTests = 0;
+        triangleTests = 0;
+    }
+}
@@ -0,0 +1,344 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+
+/**
+ * Immutable triangle mesh with its own bounding volume hierarchy.
+ * <p>
+ * Vertices are stored as packed single precision coordinates and triangles as three vertex indices each, such that a
+ * model with millions of triangles needs only a few bytes per triangle besides its hierarchy. Triangles are reordered
+ * along the leaves of the {@link Bvh} when the mesh is created. Intersections are computed in double precision with
+ * the watertight test of Woop, Benthin and Wald, i.e. rays through shared edges and vertices never pass between
+ * triangles. Both sides of a triangle are hit; its normal follows the counter-clockwise winding of its vertices.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class TriangleMesh {
+    // x, y, z per vertex.
+    final float[] positions;
+    // Three vertex indices per triangle in BVH leaf order.
+    final int[] triangles;
+    final int triangleCount;
+    final Bvh bvh;
+
+    /**
+     * Create a mesh and build its hierarchy.
+     *
+     * @param positions x, y and z of every vertex
+     * @param triangles three vertex indices per triangle, which are not modified
+     * @throws IllegalArgumentException if a vertex index is out of range
+     */
+    public TriangleMesh(float[] positions, int[] triangles) {
+        this.positions = positions;
+        triangleCount = triangles.length / 3;
+        int vertexCount = positions.length / 3;
+        double[] bounds = new double[triangleCount * 6];
+        for (int i = 0; i < triangleCount; i++) {
+            int b = i * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[b + axis] = Double.POSITIVE_INFINITY;
+                bounds[b + axis + 3] = Double.NEGATIVE_INFINITY;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = triangles[i * 3 + corner];
+                if (vertex < 0 || vertex >= vertexCount) {
+                    throw new IllegalArgumentException("Triangle " + i + " references vertex " + vertex + " of " +
+                            vertexCount);
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    double value = positions[vertex * 3 + axis];
+                    bounds[b + axis] = Math.min(bounds[b + axis], value);
+                    bounds[b + axis + 3] = Math.max(bounds[b + axis + 3], value);
+                }
+            }
+        }
+        bvh = new Bvh(bounds);
+
+        int[] order = bvh.getOrder();
+        this.triangles = new int[triangleCount * 3];
+        for (int i = 0; i < triangleCount; i++) {
+            System.arraycopy(triangles, order[i] * 3, this.triangles, i * 3, 3);
+        }
+    }
+
+    /**
+     * Find the nearest triangle intersected by the ray. Only hits nearer than the one already stored in the hit record
+     * are considered.
+     *
+     * @param ray   ray with normalized direction
+     * @param hit   record which is updated with the nearest hit
+     * @param base  identifier of the first triangle, which is added to the triangle index
+     * @param stack reusable traversal stack
+     * @return true if a nearer hit was found
+     */
+    boolean closestHit(Ray ray, HitRecord hit, int base, TraversalStack stack) {
+        stack.nodesVisited++;
+        if (triangleCount == 0 || bvh.intersectBox(0, ray, hit.distance) == Ray.NO_INTERSECTION) {
+            return false;
+        }
+        stack.ensureCapacity(bvh.getDepth() + 1);
+        int[] nodes = stack.nodes;
+        double[] distances = stack.distances;
+        int[] offsets = bvh.offsets;
+        int[] counts = bvh.counts;
+        ShearedRay sheared = stack.sheared;
+        sheared.set(ray);
+
+        long visited = 0;
+        long tests = 0;
+        boolean found = false;
+        int sp = 0;
+        int node = 0;
+        while (true) {
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                tests += last - first;
+                for (int i = first; i < last; i++) {
+                    found |= hit.update(base + i, intersect(i, sheared, hit.distance));
+                }
+            } else {
+                // Visit the nearer child first and remember the other one.
+                visited += 2;
+                int left = node + 1;
+                int right = offsets[node];
+                double leftDistance = bvh.intersectBox(left, ray, hit.distance);
+                double rightDistance = bvh.intersectBox(right, ray, hit.distance);
+                if (leftDistance <= rightDistance) {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        if (rightDistance != Ray.NO_INTERSECTION) {
+                            nodes[sp] = right;
+                            distances[sp++] = rightDistance;
+                        }
+                        node = left;
+                        continue;
+                    }
+                } else {
+                    if (leftDistance != Ray.NO_INTERSECTION) {
+                        nodes[sp] = left;
+                        distances[sp++] = leftDistance;
+                    }
+                    node = right;
+                    continue;
+                }
+            }
+
+            node = -1;
+            while (sp > 0) {
+                sp--;
+                if (distances[sp] < hit.distance) {
+                    node = nodes[sp];
+                    break;
+                }
+            }
+            if (node < 0) {
+                stack.nodesVisited += visited;
+                stack.triangleTests += tests;
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Find any triangle which is intersected before the given distance.
+     *
+     * @param ray         ray with normalized direction
+     * @param maxDistance triangles at or behind this distance are ignored
+     * @param ignore      index of a triangle which is not considered or -1
+     * @param stack       reusable traversal stack
+     * @return index of an intersected triangle or -1
+     */
+    int findOccluder(Ray ray, double maxDistance, int ignore, TraversalStack stack) {
+        if (triangleCount == 0) {
+            return -1;
+        }
+        stack.ensureCapacity(bvh.getDepth() + 2);
+        int[] nodes = stack.nodes;
+        int[] offsets = bvh.offsets;
+        int[] counts = bvh.counts;
+        ShearedRay sheared = stack.sheared;
+        sheared.set(ray);
+
+        long visited = 0;
+        long tests = 0;
+        int occluder = -1;
+        int sp = 0;
+        nodes[sp++] = 0;
+        while (sp > 0 && occluder < 0) {
+            int node = nodes[--sp];
+            visited++;
+            if (bvh.intersectBox(node, ray, maxDistance) == Ray.NO_INTERSECTION) {
+                continue;
+            }
+
+            if (counts[node] > 0) {
+                int first = offsets[node];
+                int last = first + counts[node];
+                for (int i = first; i < last; i++) {
+                    tests++;
+                    if (i != ignore && intersect(i, sheared, maxDistance) != Ray.NO_INTERSECTION) {
+                        occluder = i;
+                        break;
+                    }
+                }
+            } else {
+                nodes[sp++] = offsets[node];
+                nodes[sp++] = node + 1;
+            }
+        }
+        stack.nodesVisited += visited;
+        stack.triangleTests += tests;
+        return occluder;
+    }
+
+    /**
+     * Intersect a single triangle, e.g. the occluder of a previous shadow ray.
+     *
+     * @param triangle    index of the triangle
+     * @param ray         ray with normalized direction
+     * @param maxDistance hits at or behind this distance are ignored
+     * @param stack       reusable traversal stack
+     * @return the distance to the intersection or <code>Ray.NO_INTERSECTION</code>.
+     */
+    double intersect(int triangle, Ray ray, double maxDistance, TraversalStack stack) {
+        stack.triangleTests++;
+        stack.sheared.set(ray);
+        return intersect(triangle, stack.sheared, maxDistance);
+    }
+
+    // Watertight intersection kernel. Returns the distance if it is positive and less than maxDistance.
+    private double intersect(int triangle, ShearedRay ray, double maxDistance) {
+        int a = triangles[triangle * 3] * 3;
+        int b = triangles[triangle * 3 + 1] * 3;
+        int c = triangles[triangle * 3 + 2] * 3;
+        int kx = ray.kx;
+        int ky = ray.ky;
+        int kz = ray.kz;
+
+        // Vertices relative to the ray origin, sheared such that the ray points along z.
+        double az = positions[a + kz] - ray.oz;
+        double bz = positions[b + kz] - ray.oz;
+        double cz = positions[c + kz] - ray.oz;
+        double ax = positions[a + kx] - ray.ox - ray.sx * az;
+        double ay = positions[a + ky] - ray.oy - ray.sy * az;
+        double bx = positions[b + kx] - ray.ox - ray.sx * bz;
+        double by = positions[b + ky] - ray.oy - ray.sy * bz;
+        double cx = positions[c + kx] - ray.ox - ray.sx * cz;
+        double cy = positions[c + ky] - ray.oy - ray.sy * cz;
+
+        // Scaled barycentric coordinates, which have to share their sign.
+        double u = cx * by - cy * bx;
+        double v = ax * cy - ay * cx;
+        double w = bx * ay - by * ax;
+        if ((u < 0 || v < 0 || w < 0) && (u > 0 || v > 0 || w > 0)) {
+            return Ray.NO_INTERSECTION;
+        }
+        double det = u + v + w;
+        if (det == 0) {
+            return Ray.NO_INTERSECTION;
+        }
+
+        double t = (u * az + v * bz + w * cz) * ray.sz / det;
+        if (t <= 0 || t >= maxDistance) {
+            return Ray.NO_INTERSECTION;
+        }
+        return t;
+    }
+
+    /**
+     * Compute the normalized geometric normal of a triangle.
+     *
+     * @param triangle index of the triangle
+     * @param normal   target vector
+     */
+    void computeNormal(int triangle, Vector3D normal) {
+        int a = triangles[triangle * 3] * 3;
+        int b = triangles[triangle * 3 + 1] * 3;
+        int c = triangles[triangle * 3 + 2] * 3;
+        double e1x = positions[b] - positions[a];
+        double e1y = positions[b + 1] - positions[a + 1];
+        double e1z = positions[b + 2] - positions[a + 2];
+        double e2x = positions[c] - positions[a];
+        double e2y = positions[c + 1] - positions[a + 1];
+        double e2z = positions[c + 2] - positions[a + 2];
+        double nx = e1y * e2z - e1z * e2y;
+        double ny = e1z * e2x - e1x * e2z;
+        double nz = e1x * e2y - e1y * e2x;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        normal.set(nx / len, ny / len, nz / len);
+    }
+
+    /**
+     * Check for intersection. This allocates scratch objects and is not used while rendering.
+     *
+     * @param ray ray with normalized direction
+     * @return distance to the nearest intersection or <code>Ray.NO_INTERSECTION</code>.
+     */
+    public double intersect(Ray ray) {
+        HitRecord hit = new HitRecord();
+        closestHit(ray, hit, 0, new TraversalStack());
+        return hit.distance;
+    }
+
+    /**
+     * Compute the normal of the triangle nearest to a point. This checks all triangles and is not used while
+     * rendering.
+     *
+     * @param x      x-coordinate of the point
+     * @param y      y-coordinate of the point
+     * @param z      z-coordinate of the point
+     * @param normal target vector
+     */
+    public void computeNormal(double x, double y, double z, Vector3D normal) {
+        double[] point = {x, y, z};
+        int nearest = 0;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < triangleCount; i++) {
+            // Distance to the plane of the triangle plus the distance to its bounding box, which is zero for all
+            // triangles containing the point.
+            computeNormal(i, normal);
+            int a = triangles[i * 3] * 3;
+            double distance = Math.abs((x - positions[a]) * normal.x + (y - positions[a + 1]) * normal.y +
+                    (z - positions[a + 2]) * normal.z);
+            for (int axis = 0; axis < 3; axis++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int corner = 0; corner < 3; corner++) {
+                    double value = positions[triangles[i * 3 + corner] * 3 + axis];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                distance += Math.max(0, Math.max(min - point[axis], point[axis] - max));
+            }
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = i;
+            }
+        }
+        computeNormal(nearest, normal);
+    }
+
+    /**
+     * Compute the bounds of all triangles.
+     *
+     * @return minX, minY, minZ, maxX, maxY and maxZ; infinite if the mesh is empty.
+     */
+    public double[] getBounds() {
+        double[] bounds = new double[6];
+        System.arraycopy(bvh.bounds, 0, bounds, 0, 6);
+        return bounds;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public Bvh getBvh() {
+        return bvh;
+    }
+}
@@ -1,31 +1,81 @@
 package com.mlesniak.raytracer.animation;
 
 import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.SceneSnapshot;
 import com.mlesniak.raytracer.scene.Scene;
 import com.mlesniak.raytracer.util.GifWriter;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.stream.FileImageOutputStream;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.SimpleBindings;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Control animation handling..
+ * <p>
+ * Frames are rendered as a pipeline: the script prepares the scene of the next frame while previous frames are still
+ * rendered, and finished frames are written to the .gif in order as soon as all previous frames have been written.
+ * At most <code>FRAMES_IN_FLIGHT</code> frames are kept in memory, independent of the length of the animation.
  *
  * @author Michael Lesniak (mlesniak@micromata.de)
  */
 public class Animation {
     private static final Logger LOG = LoggerFactory.getLogger(Animation.class);
 
+    // Every frame is rendered on all cores, a few concurrent frames only hide the sequential parts.
+    private static final int FRAMES_IN_FLIGHT = 4;
+
     private Scene scene;
+    private final FrameRenderer renderer;
+    // Explicitly given animator or null if it is defined by the animation settings of the scene.
+    private final Animator animator;
 
     public Animation(Scene scene) {
+        this(scene, new LocalRenderer());
+    }
+
+    public Animation(Scene scene, FrameRenderer renderer) {
+        this(scene, null, renderer);
+    }
+
+    /**
+     * Create an animation with an animator written in Java instead of the script or keyframes of the scene.
+     *
+     * @param scene    scene to animate, must contain animation settings
+     * @param animator animator which modifies the scene for each tick
+     * @param renderer renderer for single frames
+     */
+    public Animation(Scene scene, Animator animator, FrameRenderer renderer) {
         this.scene = scene;
+        this.animator = animator;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Renders frames locally. Snapshots are prepared in tick order, hence every snapshot refits the hierarchies of
+     * the previous frame instead of building them from scratch.
+     */
+    private static final class LocalRenderer implements FrameRenderer {
+        private SceneSnapshot previous;
+
+        @Override
+        public Callable<BufferedImage> prepare(Scene scene) {
+            SceneSnapshot snapshot = SceneSnapshot.of(scene, previous);
+            previous = snapshot;
+            return () -> new Raytracer(snapshot).raytrace();
+        }
     }
 
     public static boolean isAnimated(Scene scene) {
@@ -37,32 +87,65 @@ public class Animation {
         Scene.AnimationSettings animation = scene.getAnimation();
         int ticks = animation.getTicks();
 
-        SimpleBindings bindings = new SimpleBindings();
-        bindings.put("scene", scene);
-        bindings.put("ticks", ticks);
-        ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
-        String code = FileUtils.readFileToString(new File(animation.getFile()));
-
-        BufferedImage[] images = new BufferedImage[ticks];
-        for (int tick = 0; tick < ticks; tick++) {
-            // Modify scene in javascript.
-            bindings.put("tick", tick);
-            engine.eval(code, bindings);
-
-            // Create and store image.
-            BufferedImage image = new Raytracer(scene).raytrace();
-            images[tick] = image;
+        Animator tickAnimator = animator;
+        if (tickAnimator == null) {
+            tickAnimator = createAnimator(animation);
         }
 
-        // Write gif file.
-        FileImageOutputStream output = new FileImageOutputStream(new File(scene.getFilename() + ".gif"));
+        ExecutorService executor = Executors.newFixedThreadPool(FRAMES_IN_FLIGHT, runnable -> {
+            Thread thread = new Thread(runnable, "animation-frame");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Frames in tick order. A frame which finished early waits in its future until all previous ones are written.
+        Deque<Future<BufferedImage>> frames = new ArrayDeque<>();
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(scene.getFilename() + ".gif"));
         int time = animation.getDuration() / ticks;
-        GifWriter gw = new GifWriter(output, images[0].getType(), time, animation.getLoop());
-        for (BufferedImage image : images) {
-            gw.writeToSequence(image);
+        // Frames are quantized and compressed in the background while the next frames are rendered.
+        GifWriter gw = new GifWriter(output, time, animation.getLoop());
+        try {
+            for (int tick = 0; tick < ticks; tick++) {
+                tickAnimator.animate(scene, tick);
+                frames.add(executor.submit(renderer.prepare(scene)));
+
+                if (frames.size() >= FRAMES_IN_FLIGHT) {
+                    gw.writeToSequence(frames.poll().get());
+                }
+            }
+            while (!frames.isEmpty()) {
+                gw.writeToSequence(frames.poll().get());
+            }
+        } finally {
+            for (Future<BufferedImage> frame : frames) {
+                frame.cancel(true);
+            }
+            executor.shutdown();
+            try {
+                gw.close();
+            } finally {
+                output.close();
+            }
         }
-        gw.close();
-        output.close();
         LOG.info("Animation written");
     }
+
+    // Script and keyframes of the animation settings; keyframes are applied after the script.
+    private static Animator createAnimator(Scene.AnimationSettings animation) throws Exception {
+        List<Animator> animators = new ArrayList<>();
+        if (animation.getFile() != null) {
+            String code = FileUtils.readFileToString(new File(animation.getFile()));
+            animators.add(new ScriptAnimator(code, animation.getTicks()));
+        }
+        if (animation.getKeyframes() != null && !animation.getKeyframes().isEmpty()) {
+            animators.add(new KeyframeAnimator(animation.getKeyframes()));
+        }
+        if (animators.isEmpty()) {
+            throw new IllegalArgumentException("Animation needs a script file or keyframes");
+        }
+        return (scene, tick) -> {
+            for (Animator animator : animators) {
+                animator.animate(scene, tick);
+            }
+        };
+    }
 }
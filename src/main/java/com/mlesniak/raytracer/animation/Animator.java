@@ -0,0 +1,22 @@
+package com.mlesniak.raytracer.animation;
+
+import com.mlesniak.raytracer.scene.Scene;
+
+/**
+ * Modifies a scene for each tick of an animation.
+ * <p>
+ * Besides scripts and keyframes, animations can be written directly in Java as a lambda.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@FunctionalInterface
+public interface Animator {
+    /**
+     * Prepare the scene for the given tick. Ticks are passed in increasing order, starting at 0.
+     *
+     * @param scene scene to modify
+     * @param tick  current tick
+     * @throws Exception if the animation fails
+     */
+    void animate(Scene scene, int tick) throws Exception;
+}
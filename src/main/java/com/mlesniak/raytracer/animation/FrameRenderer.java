@@ -0,0 +1,25 @@
+package com.mlesniak.raytracer.animation;
+
+import com.mlesniak.raytracer.scene.Scene;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Renders a single frame of an animation, e.g. locally or on remote workers.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@FunctionalInterface
+public interface FrameRenderer {
+    /**
+     * Capture the current state of the scene. The returned task renders this state even if the scene is modified for
+     * the next frame in the meantime, hence tasks of multiple frames can run concurrently.
+     *
+     * @param scene scene to render
+     * @return task which renders the frame
+     * @throws IOException if the scene can not be captured
+     */
+    Callable<BufferedImage> prepare(Scene scene) throws IOException;
+}
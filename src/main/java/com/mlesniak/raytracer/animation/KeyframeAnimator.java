@@ -0,0 +1,130 @@
+package com.mlesniak.raytracer.animation;
+
+import com.mlesniak.raytracer.scene.Scene;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Animates numeric scene properties by interpolating between keyframes, see {@link Scene.Keyframe}.
+ * <p>
+ * Keyframes are grouped and sorted once. For every tick only the interpolated values are computed and written along
+ * the property paths, whose accessors are looked up once per class.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class KeyframeAnimator implements Animator {
+    private final List<Track> tracks = new ArrayList<>();
+    private final Map<Class<?>, Map<String, PropertyDescriptor>> properties = new LinkedHashMap<>();
+
+    /**
+     * Keyframes of a single property sorted by tick.
+     */
+    private static final class Track {
+        private final String[] path;
+        private final List<Scene.Keyframe> keyframes = new ArrayList<>();
+
+        Track(String property) {
+            path = property.split("\\.");
+        }
+
+        double valueAt(int tick) {
+            Scene.Keyframe first = keyframes.get(0);
+            if (tick <= first.getTick()) {
+                return first.getValue();
+            }
+            for (int i = 1; i < keyframes.size(); i++) {
+                Scene.Keyframe next = keyframes.get(i);
+                if (tick < next.getTick()) {
+                    Scene.Keyframe previous = keyframes.get(i - 1);
+                    double t = (double) (tick - previous.getTick()) / (next.getTick() - previous.getTick());
+                    if ("smooth".equals(next.getInterpolation())) {
+                        t = t * t * (3 - 2 * t);
+                    }
+                    return previous.getValue() + (next.getValue() - previous.getValue()) * t;
+                }
+            }
+            return keyframes.get(keyframes.size() - 1).getValue();
+        }
+    }
+
+    /**
+     * Create an animator for a list of keyframes.
+     *
+     * @param keyframes keyframes of any number of properties in any order
+     */
+    public KeyframeAnimator(List<Scene.Keyframe> keyframes) {
+        Map<String, Track> byProperty = new LinkedHashMap<>();
+        for (Scene.Keyframe keyframe : keyframes) {
+            String interpolation = keyframe.getInterpolation();
+            if (interpolation != null && !"linear".equals(interpolation) && !"smooth".equals(interpolation)) {
+                throw new IllegalArgumentException("Unknown interpolation " + interpolation);
+            }
+            byProperty.computeIfAbsent(keyframe.getProperty(), Track::new).keyframes.add(keyframe);
+        }
+        for (Track track : byProperty.values()) {
+            track.keyframes.sort(Comparator.comparingInt(Scene.Keyframe::getTick));
+            tracks.add(track);
+        }
+    }
+
+    @Override
+    public void animate(Scene scene, int tick) throws ReflectiveOperationException, IntrospectionException {
+        for (Track track : tracks) {
+            set(scene, track.path, track.valueAt(tick));
+        }
+    }
+
+    private void set(Object root, String[] path, double value)
+            throws ReflectiveOperationException, IntrospectionException {
+        Object target = root;
+        for (int i = 0; i < path.length - 1; i++) {
+            if (target instanceof List) {
+                target = ((List<?>) target).get(Integer.parseInt(path[i]));
+            } else {
+                target = property(target, path[i]).getReadMethod().invoke(target);
+            }
+            if (target == null) {
+                throw new IllegalArgumentException("Property " + String.join(".", path) + " does not exist");
+            }
+        }
+
+        Method setter = property(target, path[path.length - 1]).getWriteMethod();
+        if (setter == null) {
+            throw new IllegalArgumentException("Property " + String.join(".", path) + " is read-only");
+        }
+        Class<?> type = setter.getParameterTypes()[0];
+        if (type == int.class) {
+            setter.invoke(target, (int) Math.round(value));
+        } else if (type == float.class) {
+            setter.invoke(target, (float) value);
+        } else if (type == double.class) {
+            setter.invoke(target, value);
+        } else {
+            throw new IllegalArgumentException("Property " + String.join(".", path) + " is not numeric");
+        }
+    }
+
+    private PropertyDescriptor property(Object target, String name) throws IntrospectionException {
+        Map<String, PropertyDescriptor> descriptors = properties.get(target.getClass());
+        if (descriptors == null) {
+            descriptors = new LinkedHashMap<>();
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(target.getClass()).getPropertyDescriptors()) {
+                descriptors.put(descriptor.getName(), descriptor);
+            }
+            properties.put(target.getClass(), descriptors);
+        }
+        PropertyDescriptor descriptor = descriptors.get(name);
+        if (descriptor == null || descriptor.getReadMethod() == null) {
+            throw new IllegalArgumentException("Unknown property " + name + " of " + target.getClass().getSimpleName());
+        }
+        return descriptor;
+    }
+}
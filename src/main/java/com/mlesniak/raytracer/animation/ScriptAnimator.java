@@ -0,0 +1,58 @@
+package com.mlesniak.raytracer.animation;
+
+import com.mlesniak.raytracer.scene.Scene;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * Animates a scene with JavaScript code, which gets the variables <code>scene</code>, <code>tick</code> and
+ * <code>ticks</code>.
+ * <p>
+ * The script is compiled once and only executed for every tick.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class ScriptAnimator implements Animator {
+    private final ScriptEngine engine;
+    private final CompiledScript compiled;
+    private final String code;
+    private final Bindings bindings = new SimpleBindings();
+
+    /**
+     * Compile a script.
+     *
+     * @param code  JavaScript source
+     * @param ticks number of ticks of the animation
+     * @throws ScriptException if the script can not be compiled
+     */
+    public ScriptAnimator(String code, int ticks) throws ScriptException {
+        engine = new ScriptEngineManager().getEngineByName("nashorn");
+        if (engine == null) {
+            throw new IllegalStateException("No JavaScript engine available");
+        }
+        this.code = code;
+        if (engine instanceof Compilable) {
+            compiled = ((Compilable) engine).compile(code);
+        } else {
+            compiled = null;
+        }
+        bindings.put("ticks", ticks);
+    }
+
+    @Override
+    public void animate(Scene scene, int tick) throws ScriptException {
+        bindings.put("scene", scene);
+        bindings.put("tick", tick);
+        if (compiled != null) {
+            compiled.eval(bindings);
+        } else {
+            engine.eval(code, bindings);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.mlesniak.raytracer.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary protocol between render coordinator and workers.
+ * <p>
+ * The coordinator sends requests over a persistent connection and waits for the response of each:
+ * <ul>
+ * <li><code>SCENE id length yaml</code>: parse the scene and use it for the following tiles. Response: <code>OK</code>
+ * or <code>ERROR message</code>.</li>
+ * <li><code>TILE id x0 y0 x1 y1</code>: render a region of the scene with the given id. Response: <code>OK count
+ * pixels</code> in the row order of the image or <code>ERROR message</code>.</li>
+ * </ul>
+ * All numbers are written as big-endian 32 bit integers. Lengths are checked before anything is allocated, such that
+ * a broken or malicious peer can not exhaust the memory of the other side.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class Protocol {
+    static final int SCENE = 1;
+    static final int TILE = 2;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    // Upper limit for the length of scenes and error messages in bytes.
+    static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+    private Protocol() {
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        // DataOutputStream.writeUTF() is limited to 64 KB, which is too small for large scenes.
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writePixels(DataOutputStream out, int[] pixels) throws IOException {
+        out.writeInt(pixels.length);
+        for (int pixel : pixels) {
+            out.writeInt(pixel);
+        }
+    }
+
+    static int[] readPixels(DataInputStream in, int expectedCount) throws IOException {
+        int count = in.readInt();
+        if (count != expectedCount) {
+            throw new IOException("Expected " + expectedCount + " pixels, got " + count);
+        }
+        int[] pixels = new int[count];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = in.readInt();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,299 @@
+package com.mlesniak.raytracer.distributed;
+
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders images by distributing their tiles to remote {@link RenderWorker}s.
+ * <p>
+ * The scene is sent to every worker in its YAML representation. Each worker connection is served by its own thread
+ * which takes the next tile from a shared queue, hence faster workers render more tiles. If a worker fails, its tile
+ * is put back into the queue and the connection is reopened a few times before the worker is given up.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class RenderCoordinator {
+    private static final Logger LOG = LoggerFactory.getLogger(RenderCoordinator.class);
+
+    /**
+     * Default edge length of the tiles sent to workers. Larger than local tiles to amortize the network round trip.
+     */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    // A tile failing this often aborts the render, e.g. if it crashes every worker.
+    private static final int MAX_TILE_ATTEMPTS = 3;
+    // Connection attempts to a worker before it is considered dead.
+    private static final int MAX_CONNECT_ATTEMPTS = 3;
+    private static final long RECONNECT_DELAY_MS = 500;
+    private static final long POLL_MS = 50;
+
+    private final List<InetSocketAddress> workers;
+    private final AtomicInteger sceneIds = new AtomicInteger();
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private int timeout = (int) TimeUnit.MINUTES.toMillis(5);
+
+    public RenderCoordinator(List<InetSocketAddress> workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Parse a comma-separated list of worker addresses.
+     *
+     * @param addresses addresses in the form <code>host:port,host:port</code>
+     * @return list of addresses
+     */
+    public static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Worker address without port: " + address);
+            }
+            result.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim())));
+        }
+        return result;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Set the time a worker may take for a single tile before it is considered dead.
+     *
+     * @param timeout timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Render a scene on the workers and wait for the image.
+     *
+     * @param scene scene to render
+     * @return the rendered image
+     * @throws IOException if the image could not be rendered, e.g. because all workers failed.
+     */
+    public BufferedImage render(Scene scene) throws IOException {
+        return render(new Job(scene));
+    }
+
+    /**
+     * Capture the current state of a scene for rendering it later, e.g. as frame renderer of an animation.
+     *
+     * @param scene scene to render
+     * @return task which renders the captured scene on the workers
+     * @throws IOException if the scene can not be serialized
+     */
+    public Callable<BufferedImage> prepare(Scene scene) throws IOException {
+        Job job = new Job(scene);
+        return () -> render(job);
+    }
+
+    private BufferedImage render(Job job) throws IOException {
+        Stopwatch stopwatch = Stopwatch.start();
+        List<Thread> threads = new ArrayList<>();
+        for (InetSocketAddress worker : workers) {
+            Thread thread = new Thread(() -> job.serve(worker), "render-coordinator-" + worker);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            job.await();
+        } finally {
+            job.aborted = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        BufferedImage image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, job.width, job.height, job.pixels, 0, job.width);
+        LOG.info("Rendered {} tiles on {} workers in {}ms", job.tiles.size(), workers.size(),
+                stopwatch.stop());
+        return image;
+    }
+
+    /**
+     * State of a single render shared by all worker threads.
+     */
+    private final class Job {
+        private final int id = sceneIds.incrementAndGet();
+        private final int width;
+        private final int height;
+        private final String yaml;
+        private final int[] pixels;
+        // Each tile consists of x0, y0, x1, y1.
+        private final List<int[]> tiles = new ArrayList<>();
+        private final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+        private final AtomicIntegerArray attempts;
+        private final CountDownLatch remaining;
+        private final AtomicInteger alive = new AtomicInteger(workers.size());
+        private final AtomicReference<String> failure = new AtomicReference<>();
+        private volatile boolean aborted;
+
+        Job(Scene scene) throws IOException {
+            width = scene.getWidth();
+            height = scene.getHeight();
+            // The serialized scene is a snapshot, later modifications of the scene do not affect this job.
+            yaml = scene.toYaml();
+            pixels = new int[width * height];
+            for (int y = 0; y < height; y += tileSize) {
+                for (int x = 0; x < width; x += tileSize) {
+                    queue.add(tiles.size());
+                    tiles.add(new int[]{x, y, Math.min(x + tileSize, width), Math.min(y + tileSize, height)});
+                }
+            }
+            attempts = new AtomicIntegerArray(tiles.size());
+            remaining = new CountDownLatch(tiles.size());
+        }
+
+        void await() throws IOException {
+            try {
+                while (!remaining.await(POLL_MS, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) {
+                        throw new IOException(failure.get());
+                    }
+                    if (alive.get() == 0) {
+                        throw new IOException("All workers failed, " + remaining.getCount() + " tiles missing");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for workers", e);
+            }
+        }
+
+        // Connection loop of a single worker.
+        void serve(InetSocketAddress worker) {
+            int connectAttempts = 0;
+            while (!aborted && remaining.getCount() > 0 && connectAttempts < MAX_CONNECT_ATTEMPTS) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(worker, timeout);
+                    socket.setSoTimeout(timeout);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    sendScene(in, out);
+                    connectAttempts = 0;
+                    renderTiles(worker, in, out);
+                } catch (IOException e) {
+                    connectAttempts++;
+                    LOG.warn("Worker {} failed ({}/{}): {}", worker, connectAttempts, MAX_CONNECT_ATTEMPTS,
+                            e.toString());
+                    sleep(RECONNECT_DELAY_MS);
+                }
+            }
+            if (remaining.getCount() > 0 && !aborted) {
+                LOG.error("Giving up worker {}", worker);
+            }
+            alive.decrementAndGet();
+        }
+
+        private void sendScene(DataInputStream in, DataOutputStream out) throws IOException {
+            out.writeInt(Protocol.SCENE);
+            out.writeInt(id);
+            Protocol.writeString(out, yaml);
+            out.flush();
+            if (in.readInt() != Protocol.OK) {
+                // A scene which can not be parsed will fail on every worker.
+                failure.compareAndSet(null, Protocol.readString(in));
+                aborted = true;
+            }
+        }
+
+        private void renderTiles(InetSocketAddress worker, DataInputStream in, DataOutputStream out)
+                throws IOException {
+            while (!aborted && remaining.getCount() > 0) {
+                Integer index = poll();
+                if (index == null) {
+                    // Remaining tiles are in progress on other workers, but might be put back.
+                    continue;
+                }
+
+                int[] tile = tiles.get(index);
+                boolean done = false;
+                try {
+                    out.writeInt(Protocol.TILE);
+                    out.writeInt(id);
+                    for (int value : tile) {
+                        out.writeInt(value);
+                    }
+                    out.flush();
+                    if (in.readInt() == Protocol.OK) {
+                        copyTile(tile, Protocol.readPixels(in, (tile[2] - tile[0]) * (tile[3] - tile[1])));
+                        done = true;
+                    } else {
+                        LOG.warn("Worker {} failed to render tile {}: {}", worker, index, Protocol.readString(in));
+                    }
+                } finally {
+                    if (done) {
+                        remaining.countDown();
+                    } else {
+                        retry(index);
+                    }
+                }
+            }
+        }
+
+        private Integer poll() {
+            try {
+                return queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Interrupted when the render is finished or aborted.
+                Thread.currentThread().interrupt();
+                aborted = true;
+                return null;
+            }
+        }
+
+        private void retry(int index) {
+            if (attempts.incrementAndGet(index) >= MAX_TILE_ATTEMPTS) {
+                failure.compareAndSet(null, "Tile " + index + " failed " + MAX_TILE_ATTEMPTS + " times");
+                return;
+            }
+            queue.add(index);
+        }
+
+        // Copy the pixels of a tile, which are in image row order, to their position in the image.
+        private void copyTile(int[] tile, int[] tilePixels) {
+            int tileWidth = tile[2] - tile[0];
+            int rows = tile[3] - tile[1];
+            int top = height - tile[3];
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(tilePixels, row * tileWidth, pixels, (top + row) * width + tile[0], tileWidth);
+            }
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
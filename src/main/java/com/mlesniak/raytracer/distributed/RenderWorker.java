@@ -0,0 +1,156 @@
+package com.mlesniak.raytracer.distributed;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.scene.Scene;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Worker process which renders tiles for a {@link RenderCoordinator}.
+ * <p>
+ * Every connection is served by its own thread; the tiles themselves are rendered on the shared render scheduler.
+ * Connections are not authenticated, hence workers listen on the loopback interface unless another address is given.
+ * Received scenes may only contain tags of scene classes, see <code>Scene.parseRemoteScene()</code>.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class RenderWorker implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(RenderWorker.class);
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a worker listening on the given port of the loopback interface.
+     *
+     * @param port port to listen on, 0 selects a free port
+     * @throws IOException if the port can not be bound
+     */
+    public RenderWorker(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Create a worker listening on the given address and port.
+     *
+     * @param address local address to listen on, e.g. a wildcard address to accept coordinators on all interfaces
+     * @param port    port to listen on, 0 selects a free port
+     * @throws IOException if the port can not be bound
+     */
+    public RenderWorker(InetAddress address, int port) throws IOException {
+        serverSocket = new ServerSocket(port, 0, address);
+        LOG.info("Render worker listening on {}:{}", address.getHostAddress(), getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public InetAddress getAddress() {
+        return serverSocket.getInetAddress();
+    }
+
+    /**
+     * Accept connections in a background thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this::run, "render-worker-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Accept connections until the worker is closed.
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "render-connection-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.error("Unable to accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        LOG.info("Coordinator {} connected", socket.getRemoteSocketAddress());
+        int sceneId = -1;
+        Raytracer raytracer = null;
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                int request = in.readInt();
+                int id = in.readInt();
+                if (request == Protocol.SCENE) {
+                    String yaml = Protocol.readString(in);
+                    try {
+                        raytracer = new Raytracer(Scene.parseRemoteScene(yaml));
+                        sceneId = id;
+                        out.writeInt(Protocol.OK);
+                    } catch (IOException | RuntimeException e) {
+                        LOG.error("Unable to parse scene {}", id, e);
+                        out.writeInt(Protocol.ERROR);
+                        Protocol.writeString(out, "Invalid scene: " + e);
+                    }
+                } else if (request == Protocol.TILE) {
+                    int x0 = in.readInt();
+                    int y0 = in.readInt();
+                    int x1 = in.readInt();
+                    int y1 = in.readInt();
+                    if (raytracer == null || id != sceneId) {
+                        out.writeInt(Protocol.ERROR);
+                        Protocol.writeString(out, "Unknown scene " + id);
+                    } else {
+                        int[] pixels = raytracer.raytraceRegion(x0, y0, x1, y1);
+                        out.writeInt(Protocol.OK);
+                        Protocol.writePixels(out, pixels);
+                    }
+                } else {
+                    throw new IOException("Unknown request " + request);
+                }
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            LOG.info("Coordinator {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Connection to {} failed", socket.getRemoteSocketAddress(), e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Stop accepting connections and close all open ones.
+     *
+     * @throws IOException if the server socket can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        LOG.info("Render worker on port {} closed", getPort());
+    }
+}
@@ -0,0 +1,60 @@
+package com.mlesniak.raytracer.math;
+
+/**
+ * Mutable ray with origin, direction and the precomputed inverse direction.
+ * <p>
+ * Rays are reused for every pixel to keep the inner loop of the raytracer free of allocations.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class Ray {
+    /**
+     * Distance returned by intersection methods if the ray does not intersect an object.
+     */
+    public static final double NO_INTERSECTION = Double.POSITIVE_INFINITY;
+
+    public double ox;
+    public double oy;
+    public double oz;
+    public double dx;
+    public double dy;
+    public double dz;
+    public double invX;
+    public double invY;
+    public double invZ;
+
+    /**
+     * Set origin and direction of this ray.
+     *
+     * @param ox x-coordinate of the origin
+     * @param oy y-coordinate of the origin
+     * @param oz z-coordinate of the origin
+     * @param dx x-component of the direction
+     * @param dy y-component of the direction
+     * @param dz z-component of the direction
+     * @return this ray
+     */
+    public Ray set(double ox, double oy, double oz, double dx, double dy, double dz) {
+        this.ox = ox;
+        this.oy = oy;
+        this.oz = oz;
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        invX = 1 / dx;
+        invY = 1 / dy;
+        invZ = 1 / dz;
+        return this;
+    }
+
+    /**
+     * Set origin and direction of this ray from vectors.
+     *
+     * @param origin    origin of the ray
+     * @param direction direction of the ray
+     * @return this ray
+     */
+    public Ray set(Vector3D origin, Vector3D direction) {
+        return set(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+    }
+}
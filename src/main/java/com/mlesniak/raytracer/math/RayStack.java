@@ -0,0 +1,89 @@
+package com.mlesniak.raytracer.math;
+
+/**
+ * Reusable stack of secondary rays which still have to be traced for a pixel.
+ * <p>
+ * Reflected and refracted rays are traced iteratively instead of recursively, hence the memory of a render thread
+ * does not grow with the ray depth. Each ray has the fraction it contributes to the pixel and its depth, i.e. the
+ * number of surfaces it has been reflected or refracted at.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+class RayStack {
+    // Distance rays start from their surface to avoid intersecting it again.
+    private static final double EPSILON = 1e-6;
+
+    // Six values per ray: origin and direction.
+    double[] rays = new double[0];
+    double[] weights = new double[0];
+    int[] depths = new int[0];
+    private int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Push a ray, growing the stack if necessary. This only allocates for the first rays.
+     *
+     * @param origin point on the surface the ray starts from
+     * @param dx     x-component of the normalized direction
+     * @param dy     y-component of the normalized direction
+     * @param dz     z-component of the normalized direction
+     * @param weight fraction the ray contributes to the pixel
+     * @param depth  depth of the ray
+     */
+    void push(Vector3D origin, double dx, double dy, double dz, double weight, int depth) {
+        if (size == weights.length) {
+            int capacity = Math.max(4, size * 2);
+            double[] newRays = new double[capacity * 6];
+            System.arraycopy(rays, 0, newRays, 0, size * 6);
+            rays = newRays;
+            double[] newWeights = new double[capacity];
+            System.arraycopy(weights, 0, newWeights, 0, size);
+            weights = newWeights;
+            int[] newDepths = new int[capacity];
+            System.arraycopy(depths, 0, newDepths, 0, size);
+            depths = newDepths;
+        }
+        int r = size * 6;
+        rays[r] = origin.x;
+        rays[r + 1] = origin.y;
+        rays[r + 2] = origin.z;
+        rays[r + 3] = dx;
+        rays[r + 4] = dy;
+        rays[r + 5] = dz;
+        weights[size] = weight;
+        depths[size] = depth;
+        size++;
+    }
+
+    /**
+     * Remove the topmost ray. Its values stay valid until the next ray is pushed.
+     *
+     * @return index of the removed ray
+     */
+    int pop() {
+        return --size;
+    }
+
+    /**
+     * Copy a ray of the stack. The origin is moved slightly along the direction, away from its surface.
+     *
+     * @param index  index of the ray
+     * @param target target ray
+     * @return the target ray
+     */
+    Ray toRay(int index, Ray target) {
+        int r = index * 6;
+        double dx = rays[r + 3];
+        double dy = rays[r + 4];
+        double dz = rays[r + 5];
+        return target.set(rays[r] + dx * EPSILON, rays[r + 1] + dy * EPSILON, rays[r + 2] + dz * EPSILON,
+                dx, dy, dz);
+    }
+}
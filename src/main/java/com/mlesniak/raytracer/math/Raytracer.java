@@ -1,8 +1,18 @@
 package com.mlesniak.raytracer.math;
 
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.PacketTracer;
+import com.mlesniak.raytracer.accel.PacketTracers;
+import com.mlesniak.raytracer.accel.RayPacket;
+import com.mlesniak.raytracer.metrics.RenderMetrics;
+import com.mlesniak.raytracer.render.CancellationToken;
+import com.mlesniak.raytracer.render.FrameListener;
+import com.mlesniak.raytracer.render.Framebuffer;
+import com.mlesniak.raytracer.render.RenderJob;
+import com.mlesniak.raytracer.render.RenderScheduler;
+import com.mlesniak.raytracer.render.TileRenderer;
 import com.mlesniak.raytracer.scene.Scene;
-import com.mlesniak.raytracer.scene.SceneObject;
-import com.mlesniak.raytracer.util.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,9 +26,9 @@ import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.text.NumberFormat;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntBinaryOperator;
 
 /**
  * Implementation of the raytracing algorithm.
@@ -29,40 +39,83 @@ import java.util.concurrent.TimeUnit;
  */
 public class Raytracer {
     private static final Logger LOG = LoggerFactory.getLogger(Raytracer.class);
-    private final SceneValues sceneValues;
 
-    private Scene scene;
+    /**
+     * Distance between traced pixels in the first pass of a progressive render.
+     */
+    public static final int PREVIEW_STRIDE = 8;
+
+    // Secondary rays of this depth and deeper are subject to Russian roulette.
+    private static final int ROULETTE_DEPTH = 3;
+
+    // Secondary rays contributing less than this are terminated randomly.
+    private static final double ROULETTE_WEIGHT = 0.25;
+
+    // Result of the light computation if no light source is visible.
+    private static final double IN_SHADOW = Double.NEGATIVE_INFINITY;
+
+    private final SceneSnapshot snapshot;
+    private final SceneSnapshot.View view;
+    private final RenderScheduler scheduler;
+
+    // Packed scene objects including the acceleration structure.
+    private final CompiledScene compiledScene;
+
+    // Traces primary rays of neighbouring pixels together, null if disabled in the scene.
+    private final PacketTracer packetTracer;
+
+    // Scratch objects are reused for every ray of a thread such that tracing a ray does not allocate.
+    private final ThreadLocal<TraceContext> contexts = ThreadLocal.withInitial(TraceContext::new);
+
+    // Statistics of adaptive anti-aliasing.
+    private final LongAdder supersampledPixels = new LongAdder();
+    private final LongAdder extraSamples = new LongAdder();
+
+    /**
+     * Initializes a new raytracer for the current state of a scene using the shared render scheduler.
+     *
+     * @param scene the scene to raytrace, later modifications do not affect this raytracer.
+     */
+    public Raytracer(Scene scene) {
+        this(SceneSnapshot.of(scene));
+    }
 
     /**
-     * Store precomputed scene values which are relevant for each pixel.
+     * Initializes a new raytracer for a scene snapshot using the shared render scheduler.
+     *
+     * @param snapshot the snapshot to raytrace.
      */
-    private class SceneValues {
-        // Compute correct pixel and screen dimensions to compute the viewplane we are looking at.
-        double fovRad = Math.PI * (scene.getFov() / 2) / 180;
-        double ratio = (double) scene.getHeight() / scene.getWidth();
-        // We divide by 2 since we define the full FoV in the scene definition (which is more intuitive).
-        double halfWidth = Math.tan(fovRad / 2);
-        double halfHeight = halfWidth * ratio;
-        double cameraWidth = halfWidth * 2;
-        double cameraHeight = halfHeight * 2;
-        double pixelWidth = cameraWidth / (scene.getWidth() - 1);
-        double pixelHeight = cameraHeight / (scene.getHeight() - 1);
+    public Raytracer(SceneSnapshot snapshot) {
+        this(snapshot, RenderScheduler.getShared());
+    }
 
-        // Predefined static vectors.
-        Vector3D cameraUp = new Vector3D(0, 1, 0);
-        Vector3D eyeRay = scene.getCamera().path(scene.getLookAt()).normalize();
-        Vector3D right = eyeRay.crossProduct(cameraUp);
-        Vector3D up = right.crossProduct(eyeRay);
+    /**
+     * Initializes a new raytracer for the current state of a scene.
+     *
+     * @param scene     the scene to raytrace, later modifications do not affect this raytracer.
+     * @param scheduler scheduler which distributes the tiles of an image to its threads.
+     */
+    public Raytracer(Scene scene, RenderScheduler scheduler) {
+        this(SceneSnapshot.of(scene), scheduler);
     }
 
     /**
-     * Initializes a new raytracer for a given scene.
+     * Initializes a new raytracer for a scene snapshot. Multiple raytracers may share a snapshot.
      *
-     * @param scene the scene to raytrace.
+     * @param snapshot  the snapshot to raytrace.
+     * @param scheduler scheduler which distributes the tiles of an image to its threads.
      */
-    public Raytracer(Scene scene) {
-        this.scene = scene;
-        sceneValues = new SceneValues();
+    public Raytracer(SceneSnapshot snapshot, RenderScheduler scheduler) {
+        this.snapshot = snapshot;
+        this.scheduler = scheduler;
+        view = snapshot.view;
+        compiledScene = snapshot.compiledScene;
+
+        if (snapshot.packetTracing) {
+            packetTracer = PacketTracers.create(compiledScene);
+        } else {
+            packetTracer = null;
+        }
     }
 
     /**
@@ -71,40 +124,367 @@ public class Raytracer {
      * @return the raytraced image.
      */
     public BufferedImage raytrace() {
-        Stopwatch.start("raytrace");
-
-        // Parallelization support.
-        int cores = Runtime.getRuntime().availableProcessors();
-        ExecutorService executorService = Executors.newFixedThreadPool(cores);
-        LOG.info("Initialized executor service with {} cores", cores);
-
-        // Each available threads computes a single line.
-        int[] pixels = new int[scene.getHeight() * scene.getWidth()];
-        for (int y = 0; y < scene.getHeight(); y++) {
-            final int line = y;
-            executorService.execute(() -> {
-                for (int x = 0; x < scene.getWidth(); x++) {
-                    int rgb = computePixel(scene, x, line);
-                    // Image and mathematical coordinate systems are different,
-                    // hence we have to flip w.r.t the y-axis.
-                    pixels[(scene.getHeight() - line - 1) * scene.getWidth() + x] = rgb;
+        RenderMetrics.Measurement measurement = startMeasurement();
+
+        // Each tile is computed by one of the scheduler's threads.
+        int width = snapshot.width;
+        int height = snapshot.height;
+        int[] pixels = new int[height * width];
+        supersampledPixels.reset();
+        extraSamples.reset();
+        scheduler.render(width, height, snapshot.tileSize, measured((x0, y0, x1, y1) -> {
+            TraceContext context = contexts.get();
+            if (packetTracer != null) {
+                renderPackets(context, pixels, x0, y0, x1, y1);
+                return;
+            }
+            for (int y = y0; y < y1; y++) {
+                // Image and mathematical coordinate systems are different,
+                // hence we have to flip w.r.t the y-axis.
+                int offset = (height - y - 1) * width;
+                for (int x = x0; x < x1; x++) {
+                    pixels[offset + x] = computePixel(context, x, y);
                 }
-            });
+            }
+        }));
+
+        // Create image from raw RGBA pixels.
+        BufferedImage image;
+        if (snapshot.maxSamples > 1) {
+            image = createBufferedImage(antialias(pixels));
+        } else {
+            image = createBufferedImage(pixels);
         }
 
-        // Wait (forever) until all threads are finished.
-        try {
-            executorService.shutdown();
-            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-        } catch (InterruptedException e) {
-            LOG.error("We waited {} days. This should never happen.", Long.MAX_VALUE);
+        showStatistics(measurement, snapshot.maxSamples > 1);
+        return image;
+    }
+
+    /**
+     * Compute an image into a framebuffer, e.g. an image which is too large for the heap. Tiles are passed to the
+     * framebuffer as soon as they are finished, hence only the tiles currently rendered are kept in memory.
+     * <p>
+     * Primary rays are always traced one by one. With adaptive anti-aliasing, every tile traces the pixels surrounding
+     * it as well to detect edges at its border.
+     *
+     * @param framebuffer target with the size of the scene
+     */
+    public void raytrace(Framebuffer framebuffer) {
+        if (framebuffer.getWidth() != snapshot.width || framebuffer.getHeight() != snapshot.height) {
+            throw new IllegalArgumentException("Framebuffer size " + framebuffer.getWidth() + "x" +
+                    framebuffer.getHeight() + " differs from scene size " + snapshot.width + "x" + snapshot.height);
+        }
+        RenderMetrics.Measurement measurement = startMeasurement();
+        supersampledPixels.reset();
+        extraSamples.reset();
+        scheduler.render(snapshot.width, snapshot.height, snapshot.tileSize, measured((x0, y0, x1, y1) ->
+                framebuffer.setPixels(x0, y0, x1, y1, renderTile(contexts.get(), x0, y0, x1, y1))));
+        showStatistics(measurement, snapshot.maxSamples > 1);
+    }
+
+    /**
+     * Compute a rectangular region of the image, e.g. a tile requested by a distributed render coordinator.
+     * <p>
+     * With adaptive anti-aliasing, the pixels surrounding the region are traced as well to detect edges at its border,
+     * hence the region equals the corresponding part of a complete image.
+     *
+     * @param x0 left border of the region (inclusive)
+     * @param y0 bottom border of the region (inclusive)
+     * @param x1 right border of the region (exclusive)
+     * @param y1 top border of the region (exclusive)
+     * @return pixels of the region in the row order of the image, i.e. starting with the top row <code>y1 - 1</code>.
+     */
+    public int[] raytraceRegion(int x0, int y0, int x1, int y1) {
+        int width = x1 - x0;
+        int height = y1 - y0;
+        int[] pixels = new int[width * height];
+        scheduler.render(width, height, snapshot.tileSize, measured((tx0, ty0, tx1, ty1) -> {
+            int[] tile = renderTile(contexts.get(), x0 + tx0, y0 + ty0, x0 + tx1, y0 + ty1);
+            int tileWidth = tx1 - tx0;
+            for (int y = ty0; y < ty1; y++) {
+                System.arraycopy(tile, (ty1 - y - 1) * tileWidth, pixels, (height - y - 1) * width + tx0, tileWidth);
+            }
+        }));
+        return pixels;
+    }
+
+    /**
+     * Compute a tile on the calling thread, independent of other tiles.
+     *
+     * @param context per-thread scratch objects
+     * @param x0      left border of the tile (inclusive)
+     * @param y0      bottom border of the tile (inclusive)
+     * @param x1      right border of the tile (exclusive)
+     * @param y1      top border of the tile (exclusive)
+     * @return pixels of the tile in the row order of the image, i.e. starting with the top row <code>y1 - 1</code>.
+     */
+    private int[] renderTile(TraceContext context, int x0, int y0, int x1, int y1) {
+        if (snapshot.maxSamples <= 1) {
+            return traceRegion(context, x0, y0, x1, y1);
+        }
+
+        // Trace a border of one pixel to detect edges at the border of the tile.
+        int bx0 = Math.max(0, x0 - 1);
+        int by0 = Math.max(0, y0 - 1);
+        int bx1 = Math.min(snapshot.width, x1 + 1);
+        int by1 = Math.min(snapshot.height, y1 + 1);
+        int baseWidth = bx1 - bx0;
+        int[] base = traceRegion(context, bx0, by0, bx1, by1);
+        IntBinaryOperator baseColor = (x, y) -> base[(by1 - y - 1) * baseWidth + x - bx0];
+
+        int width = x1 - x0;
+        int[] pixels = new int[width * (y1 - y0)];
+        for (int y = y0; y < y1; y++) {
+            int offset = (y1 - y - 1) * width - x0;
+            for (int x = x0; x < x1; x++) {
+                pixels[offset + x] = refinePixel(context, baseColor, x, y);
+            }
+        }
+        return pixels;
+    }
+
+    // Trace one ray per pixel of a region in the row order of the image.
+    private int[] traceRegion(TraceContext context, int x0, int y0, int x1, int y1) {
+        int width = x1 - x0;
+        int[] pixels = new int[width * (y1 - y0)];
+        for (int y = y0; y < y1; y++) {
+            int offset = (y1 - y - 1) * width - x0;
+            for (int x = x0; x < x1; x++) {
+                pixels[offset + x] = computePixel(context, x, y);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Refine an image with one ray per pixel by adaptive supersampling.
+     * <p>
+     * Refined pixels are written into a copy, such that edges are always detected on the original pixels and the
+     * result does not depend on the order in which tiles are processed.
+     *
+     * @param pixels image with one ray per pixel
+     * @return the anti-aliased image
+     */
+    private int[] antialias(int[] pixels) {
+        int width = snapshot.width;
+        int height = snapshot.height;
+        IntBinaryOperator baseColor = (x, y) -> pixels[(height - y - 1) * width + x];
+        int[] refined = new int[pixels.length];
+        scheduler.render(width, height, snapshot.tileSize, measured((x0, y0, x1, y1) -> {
+            TraceContext context = contexts.get();
+            for (int y = y0; y < y1; y++) {
+                int offset = (height - y - 1) * width;
+                for (int x = x0; x < x1; x++) {
+                    refined[offset + x] = refinePixel(context, baseColor, x, y);
+                }
+            }
+        }));
+        return refined;
+    }
+
+    /**
+     * Compute the anti-aliased color of a pixel. Pixels which differ from any of their neighbours by more than the
+     * threshold in a color channel, e.g. at edges and shadow boundaries, are supersampled.
+     *
+     * @param context   per-thread scratch objects
+     * @param baseColor color of a pixel traced with a single ray, given image coordinates
+     * @param x         x-coordinate in the image
+     * @param y         y-coordinate in the image
+     * @return pixel color in compressed RGBA format.
+     */
+    private int refinePixel(TraceContext context, IntBinaryOperator baseColor, int x, int y) {
+        int color = baseColor.applyAsInt(x, y);
+        int threshold = snapshot.sampleThreshold;
+        boolean edge = x > 0 && differs(color, baseColor.applyAsInt(x - 1, y), threshold) ||
+                x < snapshot.width - 1 && differs(color, baseColor.applyAsInt(x + 1, y), threshold) ||
+                y > 0 && differs(color, baseColor.applyAsInt(x, y - 1), threshold) ||
+                y < snapshot.height - 1 && differs(color, baseColor.applyAsInt(x, y + 1), threshold);
+        if (!edge) {
+            return color;
+        }
+        return supersample(context, x, y, color);
+    }
+
+    // Check if any color channel differs by more than the threshold.
+    private static boolean differs(int a, int b, int threshold) {
+        return Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)) > threshold ||
+                Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)) > threshold ||
+                Math.abs((a & 0xFF) - (b & 0xFF)) > threshold;
+    }
+
+    /**
+     * Supersample a pixel with stratified samples.
+     * <p>
+     * Samples are added in rounds of one randomly placed sample in each quadrant of the pixel. After each round the
+     * standard error of the mean brightness is estimated from the sample variance; sampling stops as soon as it falls
+     * below the threshold, i.e. if additional samples would barely change the pixel, or the maximum number of samples
+     * is reached.
+     *
+     * @param context per-thread scratch objects
+     * @param x       x-coordinate in the image
+     * @param y       y-coordinate in the image
+     * @param color   color of the ray through the pixel center, which is the first sample
+     * @return the averaged color.
+     */
+    private int supersample(TraceContext context, int x, int y, int color) {
+        int maxSamples = snapshot.maxSamples;
+        int r = (color >> 16) & 0xFF;
+        int g = (color >> 8) & 0xFF;
+        int b = color & 0xFF;
+        double brightness = (r + g + b) / 3.0;
+        double sumBrightness = brightness;
+        double sumSquares = brightness * brightness;
+        int samples = 1;
+
+        // Sample positions are independent of the random numbers used while shading the center ray.
+        context.seed(-x - 1, y);
+        while (samples < maxSamples) {
+            for (int quadrant = 0; quadrant < 4 && samples < maxSamples; quadrant++) {
+                double sx = x - 0.5 + ((quadrant & 1) + context.nextRandom()) / 2;
+                double sy = y - 0.5 + ((quadrant >> 1) + context.nextRandom()) / 2;
+                int sample = computeSample(context, sx, sy);
+                int sr = (sample >> 16) & 0xFF;
+                int sg = (sample >> 8) & 0xFF;
+                int sb = sample & 0xFF;
+                r += sr;
+                g += sg;
+                b += sb;
+                brightness = (sr + sg + sb) / 3.0;
+                sumBrightness += brightness;
+                sumSquares += brightness * brightness;
+                samples++;
+            }
+
+            double mean = sumBrightness / samples;
+            double variance = Math.max(0, sumSquares / samples - mean * mean);
+            if (Math.sqrt(variance / samples) < snapshot.sampleThreshold) {
+                break;
+            }
+        }
+
+        supersampledPixels.increment();
+        extraSamples.add(samples - 1);
+        return toRGBA(r / samples, g / samples, b / samples, 0xFF);
+    }
+
+    /**
+     * Compute an image in multiple passes with increasing resolution.
+     * <p>
+     * The first pass traces every <code>PREVIEW_STRIDE</code>th pixel in both directions and fills the block to its
+     * upper right with its color. Each following pass halves the stride, reusing the pixels which have already been
+     * traced, until the last pass traces the remaining pixels of the full image. Hence the whole image costs only
+     * slightly more than a single pass while a coarse preview is available after a fraction of the time.
+     *
+     * @param listener receives the image after every pass
+     * @param token    token to abort the render, checked before every tile
+     * @return the final image or an empty optional if the render has been cancelled.
+     */
+    public Optional<BufferedImage> raytraceProgressive(FrameListener listener, CancellationToken token) {
+        return raytraceProgressive(listener, token, progress -> {
+        });
+    }
+
+    /**
+     * Start a progressive render in the background, see <code>raytraceProgressive()</code>.
+     * <p>
+     * Jobs of the same scheduler run one after another. To coalesce frequent requests, e.g. while the camera is
+     * moved, cancel the previous job before a new one is started.
+     *
+     * @param listener receives the image after every pass on the job thread
+     * @return the started job.
+     */
+    public RenderJob raytraceAsync(FrameListener listener) {
+        return RenderJob.start(scheduler.getJobExecutor(),
+                (token, progress) -> raytraceProgressive(listener, token, progress));
+    }
+
+    /**
+     * Compute an image in multiple passes with increasing resolution and report progress.
+     *
+     * @param listener receives the image after every pass
+     * @param token    token to abort the render, checked before every tile
+     * @param progress receives the fraction of work of every finished tile
+     * @return the final image or an empty optional if the render has been cancelled.
+     */
+    public Optional<BufferedImage> raytraceProgressive(FrameListener listener, CancellationToken token,
+            DoubleConsumer progress) {
+        RenderMetrics.Measurement measurement = startMeasurement();
+
+        int width = snapshot.width;
+        int height = snapshot.height;
+        int[] pixels = new int[height * width];
+        for (int stride = PREVIEW_STRIDE; stride >= 1; stride /= 2) {
+            int passStride = stride;
+            // Work of a pass is measured by the fraction of pixels traced in this pass.
+            double pixelWork = 3.0 / (4 * stride * stride) / ((double) width * height);
+            if (stride == PREVIEW_STRIDE) {
+                pixelWork = 1.0 / (stride * stride) / ((double) width * height);
+            }
+            double passWork = pixelWork;
+            scheduler.render(width, height, snapshot.tileSize, measured((x0, y0, x1, y1) -> {
+                if (!token.isCancelled()) {
+                    renderBlocks(contexts.get(), pixels, passStride, x0, y0, x1, y1);
+                    progress.accept(passWork * (x1 - x0) * (y1 - y0));
+                }
+            }));
+            if (token.isCancelled()) {
+                LOG.info("Render cancelled after {}ms", measurement.getStopwatch().stop());
+                return Optional.empty();
+            }
+
+            if (stride > 1) {
+                // Later passes continue to write into the pixels, hence intermediate frames need their own copy.
+                listener.frameRendered(createBufferedImage(pixels.clone()), stride);
+            }
         }
 
-        // Create image from raw RGBA pixels.
         BufferedImage image = createBufferedImage(pixels);
+        // Progressive renders are not anti-aliased.
+        showStatistics(measurement, false);
+        listener.frameRendered(image, 1);
+        return Optional.of(image);
+    }
 
-        showStatistics("raytrace");
-        return image;
+    /**
+     * Render a tile of a single progressive pass.
+     * <p>
+     * Blocks are aligned to multiples of the stride in image coordinates and not to the tile, since the scheduler may
+     * split tiles differently in every pass. A block which starts outside of the tile is traced again such that
+     * render threads only read and write pixels of their own tile.
+     *
+     * @param context per-thread scratch objects
+     * @param pixels  image pixels
+     * @param stride  edge length of a block
+     * @param x0      left border of the tile (inclusive)
+     * @param y0      bottom border of the tile (inclusive)
+     * @param x1      right border of the tile (exclusive)
+     * @param y1      top border of the tile (exclusive)
+     */
+    private void renderBlocks(TraceContext context, int[] pixels, int stride, int x0, int y0, int x1, int y1) {
+        int width = snapshot.width;
+        int height = snapshot.height;
+        for (int by = y0 - y0 % stride; by < y1; by += stride) {
+            for (int bx = x0 - x0 % stride; bx < x1; bx += stride) {
+                // Pixels on the grid of the previous pass have already been traced.
+                boolean traced = stride < PREVIEW_STRIDE && bx % (2 * stride) == 0 && by % (2 * stride) == 0 &&
+                        bx >= x0 && by >= y0;
+                int color;
+                if (traced) {
+                    color = pixels[(height - by - 1) * width + bx];
+                } else {
+                    color = computePixel(context, bx, by);
+                }
+
+                int maxY = Math.min(by + stride, y1);
+                int maxX = Math.min(bx + stride, x1);
+                for (int y = Math.max(by, y0); y < maxY; y++) {
+                    int offset = (height - y - 1) * width;
+                    for (int x = Math.max(bx, x0); x < maxX; x++) {
+                        pixels[offset + x] = color;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -115,81 +495,419 @@ public class Raytracer {
      */
     private BufferedImage createBufferedImage(int[] pixels) {
         ColorModel colorModel = DirectColorModel.getRGBdefault();
-        SampleModel sampleModel = colorModel.createCompatibleSampleModel(scene.getWidth(), scene.getHeight());
-        DataBuffer buffer = new DataBufferInt(pixels, scene.getWidth() * scene.getHeight());
+        SampleModel sampleModel = colorModel.createCompatibleSampleModel(snapshot.width, snapshot.height);
+        DataBuffer buffer = new DataBufferInt(pixels, snapshot.width * snapshot.height);
         WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
         return new BufferedImage(colorModel, raster, false, null);
     }
 
+    /**
+     * Render a tile in blocks of pixels whose primary rays are traced as a single packet.
+     * <p>
+     * A packet of four rays covers 2x2 pixels, larger packets cover two rows. At the border of a tile, lanes without a
+     * pixel trace a duplicate of the last ray in the tile and their result is ignored.
+     *
+     * @param context per-thread scratch objects
+     * @param pixels  image pixels
+     * @param x0      left border of the tile (inclusive)
+     * @param y0      bottom border of the tile (inclusive)
+     * @param x1      right border of the tile (exclusive)
+     * @param y1      top border of the tile (exclusive)
+     */
+    private void renderPackets(TraceContext context, int[] pixels, int x0, int y0, int x1, int y1) {
+        int size = packetTracer.getPacketSize();
+        RayPacket packet = context.getPacket(size);
+        int blockHeight = 1;
+        if (size % 2 == 0) {
+            blockHeight = 2;
+        }
+        int blockWidth = size / blockHeight;
+
+        int width = snapshot.width;
+        int height = snapshot.height;
+        Vector3D camera = view.camera;
+        Ray ray = context.ray;
+        HitRecord hit = context.hit;
+        for (int by = y0; by < y1; by += blockHeight) {
+            for (int bx = x0; bx < x1; bx += blockWidth) {
+                packet.ox = camera.x;
+                packet.oy = camera.y;
+                packet.oz = camera.z;
+                for (int i = 0; i < size; i++) {
+                    int x = Math.min(bx + i % blockWidth, x1 - 1);
+                    int y = Math.min(by + i / blockWidth, y1 - 1);
+                    primaryRay(ray, x, y);
+                    packet.setDirection(i, ray.dx, ray.dy, ray.dz);
+                }
+                packetTracer.closestHits(packet, context.stack);
+                context.primaryRays += size;
+
+                for (int i = 0; i < size; i++) {
+                    int x = bx + i % blockWidth;
+                    int y = by + i / blockWidth;
+                    if (x >= x1 || y >= y1) {
+                        continue;
+                    }
+                    context.seed(x, y);
+                    hit.reset();
+                    if (packet.primitive[i] != CompiledScene.NONE) {
+                        hit.update(packet.primitive[i], packet.distance[i]);
+                    }
+                    pixels[(height - y - 1) * width + x] = trace(context, packet.toRay(i, ray), hit);
+                }
+            }
+        }
+    }
+
     /**
      * Compute the color for the given pixel in the scene.
      *
-     * @param scene scene description
-     * @param x     x-coordinate in the image
-     * @param y     y-coordinate in the image
+     * @param context per-thread scratch objects
+     * @param x       x-coordinate in the image
+     * @param y       y-coordinate in the image
      * @return pixel color in compressed RGBA format.
      */
-    private int computePixel(Scene scene, int x, int y) {
+    private int computePixel(TraceContext context, int x, int y) {
+        context.seed(x, y);
+        return computeSample(context, x, y);
+    }
+
+    /**
+     * Compute the color of a single ray through the viewplane.
+     *
+     * @param context per-thread scratch objects
+     * @param x       x-coordinate in the image, fractions address positions between pixel centers
+     * @param y       y-coordinate in the image, fractions address positions between pixel centers
+     * @return color in compressed RGBA format.
+     */
+    private int computeSample(TraceContext context, double x, double y) {
+        Ray ray = primaryRay(context.ray, x, y);
+        context.primaryRays++;
+
+        // Find the nearest object in the scene.
+        HitRecord hit = context.hit;
+        hit.reset();
+        compiledScene.closestHit(ray, hit, context.stack);
+        return trace(context, ray, hit);
+    }
+
+    /**
+     * Compute the ray from the eye through a pixel on the viewplane.
+     *
+     * @param ray target ray
+     * @param x   x-coordinate in the image
+     * @param y   y-coordinate in the image
+     * @return the target ray
+     */
+    private Ray primaryRay(Ray ray, double x, double y) {
         // Compute position on the viewplane.
-        Vector3D xShift = sceneValues.right.scale(x * sceneValues.pixelWidth - sceneValues.halfWidth);
-        Vector3D yShift = sceneValues.up.scale(y * sceneValues.pixelHeight - sceneValues.halfHeight);
+        double xShift = x * view.pixelWidth - view.halfWidth;
+        double yShift = y * view.pixelHeight - view.halfHeight;
 
         // Compute ray from eye to position on viewplane.
-        Vector3D ray = sceneValues.eyeRay.plus(xShift).plus(yShift).normalize();
-
-        // Check ray against all objects in the scene.
-        int color = toRGBA(0, 0, 0, 0xFF);
-        double minimalDistance = Double.MAX_VALUE;
-        for (SceneObject sceneObject : scene.getObjects()) {
-            Optional<Vector3D> intersectObject = sceneObject.computeIntersection(scene.getCamera(), ray);
-            if (!intersectObject.isPresent()) {
-                // No collision. Use background color.
+        Vector3D eyeRay = view.eyeRay;
+        Vector3D right = view.right;
+        Vector3D up = view.up;
+        double dx = eyeRay.x + right.x * xShift + up.x * yShift;
+        double dy = eyeRay.y + right.y * xShift + up.y * yShift;
+        double dz = eyeRay.z + right.z * xShift + up.z * yShift;
+        double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        Vector3D camera = view.camera;
+        return ray.set(camera.x, camera.y, camera.z, dx / len, dy / len, dz / len);
+    }
+
+    /**
+     * Compute the color of a primary ray whose nearest hit is known, including reflected and refracted rays.
+     * <p>
+     * The color of a pixel is the sum of the local colors of all surfaces along the paths of its rays, each weighted
+     * with the fraction of light reaching the camera from this surface. Hence secondary rays can be traced in any
+     * order using an explicit stack instead of recursion. A path ends at the maximum depth or when its contribution
+     * drops below the threshold; weak paths are terminated early by Russian roulette, whose surviving paths are
+     * weighted up such that the pixel brightness is preserved on average.
+     *
+     * @param context per-thread scratch objects
+     * @param ray     primary ray
+     * @param hit     result of the closest-hit query for the ray
+     * @return pixel color in compressed RGBA format.
+     */
+    private int trace(TraceContext context, Ray ray, HitRecord hit) {
+        int color = shade(context, ray, hit);
+        if (!hit.isHit() || hit.reflectivity == 0 && hit.transparency == 0) {
+            return color;
+        }
+
+        double surface = surfaceWeight(hit);
+        double r = surface * ((color >> 16) & 0xFF);
+        double g = surface * ((color >> 8) & 0xFF);
+        double b = surface * (color & 0xFF);
+        RayStack rays = context.rays;
+        rays.clear();
+        spawn(context, ray, hit, 1, 0);
+        while (!rays.isEmpty()) {
+            int index = rays.pop();
+            double weight = rays.weights[index];
+            int depth = rays.depths[index];
+            Ray secondary = rays.toRay(index, context.ray);
+            context.secondaryRays++;
+            hit.reset();
+            compiledScene.closestHit(secondary, hit, context.stack);
+            color = shade(context, secondary, hit);
+            if (!hit.isHit()) {
+                // Background is black.
                 continue;
             }
 
-            // Compute distance to camera to check if this object is nearer than the one already found.
-            Vector3D intersection = intersectObject.get();
-            double objectDistance = scene.getCamera().distance(intersection);
-            if (objectDistance >= minimalDistance) {
-                // We found an object which is nearer to the camera, hence its pixel color is more relevant. Ignore
-                // the current object.
+            surface = weight * surfaceWeight(hit);
+            r += surface * ((color >> 16) & 0xFF);
+            g += surface * ((color >> 8) & 0xFF);
+            b += surface * (color & 0xFF);
+            spawn(context, secondary, hit, weight, depth);
+        }
+        return toRGBA((int) r, (int) g, (int) b, 0xFF);
+    }
+
+    // Fraction of light at a surface which is neither reflected nor transmitted.
+    private static double surfaceWeight(HitRecord hit) {
+        return Math.max(0, 1 - hit.reflectivity - hit.transparency);
+    }
+
+    /**
+     * Push the reflected and refracted rays of a resolved hit. The transmitted fraction is split into reflected and
+     * refracted light by Schlick's approximation of the Fresnel equations.
+     *
+     * @param context per-thread scratch objects
+     * @param ray     ray which hit the surface
+     * @param hit     resolved hit with intersection point, normal and material
+     * @param weight  fraction the ray contributes to the pixel
+     * @param depth   depth of the ray
+     */
+    private void spawn(TraceContext context, Ray ray, HitRecord hit, double weight, int depth) {
+        if (depth >= snapshot.maxDepth) {
+            return;
+        }
+
+        // Orient the normal against the ray. If the ray leaves the object, the refractive indices are swapped.
+        Vector3D n = hit.normal;
+        double nx = n.x;
+        double ny = n.y;
+        double nz = n.z;
+        double cos = -(nx * ray.dx + ny * ray.dy + nz * ray.dz);
+        double eta = 1 / hit.refractiveIndex;
+        if (cos < 0) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+            cos = -cos;
+            eta = hit.refractiveIndex;
+        }
+
+        double reflected = hit.reflectivity;
+        double transmitted = hit.transparency;
+        double k = 1 - eta * eta * (1 - cos * cos);
+        if (transmitted > 0 && k < 0) {
+            // Total internal reflection.
+            reflected += transmitted;
+            transmitted = 0;
+        } else if (transmitted > 0) {
+            double r0 = (1 - hit.refractiveIndex) / (1 + hit.refractiveIndex);
+            r0 *= r0;
+            // The angle in the optically thinner medium determines the reflectance.
+            double c = cos;
+            if (eta > 1) {
+                c = Math.sqrt(k);
+            }
+            double fresnel = r0 + (1 - r0) * Math.pow(1 - c, 5);
+            reflected += transmitted * fresnel;
+            transmitted -= transmitted * fresnel;
+        }
+
+        if (reflected > 0) {
+            push(context, hit.point, ray.dx + 2 * cos * nx, ray.dy + 2 * cos * ny, ray.dz + 2 * cos * nz,
+                    weight * reflected, depth + 1);
+        }
+        if (transmitted > 0) {
+            double f = eta * cos - Math.sqrt(k);
+            push(context, hit.point, eta * ray.dx + f * nx, eta * ray.dy + f * ny, eta * ray.dz + f * nz,
+                    weight * transmitted, depth + 1);
+        }
+    }
+
+    // Push a secondary ray unless its contribution is too small or it is terminated by Russian roulette.
+    private void push(TraceContext context, Vector3D point, double dx, double dy, double dz, double weight,
+            int depth) {
+        if (weight < snapshot.minContribution) {
+            return;
+        }
+        double survivorWeight = weight;
+        if (depth >= ROULETTE_DEPTH && weight < ROULETTE_WEIGHT) {
+            if (context.nextRandom() * ROULETTE_WEIGHT >= weight) {
+                return;
+            }
+            survivorWeight = ROULETTE_WEIGHT;
+        }
+
+        double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        context.rays.push(point, dx / len, dy / len, dz / len, survivorWeight, depth);
+    }
+
+    /**
+     * Compute the local color of a ray whose nearest hit is known, i.e. the color of the surface without reflected and
+     * refracted light.
+     *
+     * @param context per-thread scratch objects
+     * @param ray     primary or secondary ray
+     * @param hit     result of the closest-hit query for the ray
+     * @return color in compressed RGBA format.
+     */
+    private int shade(TraceContext context, Ray ray, HitRecord hit) {
+        if (!hit.isHit()) {
+            // No collision. Use background color.
+            return toRGBA(0, 0, 0, 0xFF);
+        }
+        compiledScene.resolve(ray, hit);
+
+        double diffuse;
+        if (snapshot.lightSamples > 0 && snapshot.lightSamples < snapshot.lights.size()) {
+            diffuse = sampleLights(context, hit);
+        } else {
+            diffuse = sumLights(context, hit);
+        }
+        if (diffuse == IN_SHADOW) {
+            // No light source is visible from the point. Use shadow color.
+            return toRGBA(0, 0, 0, 0xFF);
+        }
+        return computeColor(hit, diffuse);
+    }
+
+    /**
+     * Compute the diffuse light factor of a point by casting a shadow ray to each light source. The intensity of a
+     * single light is shared between all lights, i.e. the result is the average factor of all lights. Lights behind the
+     * surface contribute nothing, as in <code>sampleLights()</code>.
+     *
+     * @param context per-thread scratch objects
+     * @param hit     resolved hit with intersection point and normal
+     * @return diffuse factor or <code>IN_SHADOW</code> if no light source is visible.
+     */
+    private double sumLights(TraceContext context, HitRecord hit) {
+        int lightCount = snapshot.lights.size();
+        Vector3D n = hit.normal;
+        double sum = 0;
+        boolean lit = false;
+        for (int i = 0; i < lightCount; i++) {
+            Ray rayToLight = shadowRay(context, hit, i);
+            double factor = n.x * rayToLight.dx + n.y * rayToLight.dy + n.z * rayToLight.dz;
+            if (factor <= 0) {
+                // Light lies behind the surface and does not need a shadow ray.
                 continue;
             }
-            minimalDistance = objectDistance;
-
-            // Quick hack to have something working: Check if the intersection has a visible path to the
-            // light source. If not, use shadow color. This approach needs to be refactored for performance
-            // (move code up) and generality (more light sources):
-            // We only have one light source, use this.
-            Vector3D light = scene.getLights().get(0);
-            Vector3D raytoLight = intersection.path(light).normalize();
-            Optional<Integer> shadowColor = checkLightIntersection(scene, sceneObject, intersection, raytoLight);
-            if (shadowColor.isPresent()) {
-                color = shadowColor.get();
+            if (isOccluded(context, hit, i)) {
                 continue;
             }
+            // Point does not lie in the shadow of another object. Add factor given angle to light source.
+            lit = true;
+            sum += factor;
+        }
+        if (!lit) {
+            return IN_SHADOW;
+        }
+        return sum / lightCount;
+    }
 
-            // Point does not lie in the shadow of another object. Compute color given angle to light source.
-            color = computeColor(sceneObject, intersection, light);
+    /**
+     * Estimate the diffuse light factor of a point with a fixed number of shadow rays, independent of the number of
+     * light sources.
+     * <p>
+     * Without shadows, the contribution of each light is its cosine factor, which is cheap to compute. Lights are
+     * chosen with a probability proportional to this factor, hence only visibility is estimated stochastically and
+     * lights which barely contribute rarely cost a shadow ray. Lights behind the surface are never chosen. The random
+     * numbers only depend on the pixel, such that every render of the scene yields the same image.
+     *
+     * @param context per-thread scratch objects, seeded for the current pixel
+     * @param hit     resolved hit with intersection point and normal
+     * @return estimated diffuse factor or <code>IN_SHADOW</code> if none of the chosen lights is visible.
+     */
+    private double sampleLights(TraceContext context, HitRecord hit) {
+        int lightCount = snapshot.lights.size();
+        Vector3D n = hit.normal;
+        double[] cdf = context.getLightWeights(lightCount);
+        double total = 0;
+        for (int i = 0; i < lightCount; i++) {
+            Ray rayToLight = shadowRay(context, hit, i);
+            total += Math.max(0, n.x * rayToLight.dx + n.y * rayToLight.dy + n.z * rayToLight.dz);
+            cdf[i] = total;
+        }
+        if (total == 0) {
+            // Facing away from all lights.
+            return IN_SHADOW;
+        }
+
+        int samples = snapshot.lightSamples;
+        int visible = 0;
+        for (int s = 0; s < samples; s++) {
+            int light = findLight(cdf, lightCount, context.nextRandom() * total);
+            shadowRay(context, hit, light);
+            if (!isOccluded(context, hit, light)) {
+                visible++;
+            }
+        }
+        if (visible == 0) {
+            return IN_SHADOW;
         }
+        // A visible light chosen with probability factor / total contributes factor / probability = total.
+        return total * visible / samples / lightCount;
+    }
+
+    // Binary search for the first light whose cumulative weight exceeds the given value.
+    private static int findLight(double[] cdf, int lightCount, double value) {
+        int low = 0;
+        int high = lightCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // Set the shadow ray of the context from the intersection point towards a light.
+    private Ray shadowRay(TraceContext context, HitRecord hit, int light) {
+        Vector3D intersection = hit.point;
+        Vector3D position = snapshot.lights.get(light);
+        double lx = position.x - intersection.x;
+        double ly = position.y - intersection.y;
+        double lz = position.z - intersection.z;
+        double lightLen = Math.sqrt(lx * lx + ly * ly + lz * lz);
+        context.lightDistance = lightLen;
+        return context.shadowRay.set(intersection.x, intersection.y, intersection.z,
+                lx / lightLen, ly / lightLen, lz / lightLen);
+    }
 
-        return color;
+    // Check the shadow ray of the context. Only objects between the point and the light cast a shadow and the
+    // occluder of the previous shadow ray towards the same light is tried first.
+    private boolean isOccluded(TraceContext context, HitRecord hit, int light) {
+        context.shadowRays++;
+        int occluder = compiledScene.findOccluder(context.shadowRay, context.lightDistance, hit.primitive,
+                context.getOccluder(light), context.stack);
+        if (occluder == CompiledScene.NONE) {
+            return false;
+        }
+        context.setOccluder(light, occluder);
+        return true;
     }
 
     /**
-     * Compute color of the pixel based on the angle between light ray and intersection normal.
+     * Compute color of the pixel based on the diffuse light factor, i.e. the cosine of the angle between light ray and
+     * intersection normal.
      *
-     * @param sceneObject  intersected object
-     * @param intersection intersection point
-     * @param light        light source
+     * @param hit     resolved hit with intersection point and normal
+     * @param diffuse diffuse light factor
      * @return color of the pixel
      */
-    private int computeColor(SceneObject sceneObject, Vector3D intersection, Vector3D light) {
-        int color;
-        Vector3D n = sceneObject.computeNormal(intersection);
-        Vector3D path = intersection.path(light).normalize();
-        double factor = n.dot(path);
-        color = sceneObject.getColor();
+    int computeColor(HitRecord hit, double diffuse) {
+        int color = hit.color;
         int r = (color >> 16) & 0xFF;
         int g = (color >> 8) & 0xFF;
         int b = color & 0xFF;
@@ -198,28 +916,11 @@ public class Raytracer {
         double kd = 0.9;
         double ka = 0.2;
 
-        r = (int) (kd * factor * r + ka * r);
-        g = (int) (kd * factor * g + ka * g);
-        b = (int) (kd * factor * b + ka * b);
-
-        color = toRGBA(r, g, b, 0xFF);
-        return color;
-    }
-
-    // Beginning of refactoring for phong shading.
-    private Optional<Integer> checkLightIntersection(Scene scene, SceneObject object, Vector3D intersection,
-                                                     Vector3D raytoLight) {
-        for (SceneObject shadowObject : scene.getObjects()) {
-            if (shadowObject == object) {
-                continue;
-            }
-            Optional<Vector3D> lightIntersection = shadowObject.computeIntersection(intersection, raytoLight);
-            if (lightIntersection.isPresent()) {
-                return Optional.of(toRGBA(0, 0, 0, 0xFF));
-            }
-        }
+        r = (int) (kd * diffuse * r + ka * r);
+        g = (int) (kd * diffuse * g + ka * g);
+        b = (int) (kd * diffuse * b + ka * b);
 
-        return Optional.empty();
+        return toRGBA(r, g, b, 0xFF);
     }
 
     /**
@@ -252,16 +953,70 @@ public class Raytracer {
         return value;
     }
 
+    /**
+     * Number of pixels supersampled by adaptive anti-aliasing since the last call to <code>raytrace()</code>.
+     *
+     * @return number of pixels
+     */
+    public long getSupersampledPixels() {
+        return supersampledPixels.sum();
+    }
+
+    /**
+     * Number of rays traced by adaptive anti-aliasing in addition to one ray per pixel since the last call to
+     * <code>raytrace()</code>.
+     *
+     * @return number of rays
+     */
+    public long getExtraSamples() {
+        return extraSamples.sum();
+    }
+
+    /**
+     * Add the work of every tile to the render metrics, if enabled.
+     *
+     * @param renderer renderer of the tiles
+     * @return the renderer itself if metrics are disabled, otherwise a renderer measuring each tile
+     */
+    private TileRenderer measured(TileRenderer renderer) {
+        if (!RenderMetrics.ENABLED) {
+            return renderer;
+        }
+        RenderMetrics metrics = RenderMetrics.getShared();
+        return (x0, y0, x1, y1) -> {
+            long start = System.nanoTime();
+            renderer.render(x0, y0, x1, y1);
+            metrics.addTile(System.nanoTime() - start);
+            contexts.get().addTo(metrics);
+        };
+    }
+
+    // Scanning the garbage collectors and counters is only done if metrics are enabled, the duration is always logged.
+    private static RenderMetrics.Measurement startMeasurement() {
+        if (RenderMetrics.ENABLED) {
+            return RenderMetrics.getShared().startRender();
+        }
+        return RenderMetrics.Measurement.durationOnly();
+    }
+
     /**
      * Show statistics for the computed image.
      *
-     * @param timerName name of the timer which started when raytracing began.
+     * @param measurement  measurement which started when raytracing began.
+     * @param supersampled true if pixels have been supersampled, i.e. the anti-aliasing counters belong to this render
      */
-    private void showStatistics(String timerName) {
-        long duration = Stopwatch.stop(timerName);
-        long pixels = (long) scene.getWidth() * scene.getHeight();
-        long pixelPerMs = pixels / duration;
+    private void showStatistics(RenderMetrics.Measurement measurement, boolean supersampled) {
+        long duration = measurement.getStopwatch().stop();
+        long pixels = (long) snapshot.width * snapshot.height;
+        long pixelPerMs = pixels / Math.max(1, duration);
         LOG.info("pixel={}, duration={}, pixel per ms = {}, pixel per sec = {}",
                 pixels, duration, pixelPerMs, NumberFormat.getIntegerInstance().format(pixelPerMs * 1000));
+        if (supersampled) {
+            LOG.info("anti-aliasing: supersampled pixels={}, extra rays={}",
+                    getSupersampledPixels(), getExtraSamples());
+        }
+        if (RenderMetrics.ENABLED) {
+            RenderMetrics.getShared().finishRender(measurement, scheduler.getParallelism(), pixels);
+        }
     }
 }
@@ -0,0 +1,249 @@
+package com.mlesniak.raytracer.math;
+
+import com.mlesniak.raytracer.accel.Bvh;
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.PackedObjects;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable state of a scene at a single point in time, including all values precomputed for rendering.
+ * <p>
+ * The YAML scene consists of mutable objects which are modified by animation scripts and the realtime view. A
+ * snapshot copies everything which is needed to render an image, hence it can be shared by any number of renders
+ * running concurrently while the scene is modified for the next frame. Vectors stored in a snapshot are never
+ * modified and never passed outside; getters return copies.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class SceneSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(SceneSnapshot.class);
+
+    // Used if the scene does not define a threshold for adaptive anti-aliasing.
+    private static final int DEFAULT_SAMPLE_THRESHOLD = 16;
+
+    // Used if the scene does not limit secondary rays.
+    private static final int DEFAULT_MAX_DEPTH = 5;
+    private static final double DEFAULT_MIN_CONTRIBUTION = 0.01;
+
+    final int width;
+    final int height;
+    final int tileSize;
+    final boolean packetTracing;
+    final double fov;
+    final List<Vector3D> lights;
+    final int lightSamples;
+    final int maxSamples;
+    final int sampleThreshold;
+    final int maxDepth;
+    final double minContribution;
+    final View view;
+
+    // Packed scene objects including the acceleration structure.
+    final CompiledScene compiledScene;
+
+    /**
+     * Camera and the values derived from it to compute primary rays.
+     */
+    static final class View {
+        final Vector3D camera;
+        final Vector3D lookAt;
+
+        // Compute correct pixel and screen dimensions to compute the viewplane we are looking at.
+        final double halfWidth;
+        final double halfHeight;
+        final double pixelWidth;
+        final double pixelHeight;
+
+        // Predefined static vectors.
+        final Vector3D eyeRay;
+        final Vector3D right;
+        final Vector3D up;
+
+        View(int width, int height, double fov, Vector3D camera, Vector3D lookAt) {
+            this.camera = camera.copy();
+            this.lookAt = lookAt.copy();
+
+            double fovRad = Math.PI * (fov / 2) / 180;
+            double ratio = (double) height / width;
+            // We divide by 2 since we define the full FoV in the scene definition (which is more intuitive).
+            halfWidth = Math.tan(fovRad / 2);
+            halfHeight = halfWidth * ratio;
+            double cameraWidth = halfWidth * 2;
+            double cameraHeight = halfHeight * 2;
+            pixelWidth = cameraWidth / (width - 1);
+            pixelHeight = cameraHeight / (height - 1);
+
+            Vector3D cameraUp = new Vector3D(0, 1, 0);
+            eyeRay = this.camera.path(this.lookAt).normalize();
+            right = eyeRay.crossProduct(cameraUp);
+            up = right.crossProduct(eyeRay);
+        }
+    }
+
+    private SceneSnapshot(Scene scene, CompiledScene compiledScene) {
+        width = scene.getWidth();
+        height = scene.getHeight();
+        tileSize = scene.getTileSize();
+        packetTracing = scene.getPacketTracing();
+        fov = scene.getFov();
+        List<Vector3D> lightCopies = new ArrayList<>();
+        for (Vector3D light : scene.getLights()) {
+            lightCopies.add(light.copy());
+        }
+        lights = Collections.unmodifiableList(lightCopies);
+        lightSamples = scene.getLightSamples();
+        maxSamples = scene.getMaxSamples();
+        if (scene.getSampleThreshold() > 0) {
+            sampleThreshold = scene.getSampleThreshold();
+        } else {
+            sampleThreshold = DEFAULT_SAMPLE_THRESHOLD;
+        }
+        if (scene.getMaxDepth() > 0) {
+            maxDepth = scene.getMaxDepth();
+        } else {
+            maxDepth = DEFAULT_MAX_DEPTH;
+        }
+        if (scene.getMinContribution() > 0) {
+            minContribution = scene.getMinContribution();
+        } else {
+            minContribution = DEFAULT_MIN_CONTRIBUTION;
+        }
+        view = new View(width, height, fov, scene.getCamera(), scene.getLookAt());
+        this.compiledScene = compiledScene;
+    }
+
+    private SceneSnapshot(SceneSnapshot snapshot, View view) {
+        width = snapshot.width;
+        height = snapshot.height;
+        tileSize = snapshot.tileSize;
+        packetTracing = snapshot.packetTracing;
+        fov = snapshot.fov;
+        lights = snapshot.lights;
+        lightSamples = snapshot.lightSamples;
+        maxSamples = snapshot.maxSamples;
+        sampleThreshold = snapshot.sampleThreshold;
+        maxDepth = snapshot.maxDepth;
+        minContribution = snapshot.minContribution;
+        this.view = view;
+        compiledScene = snapshot.compiledScene;
+    }
+
+    /**
+     * Create a snapshot of the current state of a scene.
+     *
+     * @param scene scene to freeze
+     * @return the snapshot
+     */
+    public static SceneSnapshot of(Scene scene) {
+        return of(scene, null);
+    }
+
+    /**
+     * Create a snapshot of the next frame of an animation. The hierarchies of the previous frame are refitted to the
+     * moved objects instead of being built from scratch, see {@link CompiledScene}. The previous snapshot is not
+     * modified and can still be rendered.
+     *
+     * @param scene    scene to freeze
+     * @param previous snapshot of the previous frame, may be null
+     * @return the snapshot
+     */
+    public static SceneSnapshot of(Scene scene, SceneSnapshot previous) {
+        Stopwatch stopwatch = Stopwatch.start();
+        // Objects of streamed scene files are compiled without converting them into beans.
+        PackedObjects packedObjects = scene.getPackedObjects();
+        if (packedObjects == null) {
+            packedObjects = PackedObjects.of(scene.getObjects());
+        }
+        CompiledScene previousScene = null;
+        if (previous != null) {
+            previousScene = previous.compiledScene;
+        }
+        CompiledScene compiledScene = CompiledScene.compile(packedObjects, scene.getGeometries(),
+                scene.getInstances(), previousScene);
+        Bvh bvh = compiledScene.getBvh();
+        LOG.info("Compiled scene with {} spheres, {} planes, {} triangles and {} instances, BVH with {} nodes and " +
+                "depth {} (refitted: {}) in {}ms", compiledScene.getSphereCount(), compiledScene.getPlaneCount(),
+                compiledScene.getTriangleCount(), compiledScene.getInstanceCount(), bvh.getNodeCount(),
+                bvh.getDepth(), bvh.isRefitted(), stopwatch.stop());
+        return new SceneSnapshot(scene, compiledScene);
+    }
+
+    /**
+     * Create a snapshot with a different camera which shares everything else with this snapshot, e.g. when the camera
+     * is moved in the realtime view. This is cheap since the objects are not compiled again.
+     *
+     * @param camera position of the camera
+     * @param lookAt point the camera looks at
+     * @return the new snapshot
+     */
+    public SceneSnapshot withCamera(Vector3D camera, Vector3D lookAt) {
+        return new SceneSnapshot(this, new View(width, height, fov, camera, lookAt));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public boolean isPacketTracing() {
+        return packetTracing;
+    }
+
+    public double getFov() {
+        return fov;
+    }
+
+    public Vector3D getCamera() {
+        return view.camera.copy();
+    }
+
+    public Vector3D getLookAt() {
+        return view.lookAt.copy();
+    }
+
+    public int getLightCount() {
+        return lights.size();
+    }
+
+    public Vector3D getLight(int index) {
+        return lights.get(index).copy();
+    }
+
+    public int getLightSamples() {
+        return lightSamples;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    public int getSampleThreshold() {
+        return sampleThreshold;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public double getMinContribution() {
+        return minContribution;
+    }
+
+    public CompiledScene getCompiledScene() {
+        return compiledScene;
+    }
+}
@@ -0,0 +1,136 @@
+package com.mlesniak.raytracer.math;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.RayPacket;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.metrics.RenderMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch objects which are reused for every ray traced by this thread.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class TraceContext {
+    final Ray ray = new Ray();
+    final Ray shadowRay = new Ray();
+    final HitRecord hit = new HitRecord();
+    final TraversalStack stack = new TraversalStack();
+    final RayStack rays = new RayStack();
+
+    // Distance from the origin of the shadow ray to its light source.
+    double lightDistance;
+
+    // Rays traced by this thread since the counters were last added to the render metrics.
+    long primaryRays;
+    long secondaryRays;
+    long shadowRays;
+
+    // Primitive which blocked the last shadow ray towards each light, tested first for the next shadow ray.
+    private int[] occluders = new int[0];
+
+    // Cumulative light weights, only used for light sampling.
+    private double[] lightWeights = new double[0];
+
+    // State of the random number generator for light sampling, see seed().
+    private long random;
+
+    // Only created if packet tracing is enabled.
+    private RayPacket packet;
+
+    /**
+     * Occluder of the last blocked shadow ray towards a light.
+     *
+     * @param light index of the light
+     * @return identifier of the primitive or <code>CompiledScene.NONE</code>
+     */
+    int getOccluder(int light) {
+        if (light >= occluders.length) {
+            return CompiledScene.NONE;
+        }
+        return occluders[light];
+    }
+
+    /**
+     * Remember the occluder of a shadow ray.
+     *
+     * @param light    index of the light
+     * @param occluder identifier of the primitive
+     */
+    void setOccluder(int light, int occluder) {
+        if (light >= occluders.length) {
+            int length = occluders.length;
+            occluders = Arrays.copyOf(occluders, light + 1);
+            Arrays.fill(occluders, length, occluders.length, CompiledScene.NONE);
+        }
+        occluders[light] = occluder;
+    }
+
+    /**
+     * Return an array for the weights of all lights.
+     *
+     * @param lightCount number of lights
+     * @return reusable array with at least <code>lightCount</code> elements
+     */
+    double[] getLightWeights(int lightCount) {
+        if (lightWeights.length < lightCount) {
+            lightWeights = new double[lightCount];
+        }
+        return lightWeights;
+    }
+
+    /**
+     * Reset the random number generator for a pixel. Random numbers only depend on the pixel and not on the thread or
+     * tile which renders it, hence progressive, tiled and distributed renders yield identical images.
+     *
+     * @param x x-coordinate in the image
+     * @param y y-coordinate in the image
+     */
+    void seed(int x, int y) {
+        random = (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the next random number of the current pixel (SplitMix64).
+     *
+     * @return uniformly distributed number in [0, 1)
+     */
+    double nextRandom() {
+        random += 0x9E3779B97F4A7C15L;
+        long z = random;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Return the packet of this thread, creating it on first use.
+     *
+     * @param size number of rays in the packet
+     * @return reusable packet
+     */
+    RayPacket getPacket(int size) {
+        if (packet == null || packet.size != size) {
+            packet = new RayPacket(size);
+        }
+        return packet;
+    }
+
+    /**
+     * Add the rays and intersection tests counted by this thread to the metrics and reset the counters.
+     *
+     * @param metrics target metrics
+     */
+    void addTo(RenderMetrics metrics) {
+        metrics.addRays(primaryRays, secondaryRays, shadowRays);
+        metrics.addIntersections(stack.getNodesVisited(), stack.getSphereTests(), stack.getPlaneTests(),
+                stack.getTriangleTests());
+        primaryRays = 0;
+        secondaryRays = 0;
+        shadowRays = 0;
+        stack.resetCounters();
+    }
+}
@@ -22,6 +22,21 @@ public class Vector3D {
         this.z = z;
     }
 
+    /**
+     * Set all components in place, e.g. to reuse a vector in the inner loop of the raytracer.
+     *
+     * @param x x-component
+     * @param y y-component
+     * @param z z-component
+     * @return this vector
+     */
+    public Vector3D set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
     public Vector3D copy() {
         return new Vector3D(x, y, z);
     }
@@ -0,0 +1,263 @@
+package com.mlesniak.raytracer.mesh;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential reader of a memory-mapped file.
+ * <p>
+ * The file is mapped in windows of at most 1GB, since a single mapping is limited to 2GB; the next window is mapped
+ * when the current one is exhausted. Reading a byte is a bounds check and an access of the mapped buffer, which the
+ * JIT compiles to plain memory loads, hence parsers can read byte by byte without any buffering of their own.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class MappedInput implements Closeable {
+    // Marks the end of the file.
+    static final int EOF = -1;
+
+    // Maximum size of a single mapping.
+    private static final long WINDOW_SIZE = 1 << 30;
+
+    // Powers of ten which are exact doubles.
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    // Digits beyond this are ignored, the mantissa does not overflow a long.
+    private static final int MAX_DIGITS = 18;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    // Position of the current window in the file.
+    private long windowStart;
+
+    /**
+     * Open and map the first window of a file.
+     *
+     * @param path file to read
+     * @throws IOException if the file can not be opened
+     */
+    MappedInput(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+    }
+
+    /**
+     * Read the next byte.
+     *
+     * @return the byte as unsigned value or <code>EOF</code> at the end of the file
+     * @throws IOException if the next window can not be mapped
+     */
+    int read() throws IOException {
+        if (!window.hasRemaining()) {
+            long next = windowStart + window.limit();
+            if (next >= size) {
+                return EOF;
+            }
+            map(next);
+        }
+        return window.get() & 0xFF;
+    }
+
+    /**
+     * Return the next byte without consuming it.
+     *
+     * @return the byte as unsigned value or <code>EOF</code> at the end of the file
+     * @throws IOException if the next window can not be mapped
+     */
+    int peek() throws IOException {
+        int value = read();
+        if (value != EOF) {
+            window.position(window.position() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Read the next byte, which has to exist.
+     *
+     * @return the byte as unsigned value
+     * @throws IOException at the end of the file
+     */
+    int readFully() throws IOException {
+        int value = read();
+        if (value == EOF) {
+            throw new EOFException("Unexpected end of file");
+        }
+        return value;
+    }
+
+    /**
+     * Return the number of bytes which have not been read yet.
+     *
+     * @return remaining bytes of the file
+     */
+    long remaining() {
+        return size - windowStart - window.position();
+    }
+
+    /**
+     * Read the remaining characters of the current line, excluding the line break.
+     *
+     * @return the line or null at the end of the file
+     * @throws IOException if the next window can not be mapped
+     */
+    String readLine() throws IOException {
+        int value = read();
+        if (value == EOF) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (value != EOF && value != '\n') {
+            if (value != '\r') {
+                line.append((char) value);
+            }
+            value = read();
+        }
+        return line.toString();
+    }
+
+    /**
+     * Skip spaces and tabs, but not line breaks.
+     *
+     * @return the next byte, which is not consumed
+     * @throws IOException if the next window can not be mapped
+     */
+    int skipBlanks() throws IOException {
+        int value = peek();
+        while (value == ' ' || value == '\t') {
+            read();
+            value = peek();
+        }
+        return value;
+    }
+
+    /**
+     * Skip all whitespace including line breaks.
+     *
+     * @return the next byte, which is not consumed
+     * @throws IOException if the next window can not be mapped
+     */
+    int skipWhitespace() throws IOException {
+        int value = peek();
+        while (value == ' ' || value == '\t' || value == '\r' || value == '\n') {
+            read();
+            value = peek();
+        }
+        return value;
+    }
+
+    /**
+     * Parse a decimal number with optional sign, fraction and exponent at the current position. Parsing the digits
+     * directly avoids creating a string for every number.
+     *
+     * @return the number
+     * @throws IOException if there is no number at the current position
+     */
+    double readDouble() throws IOException {
+        boolean negative = false;
+        int value = peek();
+        if (value == '-' || value == '+') {
+            negative = value == '-';
+            read();
+            value = peek();
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        boolean empty = true;
+        while (value >= '0' && value <= '9' || value == '.' && !fraction) {
+            read();
+            if (value == '.') {
+                fraction = true;
+            } else {
+                empty = false;
+                if (digits < MAX_DIGITS) {
+                    // Leading zeros are not significant.
+                    mantissa = mantissa * 10 + value - '0';
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else if (!fraction) {
+                    exponent++;
+                }
+            }
+            value = peek();
+        }
+        if (empty) {
+            throw new IOException("Number expected at '" + (char) value + "'");
+        }
+        if (value == 'e' || value == 'E') {
+            read();
+            exponent += (int) readLong();
+        }
+
+        double result = mantissa;
+        if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            result /= POWERS_OF_TEN[-exponent];
+        } else if (exponent != 0) {
+            result *= Math.pow(10, exponent);
+        }
+        if (negative) {
+            return -result;
+        }
+        return result;
+    }
+
+    /**
+     * Parse an integer with optional sign at the current position.
+     *
+     * @return the number
+     * @throws IOException if there is no number at the current position
+     */
+    long readLong() throws IOException {
+        boolean negative = false;
+        int value = peek();
+        if (value == '-' || value == '+') {
+            negative = value == '-';
+            read();
+            value = peek();
+        }
+        if (value < '0' || value > '9') {
+            throw new IOException("Integer expected at '" + (char) value + "'");
+        }
+        long result = 0;
+        while (value >= '0' && value <= '9') {
+            read();
+            result = result * 10 + value - '0';
+            value = peek();
+        }
+        if (negative) {
+            return -result;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.mlesniak.raytracer.mesh;
+
+import com.mlesniak.raytracer.accel.TriangleMesh;
+
+import java.util.Arrays;
+
+/**
+ * Collects vertices and triangles of a parsed mesh in growing primitive arrays.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class MeshBuilder {
+    private float[] positions;
+    private int positionCount;
+    private int[] triangles;
+    private int triangleIndexCount;
+
+    /**
+     * Create a builder.
+     *
+     * @param vertices  expected number of vertices, e.g. from a file header
+     * @param triangles expected number of triangles
+     */
+    MeshBuilder(int vertices, int triangles) {
+        positions = new float[Math.max(3, vertices * 3)];
+        this.triangles = new int[Math.max(3, triangles * 3)];
+    }
+
+    void addVertex(float x, float y, float z) {
+        if (positionCount + 3 > positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[positionCount++] = x;
+        positions[positionCount++] = y;
+        positions[positionCount++] = z;
+    }
+
+    int getVertexCount() {
+        return positionCount / 3;
+    }
+
+    /**
+     * Add a triangle.
+     *
+     * @param a index of the first vertex
+     * @param b index of the second vertex
+     * @param c index of the third vertex
+     */
+    void addTriangle(int a, int b, int c) {
+        if (triangleIndexCount + 3 > triangles.length) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+        }
+        triangles[triangleIndexCount++] = a;
+        triangles[triangleIndexCount++] = b;
+        triangles[triangleIndexCount++] = c;
+    }
+
+    /**
+     * Add a convex polygon as a fan of triangles around its first vertex.
+     *
+     * @param polygon vertex indices
+     * @param count   number of vertices of the polygon, at least 3
+     */
+    void addPolygon(int[] polygon, int count) {
+        for (int i = 2; i < count; i++) {
+            addTriangle(polygon[0], polygon[i - 1], polygon[i]);
+        }
+    }
+
+    /**
+     * Create the mesh and its hierarchy.
+     *
+     * @return the mesh
+     */
+    TriangleMesh build() {
+        return new TriangleMesh(Arrays.copyOf(positions, positionCount), Arrays.copyOf(triangles, triangleIndexCount));
+    }
+}
@@ -0,0 +1,52 @@
+package com.mlesniak.raytracer.mesh;
+
+import com.mlesniak.raytracer.accel.TriangleMesh;
+import com.mlesniak.raytracer.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Loads triangle meshes from OBJ and PLY files.
+ * <p>
+ * Files are memory-mapped and parsed byte by byte into packed primitive arrays, hence neither lines nor vertices are
+ * allocated as objects and loading large models is mostly bound by the speed of the disk.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class MeshLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(MeshLoader.class);
+
+    private MeshLoader() {
+    }
+
+    /**
+     * Load a mesh, choosing the format by the file extension.
+     *
+     * @param path path of an .obj or .ply file
+     * @return the mesh
+     * @throws IOException if the file can not be read or is invalid
+     */
+    public static TriangleMesh load(Path path) throws IOException {
+        Stopwatch stopwatch = Stopwatch.start();
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        TriangleMesh mesh;
+        try (MappedInput input = new MappedInput(path)) {
+            if (name.endsWith(".obj")) {
+                mesh = new ObjParser(input).parse();
+            } else if (name.endsWith(".ply")) {
+                mesh = new PlyParser(input).parse();
+            } else {
+                throw new IOException("Unknown mesh format: " + path);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid mesh " + path + ": " + e.getMessage(), e);
+        }
+        LOG.info("Loaded mesh {} with {} triangles and BVH depth {} in {}ms", path, mesh.getTriangleCount(),
+                mesh.getBvh().getDepth(), stopwatch.stop());
+        return mesh;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mlesniak.raytracer.mesh;
+
+import com.mlesniak.raytracer.accel.TriangleMesh;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Parser for the geometry of Wavefront OBJ files.
+ * <p>
+ * Only vertex positions (<code>v</code>) and faces (<code>f</code>) are read; texture coordinates, normals, groups and
+ * materials are skipped. Face vertices may reference texture coordinates and normals, e.g. <code>1/2/3</code> or
+ * <code>1//3</code>, and may be negative, i.e. relative to the last vertex. Polygons are split into triangle fans.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class ObjParser {
+    private final MappedInput input;
+    private final MeshBuilder builder = new MeshBuilder(1024, 2048);
+    private int[] polygon = new int[16];
+    private int line = 1;
+
+    ObjParser(MappedInput input) {
+        this.input = input;
+    }
+
+    TriangleMesh parse() throws IOException {
+        try {
+            while (true) {
+                int value = input.skipBlanks();
+                if (value == MappedInput.EOF) {
+                    break;
+                }
+                if (value == '\n') {
+                    // Empty line.
+                    input.read();
+                    line++;
+                    continue;
+                }
+                input.read();
+                int next = input.peek();
+                boolean keyword = next == ' ' || next == '\t';
+                if (value == 'v' && keyword) {
+                    readVertex();
+                } else if (value == 'f' && keyword) {
+                    readFace();
+                }
+                skipLine();
+            }
+        } catch (IOException e) {
+            throw new IOException("Invalid OBJ file in line " + line + ": " + e.getMessage(), e);
+        }
+        return builder.build();
+    }
+
+    private void readVertex() throws IOException {
+        input.skipBlanks();
+        float x = (float) input.readDouble();
+        input.skipBlanks();
+        float y = (float) input.readDouble();
+        input.skipBlanks();
+        float z = (float) input.readDouble();
+        builder.addVertex(x, y, z);
+    }
+
+    private void readFace() throws IOException {
+        int count = 0;
+        int value = input.skipBlanks();
+        while (value != '\n' && value != '\r' && value != MappedInput.EOF) {
+            long index = input.readLong();
+            if (index < 0) {
+                index += builder.getVertexCount();
+            } else {
+                index--;
+            }
+            if (count == polygon.length) {
+                polygon = Arrays.copyOf(polygon, count * 2);
+            }
+            polygon[count++] = (int) index;
+
+            // Skip texture coordinate and normal indices.
+            value = input.peek();
+            while (value != ' ' && value != '\t' && value != '\n' && value != '\r' && value != MappedInput.EOF) {
+                input.read();
+                value = input.peek();
+            }
+            value = input.skipBlanks();
+        }
+        if (count < 3) {
+            throw new IOException("Face with " + count + " vertices");
+        }
+        builder.addPolygon(polygon, count);
+    }
+
+    // Skip the rest of the current line including its line break.
+    private void skipLine() throws IOException {
+        int value = input.read();
+        while (value != '\n' && value != MappedInput.EOF) {
+            value = input.read();
+        }
+        line++;
+    }
+}
@@ -0,0 +1,354 @@
+package com.mlesniak.raytracer.mesh;
+
+import com.mlesniak.raytracer.accel.TriangleMesh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser for the geometry of PLY (polygon file format) files in ASCII and binary encoding.
+ * <p>
+ * The coordinates <code>x</code>, <code>y</code> and <code>z</code> of the <code>vertex</code> element and the
+ * <code>vertex_indices</code> (or <code>vertex_index</code>) list of the <code>face</code> element are read; all other
+ * properties and elements are skipped. Polygons are split into triangle fans.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class PlyParser {
+    private static final int ASCII = 0;
+    private static final int LITTLE_ENDIAN = 1;
+    private static final int BIG_ENDIAN = 2;
+
+    // Property types.
+    private static final int INT8 = 0;
+    private static final int UINT8 = 1;
+    private static final int INT16 = 2;
+    private static final int UINT16 = 3;
+    private static final int INT32 = 4;
+    private static final int UINT32 = 5;
+    private static final int FLOAT32 = 6;
+    private static final int FLOAT64 = 7;
+    private static final int SCALAR = -1;
+
+    private final MappedInput input;
+    private int format = -1;
+    private final List<Element> elements = new ArrayList<>();
+    private int[] polygon = new int[16];
+
+    /**
+     * Element of the header with its properties.
+     */
+    private static final class Element {
+        final String name;
+        final long count;
+        final List<Property> properties = new ArrayList<>();
+
+        Element(String name, long count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Scalar or list property of an element.
+     */
+    private static final class Property {
+        final String name;
+        final int type;
+        // Type of the length of a list, SCALAR for scalar properties.
+        final int countType;
+
+        Property(String name, int type, int countType) {
+            this.name = name;
+            this.type = type;
+            this.countType = countType;
+        }
+    }
+
+    PlyParser(MappedInput input) {
+        this.input = input;
+    }
+
+    TriangleMesh parse() throws IOException {
+        readHeader();
+        checkCounts();
+        long vertices = 0;
+        long faces = 0;
+        for (Element element : elements) {
+            if ("vertex".equals(element.name)) {
+                vertices = element.count;
+            } else if ("face".equals(element.name)) {
+                faces = element.count;
+            }
+        }
+        if (vertices > Integer.MAX_VALUE / 3 || faces > Integer.MAX_VALUE / 3) {
+            throw new IOException("Too many elements in PLY file");
+        }
+
+        // Counts fit into the file, hence the initial capacity is bounded by its size. Polygons with more than three
+        // vertices let the triangle array grow.
+        MeshBuilder builder = new MeshBuilder((int) vertices, (int) faces);
+        for (Element element : elements) {
+            if ("vertex".equals(element.name)) {
+                readVertices(element, builder);
+            } else if ("face".equals(element.name)) {
+                readFaces(element, builder);
+            } else {
+                for (long i = 0; i < element.count; i++) {
+                    for (Property property : element.properties) {
+                        readProperty(property);
+                    }
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    // Reject element counts which the rest of the file can not contain, before anything is allocated for them.
+    private void checkCounts() throws IOException {
+        long remaining = input.remaining();
+        for (Element element : elements) {
+            long size = getMinimumSize(element);
+            if (element.count < 0 || size > 0 && element.count > remaining / size) {
+                throw new IOException("PLY file too short for " + element.count + " elements " + element.name);
+            }
+            remaining -= element.count * size;
+        }
+    }
+
+    // Smallest number of bytes of a single element, e.g. lists without entries or ASCII values of a single digit.
+    private long getMinimumSize(Element element) {
+        long size = 0;
+        for (Property property : element.properties) {
+            if (format == ASCII) {
+                size++;
+            } else if (property.countType == SCALAR) {
+                size += getSize(property.type);
+            } else {
+                size += getSize(property.countType);
+            }
+        }
+        return size;
+    }
+
+    private static int getSize(int type) {
+        switch (type) {
+            case INT8:
+            case UINT8:
+                return 1;
+            case INT16:
+            case UINT16:
+                return 2;
+            case INT32:
+            case UINT32:
+            case FLOAT32:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        if (!"ply".equals(input.readLine())) {
+            throw new IOException("Missing PLY signature");
+        }
+        Element element = null;
+        while (true) {
+            String line = input.readLine();
+            if (line == null) {
+                throw new IOException("Missing end of PLY header");
+            }
+            String[] tokens = line.trim().split("\\s+");
+            switch (tokens[0]) {
+                case "format":
+                    checkTokens(tokens, 2, line);
+                    format = parseFormat(tokens);
+                    break;
+                case "element":
+                    checkTokens(tokens, 3, line);
+                    element = new Element(tokens[1], Long.parseLong(tokens[2]));
+                    elements.add(element);
+                    break;
+                case "property":
+                    if (element == null) {
+                        throw new IOException("Property without element: " + line);
+                    }
+                    checkTokens(tokens, 3, line);
+                    if ("list".equals(tokens[1])) {
+                        checkTokens(tokens, 5, line);
+                        element.properties.add(new Property(tokens[4], parseType(tokens[3]), parseType(tokens[2])));
+                    } else {
+                        element.properties.add(new Property(tokens[2], parseType(tokens[1]), SCALAR));
+                    }
+                    break;
+                case "end_header":
+                    if (format < 0) {
+                        throw new IOException("Missing PLY format");
+                    }
+                    return;
+                default:
+                    // Comments and unknown header lines.
+                    break;
+            }
+        }
+    }
+
+    private static int parseFormat(String[] tokens) throws IOException {
+        switch (tokens[1]) {
+            case "ascii":
+                return ASCII;
+            case "binary_little_endian":
+                return LITTLE_ENDIAN;
+            case "binary_big_endian":
+                return BIG_ENDIAN;
+            default:
+                throw new IOException("Unsupported PLY format " + tokens[1]);
+        }
+    }
+
+    private static int parseType(String type) throws IOException {
+        switch (type) {
+            case "char":
+            case "int8":
+                return INT8;
+            case "uchar":
+            case "uint8":
+                return UINT8;
+            case "short":
+            case "int16":
+                return INT16;
+            case "ushort":
+            case "uint16":
+                return UINT16;
+            case "int":
+            case "int32":
+                return INT32;
+            case "uint":
+            case "uint32":
+                return UINT32;
+            case "float":
+            case "float32":
+                return FLOAT32;
+            case "double":
+            case "float64":
+                return FLOAT64;
+            default:
+                throw new IOException("Unsupported PLY type " + type);
+        }
+    }
+
+    private static void checkTokens(String[] tokens, int count, String line) throws IOException {
+        if (tokens.length < count) {
+            throw new IOException("Invalid PLY header line: " + line);
+        }
+    }
+
+    private void readVertices(Element element, MeshBuilder builder) throws IOException {
+        double[] values = new double[element.properties.size()];
+        int x = indexOf(element, "x");
+        int y = indexOf(element, "y");
+        int z = indexOf(element, "z");
+        for (long i = 0; i < element.count; i++) {
+            for (int p = 0; p < values.length; p++) {
+                values[p] = readProperty(element.properties.get(p));
+            }
+            builder.addVertex((float) values[x], (float) values[y], (float) values[z]);
+        }
+    }
+
+    private void readFaces(Element element, MeshBuilder builder) throws IOException {
+        int indices = indexOf(element, "vertex_indices");
+        if (indices < 0) {
+            indices = indexOf(element, "vertex_index");
+        }
+        if (indices < 0 || element.properties.get(indices).countType == SCALAR) {
+            throw new IOException("Missing vertex index list of faces");
+        }
+        for (long i = 0; i < element.count; i++) {
+            for (int p = 0; p < element.properties.size(); p++) {
+                Property property = element.properties.get(p);
+                if (p != indices) {
+                    readProperty(property);
+                    continue;
+                }
+                int count = (int) readValue(property.countType);
+                if (count < 3) {
+                    throw new IOException("Face with " + count + " vertices");
+                }
+                if (count > polygon.length) {
+                    polygon = Arrays.copyOf(polygon, count);
+                }
+                for (int v = 0; v < count; v++) {
+                    polygon[v] = (int) readValue(property.type);
+                }
+                builder.addPolygon(polygon, count);
+            }
+        }
+    }
+
+    private static int indexOf(Element element, String name) throws IOException {
+        for (int i = 0; i < element.properties.size(); i++) {
+            if (name.equals(element.properties.get(i).name)) {
+                return i;
+            }
+        }
+        if (name.startsWith("vertex_")) {
+            return -1;
+        }
+        throw new IOException("Missing property " + name + " of element " + element.name);
+    }
+
+    // Read a property, returning the value of scalar properties and the last value of lists.
+    private double readProperty(Property property) throws IOException {
+        if (property.countType == SCALAR) {
+            return readValue(property.type);
+        }
+        long count = (long) readValue(property.countType);
+        double value = 0;
+        for (long i = 0; i < count; i++) {
+            value = readValue(property.type);
+        }
+        return value;
+    }
+
+    private double readValue(int type) throws IOException {
+        if (format == ASCII) {
+            input.skipWhitespace();
+            return input.readDouble();
+        }
+        switch (type) {
+            case INT8:
+                return (byte) readBits(1);
+            case UINT8:
+                return readBits(1);
+            case INT16:
+                return (short) readBits(2);
+            case UINT16:
+                return readBits(2);
+            case INT32:
+                return (int) readBits(4);
+            case UINT32:
+                return readBits(4);
+            case FLOAT32:
+                return Float.intBitsToFloat((int) readBits(4));
+            default:
+                return Double.longBitsToDouble(readBits(8));
+        }
+    }
+
+    // Read an unsigned binary value in the byte order of the file.
+    private long readBits(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            long b = input.readFully();
+            if (format == LITTLE_ENDIAN) {
+                value |= b << (8 * i);
+            } else {
+                value = value << 8 | b;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,310 @@
+package com.mlesniak.raytracer.metrics;
+
+import com.mlesniak.raytracer.util.Stopwatch;
+import net.logstash.logback.marker.Markers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the work done by all renders of this process.
+ * <p>
+ * Metrics are only collected if the system property <code>raytracer.metrics</code> is set to true. In this case the
+ * shared instance is registered as MBean <code>com.mlesniak.raytracer:type=RenderMetrics</code> and every render logs
+ * its metrics with a logstash marker, i.e. as separate fields of the JSON log file. Render threads count their rays
+ * and intersection tests in their own scratch objects and add them once per tile, hence the striped counters are
+ * updated rarely and disabled metrics cost nothing but a few thread-local increments.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class RenderMetrics implements RenderMetricsMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(RenderMetrics.class);
+
+    /**
+     * True if metrics are collected.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("raytracer.metrics");
+
+    // Number of buckets of the tile time histogram, the last one starts at about 4s.
+    private static final int BUCKETS = 24;
+
+    // Counters which are logged per render.
+    private static final String[] COUNTER_NAMES = {"primaryRays", "secondaryRays", "shadowRays", "sphereTests",
+            "planeTests", "triangleTests", "nodesVisited", "tiles"};
+
+    private static final RenderMetrics SHARED = new RenderMetrics();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(SHARED,
+                        new ObjectName("com.mlesniak.raytracer:type=RenderMetrics"));
+            } catch (JMException e) {
+                LOG.warn("Unable to register render metrics: {}", e.toString());
+            }
+        }
+    }
+
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder primaryRays = new LongAdder();
+    private final LongAdder secondaryRays = new LongAdder();
+    private final LongAdder shadowRays = new LongAdder();
+    private final LongAdder sphereTests = new LongAdder();
+    private final LongAdder planeTests = new LongAdder();
+    private final LongAdder triangleTests = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder tiles = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder[] tileTimes = new LongAdder[BUCKETS];
+    private final LongAdder gcPauseMillis = new LongAdder();
+    private final LongAdder gcCount = new LongAdder();
+    private volatile double threadUtilization;
+
+    /**
+     * Create metrics which are neither shared nor registered via JMX. Usually, the shared instance should be used.
+     */
+    public RenderMetrics() {
+        for (int i = 0; i < BUCKETS; i++) {
+            tileTimes[i] = new LongAdder();
+        }
+    }
+
+    public static RenderMetrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Measurement of a single render. The counters are process-wide sums, hence their values at the start of the
+     * render are kept to log only the work of this render.
+     */
+    public static final class Measurement {
+        private final Stopwatch stopwatch = Stopwatch.start();
+        private final long busyNanos;
+        private final long gcMillis;
+        private final long gcCount;
+        private final long[] counters;
+
+        private Measurement(long busyNanos, long gcMillis, long gcCount, long[] counters) {
+            this.busyNanos = busyNanos;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+            this.counters = counters;
+        }
+
+        /**
+         * Start a measurement of the duration only, e.g. if metrics are disabled. Such a measurement can not be
+         * passed to <code>finishRender()</code>.
+         *
+         * @return the started measurement
+         */
+        public static Measurement durationOnly() {
+            return new Measurement(0, 0, 0, null);
+        }
+
+        public Stopwatch getStopwatch() {
+            return stopwatch;
+        }
+    }
+
+    /**
+     * Start the measurement of a render.
+     *
+     * @return the started measurement
+     */
+    public Measurement startRender() {
+        long[] gc = collectGc();
+        return new Measurement(busyNanos.sum(), gc[0], gc[1], collectCounters());
+    }
+
+    // Values of the counters which are logged per render, in the order of COUNTER_NAMES.
+    private long[] collectCounters() {
+        return new long[]{getPrimaryRays(), getSecondaryRays(), getShadowRays(), getSphereTests(), getPlaneTests(),
+                getTriangleTests(), getNodesVisited(), getTiles()};
+    }
+
+    /**
+     * Finish the measurement of a render and log the metrics. Callers check <code>ENABLED</code> first.
+     *
+     * @param measurement measurement started by <code>startRender()</code> when the render began
+     * @param parallelism number of render threads
+     * @param pixels      number of pixels of the image
+     */
+    public void finishRender(Measurement measurement, int parallelism, long pixels) {
+        long nanos = Math.max(1, measurement.stopwatch.getNanos());
+        long[] gc = collectGc();
+        long gcMillis = gc[0] - measurement.gcMillis;
+        long gcCollections = gc[1] - measurement.gcCount;
+        double utilization = (busyNanos.sum() - measurement.busyNanos) / ((double) nanos * parallelism);
+        renders.increment();
+        renderNanos.add(nanos);
+        gcPauseMillis.add(gcMillis);
+        gcCount.add(gcCollections);
+        threadUtilization = Math.min(1, utilization);
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("pixels", pixels);
+        values.put("renderMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+        values.put("gcPauseMillis", gcMillis);
+        values.put("gcCount", gcCollections);
+        values.put("threadUtilization", threadUtilization);
+        long[] counters = collectCounters();
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            values.put(COUNTER_NAMES[i], counters[i] - measurement.counters[i]);
+        }
+        LOG.info(Markers.appendEntries(values), "render metrics {}", values);
+    }
+
+    /**
+     * Add the rays traced by a render thread.
+     *
+     * @param primary   number of primary rays
+     * @param secondary number of reflected and refracted rays
+     * @param shadow    number of shadow rays
+     */
+    public void addRays(long primary, long secondary, long shadow) {
+        primaryRays.add(primary);
+        secondaryRays.add(secondary);
+        shadowRays.add(shadow);
+    }
+
+    /**
+     * Add the intersection work of a render thread.
+     *
+     * @param nodes     number of visited hierarchy nodes
+     * @param spheres   number of ray-sphere tests
+     * @param planes    number of ray-plane tests
+     * @param triangles number of ray-triangle tests
+     */
+    public void addIntersections(long nodes, long spheres, long planes, long triangles) {
+        nodesVisited.add(nodes);
+        sphereTests.add(spheres);
+        planeTests.add(planes);
+        triangleTests.add(triangles);
+    }
+
+    /**
+     * Add a rendered tile.
+     *
+     * @param nanos render time of the tile
+     */
+    public void addTile(long nanos) {
+        tiles.increment();
+        busyNanos.add(nanos);
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        tileTimes[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+    }
+
+    // Accumulated collection time and count of all garbage collectors.
+    private static long[] collectGc() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += Math.max(0, bean.getCollectionTime());
+            gc[1] += Math.max(0, bean.getCollectionCount());
+        }
+        return gc;
+    }
+
+    @Override
+    public long getRenders() {
+        return renders.sum();
+    }
+
+    @Override
+    public long getRenderMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(renderNanos.sum());
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        return primaryRays.sum();
+    }
+
+    @Override
+    public long getSecondaryRays() {
+        return secondaryRays.sum();
+    }
+
+    @Override
+    public long getShadowRays() {
+        return shadowRays.sum();
+    }
+
+    @Override
+    public long getSphereTests() {
+        return sphereTests.sum();
+    }
+
+    @Override
+    public long getPlaneTests() {
+        return planeTests.sum();
+    }
+
+    @Override
+    public long getTriangleTests() {
+        return triangleTests.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    @Override
+    public long getTiles() {
+        return tiles.sum();
+    }
+
+    @Override
+    public long[] getTileTimeHistogram() {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = tileTimes[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getGcPauseMillis() {
+        return gcPauseMillis.sum();
+    }
+
+    @Override
+    public long getGcCount() {
+        return gcCount.sum();
+    }
+
+    @Override
+    public double getThreadUtilization() {
+        return threadUtilization;
+    }
+
+    @Override
+    public void reset() {
+        renders.reset();
+        renderNanos.reset();
+        primaryRays.reset();
+        secondaryRays.reset();
+        shadowRays.reset();
+        sphereTests.reset();
+        planeTests.reset();
+        triangleTests.reset();
+        nodesVisited.reset();
+        tiles.reset();
+        busyNanos.reset();
+        for (LongAdder bucket : tileTimes) {
+            bucket.reset();
+        }
+        gcPauseMillis.reset();
+        gcCount.reset();
+        threadUtilization = 0;
+    }
+}
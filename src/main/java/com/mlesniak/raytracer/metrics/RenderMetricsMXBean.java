@@ -0,0 +1,53 @@
+package com.mlesniak.raytracer.metrics;
+
+/**
+ * Render metrics exposed via JMX. All values are accumulated over all renders since the start or the last reset.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public interface RenderMetricsMXBean {
+    long getRenders();
+
+    long getRenderMillis();
+
+    long getPrimaryRays();
+
+    long getSecondaryRays();
+
+    long getShadowRays();
+
+    long getSphereTests();
+
+    long getPlaneTests();
+
+    long getTriangleTests();
+
+    long getNodesVisited();
+
+    long getTiles();
+
+    /**
+     * Histogram of the render time of single tiles. Bucket <code>i</code> counts tiles which took less than
+     * <code>2^i</code> microseconds, but not less than <code>2^(i-1)</code>; the last bucket counts all slower tiles.
+     *
+     * @return number of tiles per bucket
+     */
+    long[] getTileTimeHistogram();
+
+    long getGcPauseMillis();
+
+    long getGcCount();
+
+    /**
+     * Fraction of the available render threads which were busy rendering tiles during the last render. Concurrent
+     * renders are counted together.
+     *
+     * @return utilization between 0 and 1
+     */
+    double getThreadUtilization();
+
+    /**
+     * Reset all metrics.
+     */
+    void reset();
+}
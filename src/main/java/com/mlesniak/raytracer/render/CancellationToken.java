@@ -0,0 +1,20 @@
+package com.mlesniak.raytracer.render;
+
+/**
+ * Flag to abort a running render, e.g. if the camera has been moved and the image is no longer needed.
+ * <p>
+ * Renderers check the flag between tiles, hence a cancelled render stops after the tiles currently in progress.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
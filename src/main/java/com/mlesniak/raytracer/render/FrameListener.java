@@ -0,0 +1,19 @@
+package com.mlesniak.raytracer.render;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Receives the intermediate and final images of a progressive render.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@FunctionalInterface
+public interface FrameListener {
+    /**
+     * Called after each refinement pass on the thread which started the render.
+     *
+     * @param frame  image of the finished pass; intermediate frames are not modified afterwards
+     * @param stride distance between traced pixels of the pass, the image is final if the stride is 1
+     */
+    void frameRendered(BufferedImage frame, int stride);
+}
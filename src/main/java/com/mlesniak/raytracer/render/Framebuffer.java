@@ -0,0 +1,35 @@
+package com.mlesniak.raytracer.render;
+
+/**
+ * Target of a render which receives the image tile by tile, e.g. to write very large images without keeping them in
+ * memory.
+ * <p>
+ * Tiles of a render are set concurrently by multiple threads, but never overlap.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public interface Framebuffer {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Store the pixels of a tile.
+     *
+     * @param x0     left border of the tile (inclusive)
+     * @param y0     bottom border of the tile (inclusive)
+     * @param x1     right border of the tile (exclusive)
+     * @param y1     top border of the tile (exclusive)
+     * @param pixels RGB pixels of the tile in the row order of the image, i.e. starting with the top row
+     *               <code>y1 - 1</code>
+     */
+    void setPixels(int x0, int y0, int x1, int y1, int[] pixels);
+
+    /**
+     * Read a row of the image.
+     *
+     * @param row    index of the row, starting with the top row of the image
+     * @param pixels target for the RGB pixels of the row, with at least <code>getWidth()</code> elements
+     */
+    void getRow(int row, int[] pixels);
+}
@@ -0,0 +1,41 @@
+package com.mlesniak.raytracer.render;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Framebuffer on the heap backed by a Java BufferedImage.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class ImageFramebuffer implements Framebuffer {
+    private final BufferedImage image;
+
+    public ImageFramebuffer(BufferedImage image) {
+        this.image = image;
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public void setPixels(int x0, int y0, int x1, int y1, int[] pixels) {
+        int height = image.getHeight();
+        image.setRGB(x0, height - y1, x1 - x0, y1 - y0, pixels, 0, x1 - x0);
+    }
+
+    @Override
+    public void getRow(int row, int[] pixels) {
+        image.getRGB(0, row, image.getWidth(), 1, pixels, 0, image.getWidth());
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+}
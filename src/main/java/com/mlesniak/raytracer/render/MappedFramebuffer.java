@@ -0,0 +1,114 @@
+package com.mlesniak.raytracer.render;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Framebuffer backed by a memory-mapped binary PPM file.
+ * <p>
+ * Rendered tiles are written directly into the mapped file, hence the heap only holds the tiles currently rendered and
+ * images which are much larger than the available heap can be rendered. The operating system writes modified pages
+ * to disk in the background; after closing the framebuffer the file is a valid PPM image. Since a single mapping is
+ * limited to 2GB, the image is mapped in bands of rows.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class MappedFramebuffer implements Framebuffer, Closeable {
+    // Maximum size of a single mapping.
+    private static final int MAX_BAND_SIZE = 1 << 30;
+
+    private final int width;
+    private final int height;
+    private final FileChannel channel;
+    private final int rowsPerBand;
+    private final MappedByteBuffer[] bands;
+
+    /**
+     * Create the image file and map it into memory. An existing file is replaced.
+     *
+     * @param path   path of the PPM file
+     * @param width  width of the image
+     * @param height height of the image
+     * @throws IOException if the file can not be created or mapped
+     */
+    public MappedFramebuffer(Path path, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        long rowSize = 3L * width;
+        if (rowSize > MAX_BAND_SIZE) {
+            throw new IllegalArgumentException("Image too wide: " + width);
+        }
+        rowsPerBand = (int) (MAX_BAND_SIZE / rowSize);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        channel.write(ByteBuffer.wrap(header), 0);
+
+        bands = new MappedByteBuffer[(height + rowsPerBand - 1) / rowsPerBand];
+        for (int i = 0; i < bands.length; i++) {
+            int rows = Math.min(rowsPerBand, height - i * rowsPerBand);
+            long position = header.length + i * rowsPerBand * rowSize;
+            bands[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, rows * rowSize);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void setPixels(int x0, int y0, int x1, int y1, int[] pixels) {
+        int tileWidth = x1 - x0;
+        for (int y = y0; y < y1; y++) {
+            // Absolute puts do not modify the state of the buffer, hence tiles can be written concurrently.
+            int row = height - y - 1;
+            ByteBuffer band = bands[row / rowsPerBand];
+            int index = (row % rowsPerBand) * 3 * width + 3 * x0;
+            int offset = (y1 - y - 1) * tileWidth;
+            for (int x = 0; x < tileWidth; x++) {
+                int rgb = pixels[offset + x];
+                band.put(index++, (byte) (rgb >> 16));
+                band.put(index++, (byte) (rgb >> 8));
+                band.put(index++, (byte) rgb);
+            }
+        }
+    }
+
+    @Override
+    public void getRow(int row, int[] pixels) {
+        ByteBuffer band = bands[row / rowsPerBand];
+        int index = (row % rowsPerBand) * 3 * width;
+        for (int x = 0; x < width; x++) {
+            int r = band.get(index++) & 0xFF;
+            int g = band.get(index++) & 0xFF;
+            int b = band.get(index++) & 0xFF;
+            pixels[x] = 0xFF << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
+    /**
+     * Write all modified pages to disk and close the file.
+     *
+     * @throws IOException if the file can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer band : bands) {
+            band.force();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,83 @@
+package com.mlesniak.raytracer.render;
+
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.BiFunction;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Handle of a render running in the background.
+ * <p>
+ * The result is available as a future which is completed with a <code>CancellationException</code> if the job has
+ * been cancelled. While running, the job reports the fraction of finished work.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class RenderJob {
+    private final CancellationToken token = new CancellationToken();
+    private final DoubleAdder progress = new DoubleAdder();
+    private final CompletableFuture<BufferedImage> future;
+
+    private RenderJob(Executor executor,
+            BiFunction<CancellationToken, DoubleConsumer, Optional<BufferedImage>> render) {
+        future = CompletableFuture.supplyAsync(() -> {
+            if (token.isCancelled()) {
+                // Superseded before it has been started.
+                throw new CancellationException();
+            }
+            Optional<BufferedImage> image = render.apply(token, progress::add);
+            if (!image.isPresent()) {
+                throw new CancellationException();
+            }
+            return image.get();
+        }, executor);
+    }
+
+    /**
+     * Start a new job.
+     *
+     * @param executor executor which runs the render
+     * @param render   render function which gets the cancellation token of the job and a consumer for progress
+     *                 increments; the sum of all increments is 1 for a complete image. Returns an empty optional if
+     *                 it has been cancelled.
+     * @return the started job
+     */
+    public static RenderJob start(Executor executor,
+            BiFunction<CancellationToken, DoubleConsumer, Optional<BufferedImage>> render) {
+        return new RenderJob(executor, render);
+    }
+
+    /**
+     * Cancel this job. A running render stops after the tiles currently in progress, a job which has not been started
+     * yet is skipped.
+     */
+    public void cancel() {
+        // Cancel the future first, otherwise a job which notices the token could complete it with its own exception.
+        future.cancel(false);
+        token.cancel();
+    }
+
+    public boolean isCancelled() {
+        return token.isCancelled();
+    }
+
+    /**
+     * Fraction of finished work.
+     *
+     * @return value between 0 and 1
+     */
+    public double getProgress() {
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            return 1;
+        }
+        return Math.min(1, progress.sum());
+    }
+
+    public CompletableFuture<BufferedImage> getFuture() {
+        return future;
+    }
+}
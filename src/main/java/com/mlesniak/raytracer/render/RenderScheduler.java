@@ -0,0 +1,218 @@
+package com.mlesniak.raytracer.render;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Long-lived scheduler which renders images in square tiles on a shared work-stealing pool.
+ * <p>
+ * Tiles are ordered along a Morton (Z-order) curve and the resulting list is recursively split in halves, hence each
+ * worker processes spatially coherent regions of the image. Tiles are subdivided further into quadrants when other
+ * workers run out of work, which balances the load if a few tiles are much more expensive than the rest.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class RenderScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(RenderScheduler.class);
+
+    /**
+     * Default edge length of a tile in pixels.
+     */
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    // Tiles are never subdivided below this edge length.
+    private static final int MIN_TILE_SIZE = 4;
+    // Subdivide a tile if the current worker holds less queued tasks than this.
+    private static final int SURPLUS_THRESHOLD = 2;
+
+    private static final RenderScheduler SHARED = new RenderScheduler(Runtime.getRuntime().availableProcessors());
+
+    private final ForkJoinPool pool;
+
+    // Runs background jobs one after another, each of them uses the whole pool. Hence a job which has been
+    // superseded while waiting is skipped without wasting any tile.
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "render-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create a scheduler with its own pool. Usually, the shared instance should be used.
+     *
+     * @param parallelism number of worker threads
+     */
+    public RenderScheduler(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+        LOG.info("Initialized render scheduler with {} threads", parallelism);
+    }
+
+    /**
+     * Scheduler shared by all renderers, such that thread startup costs are only paid once.
+     *
+     * @return the shared scheduler.
+     */
+    public static RenderScheduler getShared() {
+        return SHARED;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Executor for background render jobs, see {@link RenderJob}.
+     *
+     * @return executor which runs one job at a time.
+     */
+    public ExecutorService getJobExecutor() {
+        return jobExecutor;
+    }
+
+    /**
+     * Render a full image and wait until all tiles are finished.
+     *
+     * @param width    image width
+     * @param height   image height
+     * @param tileSize edge length of a tile; values smaller than 1 select the default size
+     * @param renderer renderer which is called for every (sub-)tile
+     */
+    public void render(int width, int height, int tileSize, TileRenderer renderer) {
+        int size = tileSize;
+        if (size < 1) {
+            size = DEFAULT_TILE_SIZE;
+        }
+        long[] tiles = createTiles(width, height, size);
+        pool.invoke(new TileRangeTask(tiles, 0, tiles.length, width, height, size, renderer));
+    }
+
+    /**
+     * Compute all tiles sorted by their Morton code.
+     *
+     * @param width    image width
+     * @param height   image height
+     * @param tileSize edge length of a tile
+     * @return tiles encoded as Morton code in the upper and tile index in the lower 32 bits.
+     */
+    static long[] createTiles(int width, int height, int tileSize) {
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        long[] tiles = new long[columns * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                tiles[index] = (long) morton(column, row) << 32 | index;
+            }
+        }
+        Arrays.sort(tiles);
+        return tiles;
+    }
+
+    /**
+     * Interleave the lower 16 bits of both coordinates.
+     *
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @return Morton code of the coordinates
+     */
+    static int morton(int x, int y) {
+        return spreadBits(x) | spreadBits(y) << 1;
+    }
+
+    private static int spreadBits(int value) {
+        int v = value & 0xFFFF;
+        v = (v | v << 8) & 0x00FF00FF;
+        v = (v | v << 4) & 0x0F0F0F0F;
+        v = (v | v << 2) & 0x33333333;
+        v = (v | v << 1) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Recursively splits a range of Morton ordered tiles.
+     */
+    private static final class TileRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] tiles;
+        private final int from;
+        private final int to;
+        private final int width;
+        private final int height;
+        private final int tileSize;
+        private final TileRenderer renderer;
+
+        TileRangeTask(long[] tiles, int from, int to, int width, int height, int tileSize, TileRenderer renderer) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.renderer = renderer;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileRangeTask(tiles, from, middle, width, height, tileSize, renderer),
+                        new TileRangeTask(tiles, middle, to, width, height, tileSize, renderer));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+
+            int columns = (width + tileSize - 1) / tileSize;
+            int index = (int) tiles[from];
+            int x0 = (index % columns) * tileSize;
+            int y0 = (index / columns) * tileSize;
+            new TileTask(x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height), renderer).compute();
+        }
+    }
+
+    /**
+     * Renders a single tile, subdividing it into quadrants if other workers are idle.
+     */
+    private static final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int x0;
+        private final int y0;
+        private final int x1;
+        private final int y1;
+        private final TileRenderer renderer;
+
+        TileTask(int x0, int y0, int x1, int y1, TileRenderer renderer) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.renderer = renderer;
+        }
+
+        @Override
+        protected void compute() {
+            boolean splittable = x1 - x0 >= 2 * MIN_TILE_SIZE && y1 - y0 >= 2 * MIN_TILE_SIZE &&
+                    getPool().getParallelism() > 1;
+            if (splittable && getSurplusQueuedTaskCount() < SURPLUS_THRESHOLD) {
+                // Quadrants in Z-order to keep the Morton locality.
+                int mx = (x0 + x1) >>> 1;
+                int my = (y0 + y1) >>> 1;
+                invokeAll(new TileTask(x0, y0, mx, my, renderer),
+                        new TileTask(mx, y0, x1, my, renderer),
+                        new TileTask(x0, my, mx, y1, renderer),
+                        new TileTask(mx, my, x1, y1, renderer));
+                return;
+            }
+            renderer.render(x0, y0, x1, y1);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.mlesniak.raytracer.render;
+
+/**
+ * Renders a rectangular region of an image.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@FunctionalInterface
+public interface TileRenderer {
+    /**
+     * Render all pixels in the given region.
+     *
+     * @param x0 first column (inclusive)
+     * @param y0 first row (inclusive)
+     * @param x1 last column (exclusive)
+     * @param y1 last row (exclusive)
+     */
+    void render(int x0, int y0, int x1, int y1);
+}
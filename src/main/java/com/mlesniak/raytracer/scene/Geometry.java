@@ -0,0 +1,36 @@
+package com.mlesniak.raytracer.scene;
+
+import java.util.List;
+
+/**
+ * Named group of scene objects which is not rendered by itself, but placed into the scene by instances.
+ * <p>
+ * All instances of a geometry share its objects and acceleration structure, hence repeating a complex object costs
+ * only its transformation.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class Geometry {
+    private String name;
+    private List<SceneObject> objects;
+
+    public Geometry() {
+        // For YAML parsing.
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<SceneObject> getObjects() {
+        return objects;
+    }
+
+    public void setObjects(List<SceneObject> objects) {
+        this.objects = objects;
+    }
+}
@@ -0,0 +1,118 @@
+package com.mlesniak.raytracer.scene;
+
+import com.mlesniak.raytracer.math.Vector3D;
+
+import java.util.List;
+
+/**
+ * Placement of a {@link Geometry} in the scene.
+ * <p>
+ * The objects of the geometry are scaled, rotated around the x-, y- and z-axis (in this order) and translated.
+ * Alternatively, an arbitrary affine transformation can be given as a matrix of three rows with four values each,
+ * whose last column is the translation.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class Instance {
+    private String geometry;
+    private Vector3D translation;
+    // Angles in degrees.
+    private Vector3D rotation;
+    private double scale = 1;
+    // Row-major 3x4 matrix, overrides translation, rotation and scale.
+    private List<Double> matrix;
+
+    public Instance() {
+        // For YAML parsing.
+    }
+
+    /**
+     * Compute the transformation from the space of the geometry into the scene.
+     *
+     * @return row-major 3x4 matrix
+     */
+    public double[] computeMatrix() {
+        double[] m = new double[12];
+        if (matrix != null) {
+            if (matrix.size() != m.length) {
+                throw new IllegalArgumentException("Instance matrix needs 12 values, not " + matrix.size());
+            }
+            for (int i = 0; i < m.length; i++) {
+                m[i] = matrix.get(i);
+            }
+            return m;
+        }
+
+        double ax = 0;
+        double ay = 0;
+        double az = 0;
+        if (rotation != null) {
+            ax = Math.toRadians(rotation.x);
+            ay = Math.toRadians(rotation.y);
+            az = Math.toRadians(rotation.z);
+        }
+        double sx = Math.sin(ax);
+        double cx = Math.cos(ax);
+        double sy = Math.sin(ay);
+        double cy = Math.cos(ay);
+        double sz = Math.sin(az);
+        double cz = Math.cos(az);
+
+        // Rz * Ry * Rx * scale
+        m[0] = cz * cy * scale;
+        m[1] = (cz * sy * sx - sz * cx) * scale;
+        m[2] = (cz * sy * cx + sz * sx) * scale;
+        m[4] = sz * cy * scale;
+        m[5] = (sz * sy * sx + cz * cx) * scale;
+        m[6] = (sz * sy * cx - cz * sx) * scale;
+        m[8] = -sy * scale;
+        m[9] = cy * sx * scale;
+        m[10] = cy * cx * scale;
+        if (translation != null) {
+            m[3] = translation.x;
+            m[7] = translation.y;
+            m[11] = translation.z;
+        }
+        return m;
+    }
+
+    public String getGeometry() {
+        return geometry;
+    }
+
+    public void setGeometry(String geometry) {
+        this.geometry = geometry;
+    }
+
+    public Vector3D getTranslation() {
+        return translation;
+    }
+
+    public void setTranslation(Vector3D translation) {
+        this.translation = translation;
+    }
+
+    public Vector3D getRotation() {
+        return rotation;
+    }
+
+    public void setRotation(Vector3D rotation) {
+        this.rotation = rotation;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public void setScale(double scale) {
+        this.scale = scale;
+    }
+
+    public List<Double> getMatrix() {
+        return matrix;
+    }
+
+    public void setMatrix(List<Double> matrix) {
+        this.matrix = matrix;
+    }
+}
@@ -0,0 +1,66 @@
+package com.mlesniak.raytracer.scene;
+
+import com.mlesniak.raytracer.accel.TriangleMesh;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.mesh.MeshLoader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Triangle mesh loaded from an OBJ or PLY file.
+ * <p>
+ * The file is loaded on first use and shared by all compiled scenes, e.g. the frames of an animation. Color and
+ * material apply to all triangles of the mesh.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class Mesh extends SceneObject {
+    public String file;
+
+    // Loaded triangles, not part of the YAML representation.
+    private TriangleMesh triangles;
+
+    /**
+     * Return the triangles of the mesh file, loading them on first use.
+     *
+     * @return the loaded mesh
+     * @throws UncheckedIOException if the file can not be loaded
+     */
+    public synchronized TriangleMesh loadTriangles() {
+        if (triangles == null) {
+            try {
+                triangles = MeshLoader.load(Paths.get(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to load mesh " + file, e);
+            }
+        }
+        return triangles;
+    }
+
+    @Override
+    public double intersect(Ray ray) {
+        return loadTriangles().intersect(ray);
+    }
+
+    @Override
+    public void computeNormal(double x, double y, double z, Vector3D normal) {
+        loadTriangles().computeNormal(x, y, z, normal);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Set the mesh file. The triangles are loaded again on next use.
+     *
+     * @param file path of an .obj or .ply file
+     */
+    public synchronized void setFile(String file) {
+        this.file = file;
+        triangles = null;
+    }
+}
@@ -1,9 +1,8 @@
 package com.mlesniak.raytracer.scene;
 
+import com.mlesniak.raytracer.math.Ray;
 import com.mlesniak.raytracer.math.Vector3D;
 
-import java.util.Optional;
-
 /**
  * Sphere object with center and radius.
  *
@@ -19,26 +18,26 @@ public class Plane extends SceneObject {
     }
 
     @Override
-    public Optional<Vector3D> computeIntersection(Vector3D camera, Vector3D ray) {
-        double vd = ray.dot(normal);
+    public double intersect(Ray ray) {
+        double vd = ray.dx * normal.x + ray.dy * normal.y + ray.dz * normal.z;
         if (Math.abs(vd) < 0.0001) {
-            return Optional.empty();
+            return Ray.NO_INTERSECTION;
         }
 
-        double v0 = normal.dot(point.minus(camera));
+        double v0 = normal.x * (point.x - ray.ox) + normal.y * (point.y - ray.oy) + normal.z * (point.z - ray.oz);
         double t = v0 / vd;
 
         if (t < 0) {
             // Plane behind eye, ignore it.
-            return Optional.empty();
+            return Ray.NO_INTERSECTION;
         }
 
-        return Optional.of(camera.plus(ray.scale(t)));
+        return t;
     }
 
     @Override
-    public Vector3D computeNormal(Vector3D point) {
-        return normal;
+    public void computeNormal(double x, double y, double z, Vector3D n) {
+        n.set(normal.x, normal.y, normal.z);
     }
 
     public Vector3D getPoint() {
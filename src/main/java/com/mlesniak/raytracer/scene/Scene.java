@@ -1,14 +1,22 @@
 package com.mlesniak.raytracer.scene;
 
 import com.esotericsoftware.yamlbeans.YamlReader;
+import com.esotericsoftware.yamlbeans.YamlWriter;
+import com.mlesniak.raytracer.accel.PackedObjects;
 import com.mlesniak.raytracer.math.Vector3D;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Describe a full scene.
@@ -18,6 +26,10 @@ import java.util.List;
  * @author Michael Lesniak (mlesniak@micromata.de)
  */
 public class Scene {
+    // Classes which may be named by tags of scenes received from other processes.
+    private static final List<Class<?>> SCENE_CLASSES = Arrays.asList(Scene.class, AnimationSettings.class,
+            Keyframe.class, Sphere.class, Plane.class, Mesh.class, Geometry.class, Instance.class, Vector3D.class);
+
     private int width;
     private int height;
 
@@ -26,6 +38,18 @@ public class Scene {
     private Vector3D lookAt;
     private double fov;
 
+    // Edge length of the tiles an image is rendered in, 0 selects the default.
+    private int tileSize;
+
+    // Trace primary rays in packets, which uses the Vector API if available.
+    private boolean packetTracing;
+
+    // Maximum number of rays per pixel for adaptive anti-aliasing, 0 or 1 traces a single ray per pixel.
+    private int maxSamples;
+
+    // Difference of a color channel to a neighbouring pixel which triggers supersampling, 0 selects the default.
+    private int sampleThreshold;
+
     private AnimationSettings animation;
 
     /**
@@ -36,11 +60,21 @@ public class Scene {
         private int ticks;
         private int duration;
         private boolean loop;
+        // Alternative to a script, interpolated without a script engine.
+        private List<Keyframe> keyframes;
 
         public AnimationSettings() {
             // For YAML parsing.
         }
 
+        public List<Keyframe> getKeyframes() {
+            return keyframes;
+        }
+
+        public void setKeyframes(List<Keyframe> keyframes) {
+            this.keyframes = keyframes;
+        }
+
         public int getDuration() {
             return duration;
         }
@@ -74,10 +108,77 @@ public class Scene {
         }
     }
 
+    /**
+     * Value of a numeric scene property at a given tick of an animation.
+     * <p>
+     * The property is a path of bean properties and list indices starting at the scene, e.g.
+     * <code>lights.0.y</code> or <code>objects.2.radius</code>. Between two keyframes of the same property the value
+     * is interpolated, before the first and after the last keyframe it is constant.
+     */
+    public static class Keyframe {
+        private String property;
+        private int tick;
+        private double value;
+        // Interpolation from the previous keyframe: linear (default) or smooth.
+        private String interpolation;
+
+        public Keyframe() {
+            // For YAML parsing.
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public void setProperty(String property) {
+            this.property = property;
+        }
+
+        public int getTick() {
+            return tick;
+        }
+
+        public void setTick(int tick) {
+            this.tick = tick;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public void setValue(double value) {
+            this.value = value;
+        }
+
+        public String getInterpolation() {
+            return interpolation;
+        }
+
+        public void setInterpolation(String interpolation) {
+            this.interpolation = interpolation;
+        }
+    }
+
     private List<Vector3D> lights;
 
+    // Number of shadow rays per point if there are more lights, 0 casts a shadow ray to every light.
+    private int lightSamples;
+
     private List<SceneObject> objects;
 
+    // Objects of a streamed scene file until they are accessed as beans.
+    private PackedObjects packedObjects;
+
+    // Shared groups of objects which are placed by instances.
+    private List<Geometry> geometries;
+    private List<Instance> instances;
+
+    // Maximum number of reflections and refractions along a path, 0 selects the default.
+    private int maxDepth;
+
+    // Reflected and refracted rays contributing less to a pixel are not traced, 0 selects the default.
+    private double minContribution;
+
     public String getFilename() {
         return filename;
     }
@@ -94,6 +195,14 @@ public class Scene {
         this.lights = lights;
     }
 
+    public int getLightSamples() {
+        return lightSamples;
+    }
+
+    public void setLightSamples(int lightSamples) {
+        this.lightSamples = lightSamples;
+    }
+
     public Vector3D getCamera() {
         return camera;
     }
@@ -118,12 +227,54 @@ public class Scene {
         this.height = height;
     }
 
+    /**
+     * Return the objects of the scene. Objects of a streamed scene file are converted into beans on first access, e.g.
+     * by animations or to serialize the scene, and are no longer available in packed form afterwards.
+     *
+     * @return the objects, may be null
+     */
     public List<SceneObject> getObjects() {
+        if (packedObjects != null) {
+            objects = packedObjects.toObjects();
+            packedObjects = null;
+        }
         return objects;
     }
 
     public void setObjects(List<SceneObject> objects) {
         this.objects = objects;
+        packedObjects = null;
+    }
+
+    /**
+     * Return the objects of a streamed scene file as long as they have not been accessed as beans. Rendering uses
+     * them directly, hence large scenes never hold a bean per object.
+     *
+     * @return the packed objects or null if the objects are beans
+     */
+    public PackedObjects getPackedObjects() {
+        return packedObjects;
+    }
+
+    void setPackedObjects(PackedObjects packedObjects) {
+        this.packedObjects = packedObjects;
+        objects = null;
+    }
+
+    public List<Geometry> getGeometries() {
+        return geometries;
+    }
+
+    public void setGeometries(List<Geometry> geometries) {
+        this.geometries = geometries;
+    }
+
+    public List<Instance> getInstances() {
+        return instances;
+    }
+
+    public void setInstances(List<Instance> instances) {
+        this.instances = instances;
     }
 
     public Vector3D getLookAt() {
@@ -142,6 +293,54 @@ public class Scene {
         this.fov = fov;
     }
 
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public boolean getPacketTracing() {
+        return packetTracing;
+    }
+
+    public void setPacketTracing(boolean packetTracing) {
+        this.packetTracing = packetTracing;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public double getMinContribution() {
+        return minContribution;
+    }
+
+    public void setMinContribution(double minContribution) {
+        this.minContribution = minContribution;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    public void setMaxSamples(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    public int getSampleThreshold() {
+        return sampleThreshold;
+    }
+
+    public void setSampleThreshold(int sampleThreshold) {
+        this.sampleThreshold = sampleThreshold;
+    }
+
     public AnimationSettings getAnimation() {
         return animation;
     }
@@ -150,10 +349,98 @@ public class Scene {
         this.animation = animation;
     }
 
+    /**
+     * Read a scene file. The objects are streamed into packed storage, see {@link StreamingSceneParser}. Unless
+     * disabled, the parsed scene is cached in a binary file next to the scene file, which is used instead of parsing
+     * the file again as long as the file is not modified.
+     *
+     * @param filename path of the YAML scene file
+     * @return the parsed scene
+     * @throws IOException if the file can not be read or is not a valid scene
+     */
     public static Scene readScene(String filename) throws IOException {
-        FileInputStream stream = FileUtils.openInputStream(new File(filename));
-        InputStreamReader streamReader = new InputStreamReader(stream, "UTF-8");
-        YamlReader reader = new YamlReader(streamReader);
-        return reader.read(Scene.class);
+        if (SceneCache.ENABLED) {
+            return SceneCache.read(Paths.get(filename));
+        }
+        try (Reader reader = new InputStreamReader(FileUtils.openInputStream(new File(filename)), "UTF-8")) {
+            return StreamingSceneParser.parse(reader);
+        }
+    }
+
+    static YamlReader createReader(Reader reader) {
+        YamlReader yamlReader = new YamlReader(reader);
+        // Keyframes, geometries and instances are written without tags.
+        yamlReader.getConfig().setPropertyElementType(AnimationSettings.class, "keyframes", Keyframe.class);
+        yamlReader.getConfig().setPropertyElementType(Scene.class, "geometries", Geometry.class);
+        yamlReader.getConfig().setPropertyElementType(Scene.class, "instances", Instance.class);
+        yamlReader.getConfig().setPropertyElementType(Instance.class, "matrix", Double.class);
+        return yamlReader;
+    }
+
+    /**
+     * Parse a scene from its YAML representation, e.g. when it has been sent to a remote worker.
+     *
+     * @param yaml scene description
+     * @return the parsed scene
+     * @throws IOException if the description is not a valid scene
+     */
+    public static Scene parseScene(String yaml) throws IOException {
+        return createReader(new StringReader(yaml)).read(Scene.class);
+    }
+
+    /**
+     * Parse a scene received from another process, e.g. by a render worker. YamlReader instantiates the class named
+     * by a tag and calls its setters, hence only tags of scene classes and collections are accepted and every other tag
+     * is rejected before its class is loaded.
+     *
+     * @param yaml scene description
+     * @return the parsed scene
+     * @throws IOException if the description is not a valid scene or contains tags of other classes
+     */
+    public static Scene parseRemoteScene(String yaml) throws IOException {
+        YamlReader yamlReader = createReader(new StringReader(yaml));
+        for (Class<?> type : SCENE_CLASSES) {
+            yamlReader.getConfig().setClassTag(type.getName(), type);
+        }
+        yamlReader.getConfig().readConfig.setClassLoader(new RejectingClassLoader());
+        return yamlReader.read(Scene.class);
+    }
+
+    /**
+     * Class loader for tags which are not registered as class tags. YamlWriter tags lists with their implementation,
+     * e.g. <code>java.util.Collections$SingletonList</code>, hence collections and maps of the JDK are loaded, every
+     * other class is rejected.
+     */
+    private static final class RejectingClassLoader extends ClassLoader {
+        RejectingClassLoader() {
+            super(null);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.util.")) {
+                // Not initialized unless it is a collection.
+                Class<?> type = Class.forName(name, false, null);
+                if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+                    return type;
+                }
+            }
+            throw new ClassNotFoundException("Class not allowed in scenes: " + name);
+        }
+    }
+
+    /**
+     * Serialize this scene in the same format as scene files, such that <code>parseScene()</code> returns an equal
+     * scene.
+     *
+     * @return YAML representation of this scene
+     * @throws IOException if the scene can not be serialized
+     */
+    public String toYaml() throws IOException {
+        StringWriter writer = new StringWriter();
+        YamlWriter yamlWriter = new YamlWriter(writer);
+        yamlWriter.write(this);
+        yamlWriter.close();
+        return writer.toString();
     }
 }
@@ -0,0 +1,473 @@
+package com.mlesniak.raytracer.scene;
+
+import com.mlesniak.raytracer.accel.PackedObjects;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary cache of parsed scene files.
+ * <p>
+ * Parsing YAML with reflection is slow for large generated scenes. After a scene file has been parsed, the scene is
+ * written in a compact binary format into a file next to it, e.g. <code>scene.yaml.cache</code>, whose header
+ * contains the SHA-256 hash of the YAML file. As long as the hash matches, later runs map the cache file into memory
+ * and decode it field by field instead of parsing the YAML. If the cache is missing, stale or unreadable, the YAML file
+ * is parsed and the cache is written again. Files referenced by the scene, e.g. meshes, are not part of the cache.
+ * <p>
+ * Enabled by default, disabled with <code>-Draytracer.sceneCache=false</code>.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class SceneCache {
+    /**
+     * True if scene files are cached.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("raytracer.sceneCache", "true"));
+
+    private static final Logger LOG = LoggerFactory.getLogger(SceneCache.class);
+
+    // Appended to the name of the scene file.
+    private static final String SUFFIX = ".cache";
+
+    // "RTSC", followed by the version of the format which is increased on every change.
+    private static final int MAGIC = 0x52545343;
+    private static final int VERSION = 1;
+
+    // Type tags of scene objects.
+    private static final byte SPHERE = 1;
+    private static final byte PLANE = 2;
+    private static final byte MESH = 3;
+
+    // Size of the chunks in which scene files are hashed.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Length of null lists and strings.
+    private static final int NULL = -1;
+
+    private SceneCache() {
+    }
+
+    /**
+     * Read a scene file, using its cache if it is up to date.
+     *
+     * @param yaml path of the YAML scene file
+     * @return the scene
+     * @throws IOException if the scene file can not be read or parsed
+     */
+    public static Scene read(Path yaml) throws IOException {
+        Stopwatch stopwatch = Stopwatch.start();
+        Path cache = getCachePath(yaml);
+        if (Files.isRegularFile(cache)) {
+            Scene scene = readCache(cache, hash(yaml));
+            if (scene != null) {
+                LOG.info("Loaded scene from cache {} in {}ms", cache, stopwatch.stop());
+                return scene;
+            }
+        }
+
+        // The hash is computed while parsing, such that the file is neither read twice nor kept on the heap.
+        MessageDigest digest = createDigest();
+        Scene scene;
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(yaml), digest)) {
+            scene = StreamingSceneParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        LOG.info("Parsed scene {} in {}ms", yaml, stopwatch.stop());
+        try {
+            write(scene, digest.digest(), cache);
+        } catch (IOException | IllegalArgumentException e) {
+            // The cache is optional, e.g. the directory might be read-only.
+            LOG.warn("Unable to write scene cache {}: {}", cache, e.getMessage());
+        }
+        return scene;
+    }
+
+    /**
+     * Return the path of the cache file of a scene file.
+     *
+     * @param yaml path of the YAML scene file
+     * @return path of the cache file
+     */
+    public static Path getCachePath(Path yaml) {
+        return yaml.resolveSibling(yaml.getFileName() + SUFFIX);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Hash the file in chunks of fixed size instead of reading it completely.
+    private static byte[] hash(Path yaml) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(yaml)) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return digest.digest();
+    }
+
+    // Decode the cache file if it belongs to the given hash, returns null otherwise.
+    private static Scene readCache(Path cache, byte[] hash) {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 + hash.length || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOG.info("Ignoring scene cache {} of another version", cache);
+                return null;
+            }
+            byte[] cachedHash = new byte[hash.length];
+            buffer.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) {
+                LOG.info("Ignoring stale scene cache {}", cache);
+                return null;
+            }
+            return readScene(buffer);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            LOG.warn("Ignoring invalid scene cache {}: {}", cache, e.toString());
+            return null;
+        }
+    }
+
+    // Write into a temporary file first, such that concurrent readers never see a partial cache. Every writer uses its
+    // own temporary file, hence concurrent writers do not overwrite each other's partial files.
+    private static void write(Scene scene, byte[] hash, Path cache) throws IOException {
+        Path temp = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                writeScene(out, scene);
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void writeScene(DataOutputStream out, Scene scene) throws IOException {
+        out.writeInt(scene.getWidth());
+        out.writeInt(scene.getHeight());
+        writeString(out, scene.getFilename());
+        writeVector(out, scene.getCamera());
+        writeVector(out, scene.getLookAt());
+        out.writeDouble(scene.getFov());
+        out.writeInt(scene.getTileSize());
+        out.writeBoolean(scene.getPacketTracing());
+        out.writeInt(scene.getMaxSamples());
+        out.writeInt(scene.getSampleThreshold());
+        out.writeInt(scene.getLightSamples());
+        out.writeInt(scene.getMaxDepth());
+        out.writeDouble(scene.getMinContribution());
+
+        List<Vector3D> lights = scene.getLights();
+        writeCount(out, lights);
+        if (lights != null) {
+            for (Vector3D light : lights) {
+                writeVector(out, light);
+            }
+        }
+        // Streamed objects are written without converting them into a list of beans.
+        PackedObjects packedObjects = scene.getPackedObjects();
+        if (packedObjects != null) {
+            out.writeInt(packedObjects.size());
+            for (SceneObject object : packedObjects) {
+                writeObject(out, object);
+            }
+        } else {
+            writeObjects(out, scene.getObjects());
+        }
+
+        List<Geometry> geometries = scene.getGeometries();
+        writeCount(out, geometries);
+        if (geometries != null) {
+            for (Geometry geometry : geometries) {
+                writeString(out, geometry.getName());
+                writeObjects(out, geometry.getObjects());
+            }
+        }
+
+        List<Instance> instances = scene.getInstances();
+        writeCount(out, instances);
+        if (instances != null) {
+            for (Instance instance : instances) {
+                writeString(out, instance.getGeometry());
+                writeVector(out, instance.getTranslation());
+                writeVector(out, instance.getRotation());
+                out.writeDouble(instance.getScale());
+                List<Double> matrix = instance.getMatrix();
+                writeCount(out, matrix);
+                if (matrix != null) {
+                    for (double value : matrix) {
+                        out.writeDouble(value);
+                    }
+                }
+            }
+        }
+
+        Scene.AnimationSettings animation = scene.getAnimation();
+        out.writeBoolean(animation != null);
+        if (animation != null) {
+            writeString(out, animation.getFile());
+            out.writeInt(animation.getTicks());
+            out.writeInt(animation.getDuration());
+            out.writeBoolean(animation.getLoop());
+            List<Scene.Keyframe> keyframes = animation.getKeyframes();
+            writeCount(out, keyframes);
+            if (keyframes != null) {
+                for (Scene.Keyframe keyframe : keyframes) {
+                    writeString(out, keyframe.getProperty());
+                    out.writeInt(keyframe.getTick());
+                    out.writeDouble(keyframe.getValue());
+                    writeString(out, keyframe.getInterpolation());
+                }
+            }
+        }
+    }
+
+    private static void writeObjects(DataOutputStream out, List<SceneObject> objects) throws IOException {
+        writeCount(out, objects);
+        if (objects == null) {
+            return;
+        }
+        for (SceneObject object : objects) {
+            writeObject(out, object);
+        }
+    }
+
+    private static void writeObject(DataOutputStream out, SceneObject object) throws IOException {
+        if (object instanceof Sphere) {
+            Sphere sphere = (Sphere) object;
+            out.writeByte(SPHERE);
+            writeVector(out, sphere.getCenter());
+            out.writeDouble(sphere.getRadius());
+        } else if (object instanceof Plane) {
+            Plane plane = (Plane) object;
+            out.writeByte(PLANE);
+            writeVector(out, plane.getPoint());
+            writeVector(out, plane.getNormal());
+        } else if (object instanceof Mesh) {
+            out.writeByte(MESH);
+            writeString(out, ((Mesh) object).getFile());
+        } else {
+            throw new IllegalArgumentException("Unsupported scene object: " + object.getClass().getName());
+        }
+        out.writeInt(object.getColor());
+        out.writeDouble(object.getReflectivity());
+        out.writeDouble(object.getTransparency());
+        out.writeDouble(object.getRefractiveIndex());
+    }
+
+    private static void writeCount(DataOutputStream out, List<?> list) throws IOException {
+        if (list == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(list.size());
+        }
+    }
+
+    private static void writeVector(DataOutputStream out, Vector3D vector) throws IOException {
+        out.writeBoolean(vector != null);
+        if (vector != null) {
+            out.writeDouble(vector.x);
+            out.writeDouble(vector.y);
+            out.writeDouble(vector.z);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Scene readScene(ByteBuffer in) {
+        Scene scene = new Scene();
+        scene.setWidth(in.getInt());
+        scene.setHeight(in.getInt());
+        scene.setFilename(readString(in));
+        scene.setCamera(readVector(in));
+        scene.setLookAt(readVector(in));
+        scene.setFov(in.getDouble());
+        scene.setTileSize(in.getInt());
+        scene.setPacketTracing(in.get() != 0);
+        scene.setMaxSamples(in.getInt());
+        scene.setSampleThreshold(in.getInt());
+        scene.setLightSamples(in.getInt());
+        scene.setMaxDepth(in.getInt());
+        scene.setMinContribution(in.getDouble());
+
+        int count = readCount(in, 1);
+        if (count != NULL) {
+            List<Vector3D> lights = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                lights.add(readVector(in));
+            }
+            scene.setLights(lights);
+        }
+        PackedObjects objects = readObjects(in);
+        if (objects != null) {
+            scene.setPackedObjects(objects);
+        }
+
+        count = readCount(in, 8);
+        if (count != NULL) {
+            List<Geometry> geometries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Geometry geometry = new Geometry();
+                geometry.setName(readString(in));
+                PackedObjects geometryObjects = readObjects(in);
+                if (geometryObjects != null) {
+                    geometry.setObjects(geometryObjects.toObjects());
+                }
+                geometries.add(geometry);
+            }
+            scene.setGeometries(geometries);
+        }
+
+        count = readCount(in, 18);
+        if (count != NULL) {
+            List<Instance> instances = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Instance instance = new Instance();
+                instance.setGeometry(readString(in));
+                instance.setTranslation(readVector(in));
+                instance.setRotation(readVector(in));
+                instance.setScale(in.getDouble());
+                int values = readCount(in, 8);
+                if (values != NULL) {
+                    List<Double> matrix = new ArrayList<>(values);
+                    for (int v = 0; v < values; v++) {
+                        matrix.add(in.getDouble());
+                    }
+                    instance.setMatrix(matrix);
+                }
+                instances.add(instance);
+            }
+            scene.setInstances(instances);
+        }
+
+        if (in.get() != 0) {
+            Scene.AnimationSettings animation = new Scene.AnimationSettings();
+            animation.setFile(readString(in));
+            animation.setTicks(in.getInt());
+            animation.setDuration(in.getInt());
+            animation.setLoop(in.get() != 0);
+            count = readCount(in, 20);
+            if (count != NULL) {
+                List<Scene.Keyframe> keyframes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Scene.Keyframe keyframe = new Scene.Keyframe();
+                    keyframe.setProperty(readString(in));
+                    keyframe.setTick(in.getInt());
+                    keyframe.setValue(in.getDouble());
+                    keyframe.setInterpolation(readString(in));
+                    keyframes.add(keyframe);
+                }
+                animation.setKeyframes(keyframes);
+            }
+            scene.setAnimation(animation);
+        }
+        return scene;
+    }
+
+    // Objects are packed one after another, hence only a single object exists as bean at a time.
+    private static PackedObjects readObjects(ByteBuffer in) {
+        int count = readCount(in, 31);
+        if (count == NULL) {
+            return null;
+        }
+        PackedObjects objects = new PackedObjects();
+        for (int i = 0; i < count; i++) {
+            SceneObject object;
+            byte type = in.get();
+            switch (type) {
+                case SPHERE:
+                    Sphere sphere = new Sphere();
+                    sphere.setCenter(readVector(in));
+                    sphere.setRadius(in.getDouble());
+                    object = sphere;
+                    break;
+                case PLANE:
+                    Plane plane = new Plane();
+                    plane.setPoint(readVector(in));
+                    plane.setNormal(readVector(in));
+                    object = plane;
+                    break;
+                case MESH:
+                    Mesh mesh = new Mesh();
+                    mesh.setFile(readString(in));
+                    object = mesh;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown object type " + type);
+            }
+            object.setColor(in.getInt());
+            object.setReflectivity(in.getDouble());
+            object.setTransparency(in.getDouble());
+            object.setRefractiveIndex(in.getDouble());
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    // The hash only identifies the YAML file, hence a truncated or corrupted cache is detected while decoding: a count
+    // is valid if the remaining bytes can hold its elements, given the minimum size of an element.
+    private static int readCount(ByteBuffer in, int elementBytes) {
+        int count = in.getInt();
+        if (count != NULL && (count < 0 || count > in.remaining() / elementBytes)) {
+            throw new IllegalArgumentException("Invalid count " + count + " with " + in.remaining() +
+                    " remaining bytes");
+        }
+        return count;
+    }
+
+    private static Vector3D readVector(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        return new Vector3D(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readCount(in, 1);
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,5 +1,6 @@
 package com.mlesniak.raytracer.scene;
 
+import com.mlesniak.raytracer.math.Ray;
 import com.mlesniak.raytracer.math.Vector3D;
 
 import java.util.Optional;
@@ -12,6 +13,14 @@ import java.util.Optional;
 public abstract class SceneObject {
     private int color;
 
+    // Fraction of light reflected like a mirror.
+    private double reflectivity;
+
+    // Fraction of light passing through the object, which is refracted at its surface.
+    private double transparency;
+
+    private double refractiveIndex = 1;
+
     public int getColor() {
         return color;
     }
@@ -20,14 +29,62 @@ public abstract class SceneObject {
         this.color = color;
     }
 
+    public double getReflectivity() {
+        return reflectivity;
+    }
+
+    public void setReflectivity(double reflectivity) {
+        this.reflectivity = reflectivity;
+    }
+
+    public double getTransparency() {
+        return transparency;
+    }
+
+    public void setTransparency(double transparency) {
+        this.transparency = transparency;
+    }
+
+    public double getRefractiveIndex() {
+        return refractiveIndex;
+    }
+
+    public void setRefractiveIndex(double refractiveIndex) {
+        this.refractiveIndex = refractiveIndex;
+    }
+
+    /**
+     * Check for intersection without allocating any objects.
+     *
+     * @param ray ray to check against intersection, whose direction is normalized.
+     * @return distance from the ray origin to the intersection or <code>Ray.NO_INTERSECTION</code>.
+     */
+    public abstract double intersect(Ray ray);
+
+    /**
+     * Compute the normal for the given intersection point without allocating any objects.
+     *
+     * @param x      x-coordinate of the intersection point.
+     * @param y      y-coordinate of the intersection point.
+     * @param z      z-coordinate of the intersection point.
+     * @param normal vector the normal is written to.
+     */
+    public abstract void computeNormal(double x, double y, double z, Vector3D normal);
+
     /**
      * Check for intersection.
      *
      * @param camera origin of the ray
      * @param ray    ray to check against intersection.
-     * @return true if intersects
+     * @return the intersection point, if any
      */
-    public abstract Optional<Vector3D> computeIntersection(Vector3D camera, Vector3D ray);
+    public Optional<Vector3D> computeIntersection(Vector3D camera, Vector3D ray) {
+        double t = intersect(new Ray().set(camera, ray));
+        if (t == Ray.NO_INTERSECTION) {
+            return Optional.empty();
+        }
+        return Optional.of(new Vector3D(camera.x + ray.x * t, camera.y + ray.y * t, camera.z + ray.z * t));
+    }
 
     /**
      * Compute the normal for the given intersection point.
@@ -35,5 +92,9 @@ public abstract class SceneObject {
      * @param point intersection point.
      * @return normal of this point.
      */
-    public abstract Vector3D computeNormal(Vector3D point);
+    public Vector3D computeNormal(Vector3D point) {
+        Vector3D normal = new Vector3D();
+        computeNormal(point.x, point.y, point.z, normal);
+        return normal;
+    }
 }
@@ -1,9 +1,8 @@
 package com.mlesniak.raytracer.scene;
 
+import com.mlesniak.raytracer.math.Ray;
 import com.mlesniak.raytracer.math.Vector3D;
 
-import java.util.Optional;
-
 /**
  * Sphere object with center and radius.
  *
@@ -18,39 +17,41 @@ public class Sphere extends SceneObject {
     }
 
     @Override
-    public Optional<Vector3D> computeIntersection(Vector3D camera, Vector3D ray) {
+    public double intersect(Ray ray) {
         // Use code from book, optimize later.
-        double b =
-                2 * (ray.x * (camera.x - center.x) + ray.y * (camera.y - center.y) + ray.z * (camera.z - center.z));
-        double c = (camera.x - center.x) * (camera.x - center.x) + (camera.y - center.y) * (camera.y - center.y) +
-                (camera.z - center.z) * (camera.z - center.z) - (radius * radius);
+        double ocx = ray.ox - center.x;
+        double ocy = ray.oy - center.y;
+        double ocz = ray.oz - center.z;
+        double b = 2 * (ray.dx * ocx + ray.dy * ocy + ray.dz * ocz);
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - (radius * radius);
 
         double disc = b * b - 4 * c;
         if (disc < 0) {
-            return Optional.empty();
+            return Ray.NO_INTERSECTION;
         }
 
+        // The smaller solution is the nearer intersection.
         double t0 = (-b - Math.sqrt(disc)) / 2;
-        double t1 = (-b + Math.sqrt(disc)) / 2;
-
         if (t0 < 0) {
-            // Intersection is behind the eye, i.e. not visible.
-            return Optional.empty();
+            // Intersection is behind the eye. If the ray starts inside the sphere, e.g. a refracted ray, the larger
+            // solution is the intersection where it leaves the sphere.
+            double t1 = (-b + Math.sqrt(disc)) / 2;
+            if (t1 < 0) {
+                return Ray.NO_INTERSECTION;
+            }
+            return t1;
         }
 
-        double t = Math.min(t0, t1);
-        // Intersection point is...
-        Vector3D intersection = new Vector3D(camera.x + ray.x * t, camera.y + ray.y * t, camera.z + ray.z * t);
-
-        return Optional.of(intersection);
+        return t0;
     }
 
     @Override
-    public Vector3D computeNormal(Vector3D point) {
-        return new Vector3D(
-                (point.x - center.x) / radius,
-                (point.y - center.y) / radius,
-                (point.z - center.z) / radius).normalize();
+    public void computeNormal(double x, double y, double z, Vector3D normal) {
+        double nx = (x - center.x) / radius;
+        double ny = (y - center.y) / radius;
+        double nz = (z - center.z) / radius;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        normal.set(nx / len, ny / len, nz / len);
     }
 
     public Vector3D getCenter() {
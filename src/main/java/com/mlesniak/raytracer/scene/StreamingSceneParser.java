@@ -0,0 +1,360 @@
+package com.mlesniak.raytracer.scene;
+
+import com.esotericsoftware.yamlbeans.YamlException;
+import com.mlesniak.raytracer.accel.PackedObjects;
+import com.mlesniak.raytracer.math.Vector3D;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for scene files which streams the objects into packed storage.
+ * <p>
+ * Generated scene files consist almost entirely of their object list. Instead of building the whole document and a
+ * bean per object, the file is read line by line and every entry of the object list is converted into
+ * {@link PackedObjects} as soon as it is complete. Hence memory and time to load a scene grow linearly with its
+ * objects and the memory stays close to the size of the compiled scene. YamlReader is not used for the object list:
+ * its parser keeps a growing list per node of a document, which makes parsing large documents quadratic.
+ * <p>
+ * Spheres and planes in block style, with plain scalars and vectors in block or flow style, are read directly; every
+ * other entry, e.g. meshes, quoted values or anchors, is bean-parsed on its own. All other entries of the file, e.g.
+ * camera, lights and geometries, are small and bean-parsed as before, hence the result equals
+ * <code>Scene.parseScene()</code>.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class StreamingSceneParser {
+    // Top-level key of the object list if its entries follow on the next lines.
+    private static final Pattern OBJECTS = Pattern.compile("objects\\s*:\\s*(#.*)?");
+
+    private static final String SPHERE_TAG = "!" + Sphere.class.getName();
+    private static final String PLANE_TAG = "!" + Plane.class.getName();
+
+    private final BufferedReader reader;
+    private final StringBuilder header = new StringBuilder();
+    private PackedObjects objects;
+    private int line;
+
+    // Lines of the current entry of the object list, the number of its first line and the indentation of entries.
+    private final List<String> entry = new ArrayList<>();
+    private int entryLine;
+    private int entryIndent;
+
+    private StreamingSceneParser(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    /**
+     * Parse a scene.
+     *
+     * @param reader YAML scene description
+     * @return the parsed scene, whose objects are packed
+     * @throws IOException if the description is not a valid scene
+     */
+    public static Scene parse(Reader reader) throws IOException {
+        return new StreamingSceneParser(reader).parseScene();
+    }
+
+    private Scene parseScene() throws IOException {
+        boolean inObjects = false;
+        String text;
+        while ((text = reader.readLine()) != null) {
+            line++;
+            if (isTopLevel(text)) {
+                finishEntry();
+                inObjects = OBJECTS.matcher(text).matches();
+                entryIndent = -1;
+                if (!inObjects) {
+                    header.append(text).append('\n');
+                }
+            } else if (inObjects) {
+                addObjectLine(text);
+            } else {
+                header.append(text).append('\n');
+            }
+        }
+        finishEntry();
+
+        Scene scene = Scene.parseScene(header.toString());
+        if (objects != null) {
+            scene.setPackedObjects(objects);
+        }
+        return scene;
+    }
+
+    // Keys of the scene start in the first column; entries of a list may start there as well.
+    private static boolean isTopLevel(String text) {
+        if (text.isEmpty() || text.charAt(0) == ' ' || text.charAt(0) == '\t' || text.charAt(0) == '#') {
+            return false;
+        }
+        return !isListItem(text, 0);
+    }
+
+    private static boolean isListItem(String text, int indent) {
+        return text.charAt(indent) == '-' && (indent + 1 == text.length() || text.charAt(indent + 1) == ' ');
+    }
+
+    private void addObjectLine(String text) throws IOException {
+        int indent = indentOf(text);
+        boolean content = indent < text.length() && text.charAt(indent) != '#';
+        if (content && entryIndent < 0) {
+            if (!isListItem(text, indent)) {
+                throw new IOException("Invalid scene file in line " + line + ": List of objects expected");
+            }
+            entryIndent = indent;
+        }
+        if (content && indent == entryIndent && isListItem(text, indent)) {
+            finishEntry();
+            entryLine = line;
+        }
+        if (content || !entry.isEmpty()) {
+            entry.add(text);
+        }
+    }
+
+    private void finishEntry() throws IOException {
+        if (entry.isEmpty()) {
+            return;
+        }
+        if (objects == null) {
+            objects = new PackedObjects();
+        }
+        SceneObject object = parseEntry();
+        if (object != null) {
+            objects.add(object);
+        } else {
+            for (Object bean : parseBeans()) {
+                if (!(bean instanceof SceneObject)) {
+                    throw new IOException("Invalid scene file in line " + entryLine + ": Scene object expected");
+                }
+                objects.add((SceneObject) bean);
+            }
+        }
+        entry.clear();
+    }
+
+    // Read the common form of spheres and planes without YamlReader, returns null for everything else. A single bean
+    // is created which is released after it has been packed.
+    private SceneObject parseEntry() {
+        String first = entry.get(0);
+        String tag = stripComment(first.substring(indentOf(first) + 1)).trim();
+        SceneObject object;
+        if (SPHERE_TAG.equals(tag)) {
+            object = new Sphere();
+        } else if (PLANE_TAG.equals(tag)) {
+            object = new Plane();
+        } else {
+            return null;
+        }
+
+        int fieldIndent = -1;
+        for (int i = 1; i < entry.size(); i++) {
+            String text = entry.get(i);
+            int indent = indentOf(text);
+            if (indent == text.length() || text.charAt(indent) == '#') {
+                continue;
+            }
+            if (fieldIndent < 0 && indent > entryIndent) {
+                fieldIndent = indent;
+            }
+            int colon = findColon(text, indent);
+            if (indent != fieldIndent || colon < 0) {
+                return null;
+            }
+            String key = text.substring(indent, colon);
+            String value = stripComment(text.substring(colon + 1)).trim();
+            Vector3D vector;
+            if (value.isEmpty()) {
+                // Vector in block style on the following, further indented lines.
+                vector = new Vector3D();
+                int next = i + 1;
+                int componentIndent = -1;
+                while (next < entry.size() && indentOf(entry.get(next)) > fieldIndent) {
+                    String component = entry.get(next);
+                    int componentStart = indentOf(component);
+                    if (componentIndent < 0) {
+                        componentIndent = componentStart;
+                    }
+                    if (componentStart != componentIndent || !setComponent(vector, component, componentStart,
+                            component.length())) {
+                        return null;
+                    }
+                    next++;
+                }
+                if (componentIndent < 0) {
+                    return null;
+                }
+                i = next - 1;
+            } else if (value.startsWith("{") && value.endsWith("}")) {
+                vector = parseFlowVector(value);
+            } else {
+                if (!setScalar(object, key, value)) {
+                    return null;
+                }
+                continue;
+            }
+            if (vector == null || !setVector(object, key, vector)) {
+                return null;
+            }
+        }
+        return object;
+    }
+
+    // Vector in flow style, e.g. {x: 1, y: 2, z: 3}.
+    private static Vector3D parseFlowVector(String value) {
+        Vector3D vector = new Vector3D();
+        int start = 1;
+        int end = value.length() - 1;
+        while (start < end) {
+            int separator = value.indexOf(',', start);
+            if (separator < 0) {
+                separator = end;
+            }
+            int componentStart = start;
+            while (componentStart < separator && value.charAt(componentStart) == ' ') {
+                componentStart++;
+            }
+            if (!setComponent(vector, value, componentStart, separator)) {
+                return null;
+            }
+            start = separator + 1;
+        }
+        return vector;
+    }
+
+    // Set a component given as "key: value" in the range of a line.
+    private static boolean setComponent(Vector3D vector, String text, int start, int end) {
+        int colon = findColon(text, start);
+        if (colon < 0 || colon >= end) {
+            return false;
+        }
+        String key = text.substring(start, colon);
+        String value = stripComment(text.substring(colon + 1, end)).trim();
+        if (!isPlain(value)) {
+            return false;
+        }
+        try {
+            double number = Double.parseDouble(value);
+            switch (key) {
+                case "x":
+                    vector.x = number;
+                    return true;
+                case "y":
+                    vector.y = number;
+                    return true;
+                case "z":
+                    vector.z = number;
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Scalars are converted like YamlReader does, e.g. colors may be hexadecimal.
+    private static boolean setScalar(SceneObject object, String key, String value) {
+        if (!isPlain(value)) {
+            return false;
+        }
+        try {
+            switch (key) {
+                case "color":
+                    object.setColor(Integer.decode(value));
+                    return true;
+                case "reflectivity":
+                    object.setReflectivity(Double.parseDouble(value));
+                    return true;
+                case "transparency":
+                    object.setTransparency(Double.parseDouble(value));
+                    return true;
+                case "refractiveIndex":
+                    object.setRefractiveIndex(Double.parseDouble(value));
+                    return true;
+                case "radius":
+                    if (object instanceof Sphere) {
+                        ((Sphere) object).setRadius(Double.parseDouble(value));
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean setVector(SceneObject object, String key, Vector3D vector) {
+        if (object instanceof Sphere && "center".equals(key)) {
+            ((Sphere) object).setCenter(vector);
+            return true;
+        }
+        if (object instanceof Plane && "point".equals(key)) {
+            ((Plane) object).setPoint(vector);
+            return true;
+        }
+        if (object instanceof Plane && "normal".equals(key)) {
+            ((Plane) object).setNormal(vector);
+            return true;
+        }
+        return false;
+    }
+
+    // Everything else is left to YamlReader, e.g. quoted values, anchors or null values.
+    private static boolean isPlain(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        char first = value.charAt(0);
+        return first != '"' && first != '\'' && first != '&' && first != '*' && first != '!' && first != '~';
+    }
+
+    // Entries which are not read directly are parsed by YamlReader as a list with a single entry.
+    private List<?> parseBeans() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String entryText : entry) {
+            text.append(entryText).append('\n');
+        }
+        try {
+            return Scene.createReader(new StringReader(text.toString())).read(List.class, SceneObject.class);
+        } catch (YamlException e) {
+            throw new IOException("Invalid scene object in line " + entryLine + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int indentOf(String text) {
+        int indent = 0;
+        while (indent < text.length() && text.charAt(indent) == ' ') {
+            indent++;
+        }
+        return indent;
+    }
+
+    // Position of the colon separating a key from its value, or -1 if the text is not a key.
+    private static int findColon(String text, int start) {
+        int colon = text.indexOf(':', start);
+        if (colon < 0 || colon + 1 < text.length() && text.charAt(colon + 1) != ' ') {
+            return -1;
+        }
+        return colon;
+    }
+
+    // Comments start with a '#' at the beginning or after whitespace.
+    private static String stripComment(String text) {
+        int hash = text.indexOf('#');
+        while (hash > 0 && text.charAt(hash - 1) != ' ') {
+            hash = text.indexOf('#', hash + 1);
+        }
+        if (hash < 0) {
+            return text;
+        }
+        return text.substring(0, hash);
+    }
+}
@@ -1,158 +1,197 @@
 package com.mlesniak.raytracer.util;
 
-import javax.imageio.IIOException;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageTypeSpecifier;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageOutputStream;
-import java.awt.image.RenderedImage;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * GifSequenceWriter.java
+ * Writes animated GIF images.
  * <p>
- * Created by Elliot Kroo on 2009-04-25.
- * <p>
- * This work is licensed under the Creative Commons Attribution 3.0 Unported
- * License. To view a copy of this license, visit
- * http://creativecommons.org/licenses/by/3.0/ or send a letter to Creative
- * Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
- * <p>
- * Source: http://elliot.kroo.net/software/java/GifSequenceWriter/
+ * Frames are encoded in parallel: each frame gets its own palette of up to 256 colors by octree quantization and is
+ * compressed with LZW on one of the encoder threads. Encoded frames are appended to the output in the order they were
+ * added as soon as all previous frames have been written; only a bounded number of frames is encoded at the same
+ * time, hence adding a frame blocks if the encoders fall behind.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
  */
 public class GifWriter {
-    protected ImageWriter gifImageWriter;
-    protected ImageWriteParam imageWriteParam;
-    protected IIOMetadata imageMetaData;
+    // Number of bits of a palette index.
+    private static final int PALETTE_BITS = 8;
+
+    private final OutputStream output;
+    private final int delay;
+    private final boolean loopContinuously;
+    private final int maxPending;
+    private final ExecutorService executor;
+    // Frames in order. A frame which finished early waits in its future until all previous ones are written.
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private boolean headerWritten;
 
     /**
-     * Creates a new GifSequenceWriter.
+     * Create a writer which encodes frames on all cores.
      *
-     * @param outputStream        the ImageOutputStream to be written to
-     * @param imageType           one of the imageTypes specified in BufferedImage
-     * @param timeBetweenFramesMS the time between frames in miliseconds
-     * @param loopContinuously    wether the gif should loop repeatedly
-     * @throws IOException if no gif ImageWriters are found
+     * @param output              stream the GIF is written to, which is not closed by this writer
+     * @param timeBetweenFramesMS the time between frames in milliseconds
+     * @param loopContinuously    whether the GIF should loop repeatedly
      */
-    public GifWriter(
-            ImageOutputStream outputStream,
-            int imageType,
-            int timeBetweenFramesMS,
-            boolean loopContinuously) throws IOException {
-        // my method to create a writer
-        gifImageWriter = getWriter();
-        imageWriteParam = gifImageWriter.getDefaultWriteParam();
-        ImageTypeSpecifier imageTypeSpecifier =
-                ImageTypeSpecifier.createFromBufferedImageType(imageType);
-
-        imageMetaData =
-                gifImageWriter.getDefaultImageMetadata(imageTypeSpecifier,
-                        imageWriteParam);
-
-        String metaFormatName = imageMetaData.getNativeMetadataFormatName();
-
-        IIOMetadataNode root = (IIOMetadataNode)
-                imageMetaData.getAsTree(metaFormatName);
-
-        IIOMetadataNode graphicsControlExtensionNode = getNode(
-                root,
-                "GraphicControlExtension");
-
-        graphicsControlExtensionNode.setAttribute("disposalMethod", "none");
-        graphicsControlExtensionNode.setAttribute("userInputFlag", "FALSE");
-        graphicsControlExtensionNode.setAttribute(
-                "transparentColorFlag",
-                "FALSE");
-        graphicsControlExtensionNode.setAttribute(
-                "delayTime",
-                Integer.toString(timeBetweenFramesMS / 10));
-        graphicsControlExtensionNode.setAttribute(
-                "transparentColorIndex",
-                "0");
-
-        IIOMetadataNode commentsNode = getNode(root, "CommentExtensions");
-        commentsNode.setAttribute("CommentExtension", "Created by MAH");
-
-        IIOMetadataNode appEntensionsNode = getNode(
-                root,
-                "ApplicationExtensions");
-
-        IIOMetadataNode child = new IIOMetadataNode("ApplicationExtension");
-
-        child.setAttribute("applicationID", "NETSCAPE");
-        child.setAttribute("authenticationCode", "2.0");
-
-        int loop = 1;
-        if (loopContinuously) {
-            loop = 0;
-        }
-
-        child.setUserObject(new byte[]{0x1, (byte) (loop & 0xFF), (byte)
-                ((loop >> 8) & 0xFF)});
-        appEntensionsNode.appendChild(child);
-
-        imageMetaData.setFromTree(metaFormatName, root);
-
-        gifImageWriter.setOutput(outputStream);
-
-        gifImageWriter.prepareWriteSequence(null);
-    }
-
-    public void writeToSequence(RenderedImage img) throws IOException {
-        gifImageWriter.writeToSequence(new IIOImage(img, null, imageMetaData), imageWriteParam);
+    public GifWriter(OutputStream output, int timeBetweenFramesMS, boolean loopContinuously) {
+        this(output, timeBetweenFramesMS, loopContinuously, Runtime.getRuntime().availableProcessors());
     }
 
     /**
-     * Close this GifSequenceWriter object. This does not close the underlying
-     * stream, just finishes off the GIF.
+     * Create a writer with a fixed number of encoder threads.
      *
-     * @throws IOException on IO error
+     * @param output              stream the GIF is written to, which is not closed by this writer
+     * @param timeBetweenFramesMS the time between frames in milliseconds
+     * @param loopContinuously    whether the GIF should loop repeatedly
+     * @param threads             number of encoder threads
      */
-    public void close() throws IOException {
-        gifImageWriter.endWriteSequence();
+    public GifWriter(OutputStream output, int timeBetweenFramesMS, boolean loopContinuously, int threads) {
+        this.output = output;
+        this.delay = timeBetweenFramesMS / 10;
+        this.loopContinuously = loopContinuously;
+        maxPending = 2 * threads;
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gif-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
-     * Returns the first available GIF ImageWriter using
-     * ImageIO.getImageWritersBySuffix("gif").
+     * Add a frame. The size of the first frame defines the size of the image.
      *
-     * @return a GIF ImageWriter object
-     * @throws IIOException if no GIF image writers are returned
+     * @param image frame, which must not be modified afterwards
+     * @throws IOException if a previous frame can not be written
      */
-    private static ImageWriter getWriter() throws IIOException {
-        Iterator<ImageWriter> iter = ImageIO.getImageWritersBySuffix("gif");
-        if (!iter.hasNext()) {
-            throw new IIOException("No GIF Image Writers Exist");
-        } else {
-            return iter.next();
+    public void writeToSequence(BufferedImage image) throws IOException {
+        if (!headerWritten) {
+            writeHeader(image.getWidth(), image.getHeight());
+            headerWritten = true;
+        }
+        pending.add(executor.submit(() -> encodeFrame(image)));
+
+        // Write all frames which are already finished, wait only if too many frames are pending.
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+            output.write(get(pending.poll()));
         }
     }
 
     /**
-     * Returns an existing child node, or creates and returns a new child node (if
-     * the requested node does not exist).
+     * Write all pending frames and finish the GIF. This does not close the underlying stream.
      *
-     * @param rootNode the <tt>IIOMetadataNode</tt> to search for the child node.
-     * @param nodeName the name of the child node.
-     * @return the child node, if found or a new node created with the given name.
+     * @throws IOException on IO error
      */
-    private static IIOMetadataNode getNode(
-            IIOMetadataNode rootNode,
-            String nodeName) {
-        int nNodes = rootNode.getLength();
-        for (int i = 0; i < nNodes; i++) {
-            if (rootNode.item(i).getNodeName().compareToIgnoreCase(nodeName)
-                    == 0) {
-                return (IIOMetadataNode) rootNode.item(i);
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                output.write(get(pending.poll()));
+            }
+            if (headerWritten) {
+                // Trailer.
+                output.write(0x3B);
             }
+            output.flush();
+        } finally {
+            for (Future<byte[]> frame : pending) {
+                frame.cancel(true);
+            }
+            executor.shutdown();
+        }
+    }
+
+    private void writeHeader(int width, int height) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        // Logical screen descriptor without global color table.
+        writeShort(header, width);
+        writeShort(header, height);
+        header.write(0);
+        header.write(0);
+        header.write(0);
+
+        // Netscape application extension with the number of repetitions, 0 means forever.
+        int loop = 1;
+        if (loopContinuously) {
+            loop = 0;
+        }
+        header.write(0x21);
+        header.write(0xFF);
+        header.write(11);
+        header.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+        header.write(3);
+        header.write(1);
+        writeShort(header, loop);
+        header.write(0);
+        output.write(header.toByteArray());
+    }
+
+    // Quantize and compress a frame including its graphic control extension and local color table.
+    private byte[] encodeFrame(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        OctreeQuantizer quantizer = new OctreeQuantizer(pixels, 1 << PALETTE_BITS);
+        byte[] indices = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            indices[i] = (byte) quantizer.indexOf(pixels[i]);
+        }
+        byte[] data = LzwEncoder.encode(indices, PALETTE_BITS);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(data.length + 800);
+        // Graphic control extension: no disposal, no transparency.
+        frame.write(0x21);
+        frame.write(0xF9);
+        frame.write(4);
+        frame.write(0);
+        writeShort(frame, delay);
+        frame.write(0);
+        frame.write(0);
+
+        // Image descriptor with a local color table of 2^8 entries.
+        frame.write(0x2C);
+        writeShort(frame, 0);
+        writeShort(frame, 0);
+        writeShort(frame, width);
+        writeShort(frame, height);
+        frame.write(0x80 | (PALETTE_BITS - 1));
+        int[] palette = quantizer.getPalette();
+        for (int i = 0; i < 1 << PALETTE_BITS; i++) {
+            int rgb = 0;
+            if (i < palette.length) {
+                rgb = palette[i];
+            }
+            frame.write((rgb >> 16) & 0xFF);
+            frame.write((rgb >> 8) & 0xFF);
+            frame.write(rgb & 0xFF);
+        }
+        frame.write(data, 0, data.length);
+        return frame.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    // Wait for an encoded frame.
+    private static byte[] get(Future<byte[]> frame) throws IOException {
+        try {
+            return frame.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding frame");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to encode frame", e.getCause());
         }
-        IIOMetadataNode node = new IIOMetadataNode(nodeName);
-        rootNode.appendChild(node);
-        return node;
     }
 }
@@ -0,0 +1,26 @@
+package com.mlesniak.raytracer.util;
+
+import com.mlesniak.raytracer.render.Framebuffer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes an image to a file in a particular format.
+ * <p>
+ * Images are read row by row from a framebuffer, hence images in memory-mapped framebuffers can be written without
+ * loading them into the heap.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+@FunctionalInterface
+public interface ImageOutput {
+    /**
+     * Write the image, replacing an existing file.
+     *
+     * @param image source of the image rows
+     * @param path  target file
+     * @throws IOException if the file can not be written
+     */
+    void write(Framebuffer image, Path path) throws IOException;
+}
@@ -0,0 +1,31 @@
+package com.mlesniak.raytracer.util;
+
+import java.util.Locale;
+
+/**
+ * Selects the image format by the extension of a filename.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class ImageOutputs {
+    private ImageOutputs() {
+    }
+
+    /**
+     * Return the writer for a filename: <code>.ppm</code> for uncompressed binary PPM, <code>.pfm</code> for
+     * uncompressed floating point PFM and PNG for all other filenames.
+     *
+     * @param filename name of the image file
+     * @return the writer
+     */
+    public static ImageOutput forFilename(String filename) {
+        String name = filename.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ppm")) {
+            return new PpmWriter();
+        }
+        if (name.endsWith(".pfm")) {
+            return new PfmWriter();
+        }
+        return new PngWriter();
+    }
+}
@@ -0,0 +1,129 @@
+package com.mlesniak.raytracer.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Variable-length LZW compression of GIF image data, following the classic encoder by Jef Poskanzer.
+ * <p>
+ * Strings are stored as pairs of prefix code and appended byte in an open-addressing hash table. The code size grows
+ * up to 12 bits; if the table is full, a clear code is written and the table is started again.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class LzwEncoder {
+    private static final int MAX_BITS = 12;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+    private static final int TABLE_SIZE = 1 << 13;
+
+    private final int minCodeSize;
+    private final int clearCode;
+    private final int[] keys = new int[TABLE_SIZE];
+    private final int[] codes = new int[TABLE_SIZE];
+
+    private int codeSize;
+    private int maxCode;
+    private int nextCode;
+    private boolean clear;
+
+    // Bits which do not fill a complete byte yet.
+    private int bits;
+    private int bitCount;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private LzwEncoder(int minCodeSize) {
+        this.minCodeSize = minCodeSize;
+        clearCode = 1 << minCodeSize;
+    }
+
+    /**
+     * Compress palette indices to the image data of a GIF frame.
+     *
+     * @param indices     palette index of every pixel
+     * @param minCodeSize number of bits of a palette index, at least 2
+     * @return minimum code size, the compressed data in sub-blocks of at most 255 bytes and the block terminator.
+     */
+    static byte[] encode(byte[] indices, int minCodeSize) {
+        return new LzwEncoder(minCodeSize).compress(indices);
+    }
+
+    private byte[] compress(byte[] indices) {
+        resetTable();
+        codeSize = minCodeSize + 1;
+        maxCode = (1 << codeSize) - 1;
+        output(clearCode);
+
+        if (indices.length > 0) {
+            int prefix = indices[0] & 0xFF;
+            for (int i = 1; i < indices.length; i++) {
+                int c = indices[i] & 0xFF;
+                int key = prefix << 8 | c;
+                int slot = (key * 0x9E3779B1 >>> (32 - 13)) & (TABLE_SIZE - 1);
+                while (keys[slot] != -1 && keys[slot] != key) {
+                    slot = (slot + 1) & (TABLE_SIZE - 1);
+                }
+                if (keys[slot] == key) {
+                    prefix = codes[slot];
+                    continue;
+                }
+
+                output(prefix);
+                prefix = c;
+                if (nextCode < MAX_CODES) {
+                    keys[slot] = key;
+                    codes[slot] = nextCode++;
+                } else {
+                    resetTable();
+                    clear = true;
+                    output(clearCode);
+                }
+            }
+            output(prefix);
+        }
+        output(clearCode + 1);
+        if (bitCount > 0) {
+            out.write(bits);
+        }
+
+        // Split into sub-blocks.
+        byte[] data = out.toByteArray();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream(data.length + data.length / 255 + 3);
+        blocks.write(minCodeSize);
+        for (int offset = 0; offset < data.length; offset += 255) {
+            int length = Math.min(255, data.length - offset);
+            blocks.write(length);
+            blocks.write(data, offset, length);
+        }
+        blocks.write(0);
+        return blocks.toByteArray();
+    }
+
+    private void resetTable() {
+        Arrays.fill(keys, -1);
+        nextCode = clearCode + 2;
+    }
+
+    // Write a code with the current code size and grow the code size if the next code does not fit anymore.
+    private void output(int code) {
+        bits |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            out.write(bits & 0xFF);
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+
+        if (clear) {
+            codeSize = minCodeSize + 1;
+            maxCode = (1 << codeSize) - 1;
+            clear = false;
+        } else if (nextCode > maxCode) {
+            codeSize++;
+            if (codeSize == MAX_BITS) {
+                maxCode = MAX_CODES;
+            } else {
+                maxCode = (1 << codeSize) - 1;
+            }
+        }
+    }
+}
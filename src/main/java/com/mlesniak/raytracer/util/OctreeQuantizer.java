@@ -0,0 +1,186 @@
+package com.mlesniak.raytracer.util;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the colors of an image to a palette with the octree method of Gervautz and Purgathofer.
+ * <p>
+ * Colors are inserted into an octree whose levels correspond to the bits of the color channels, starting with the
+ * most significant one. Whenever there are more leaves than palette entries, the deepest inner node is merged with its
+ * children, i.e. similar colors are combined first. Each remaining leaf is a palette entry with the average color of
+ * all its pixels. For large images the tree is only built from a sample of the pixels.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class OctreeQuantizer {
+    private static final int DEPTH = 8;
+
+    // Number of pixels used to build the tree.
+    private static final int MAX_SAMPLES = 1 << 16;
+
+    private final int maxColors;
+    private final Node root = new Node();
+    // Inner nodes of each level which can be merged with their children.
+    private final Node[] reducible = new Node[DEPTH];
+    private int leafCount;
+
+    private final int[] palette;
+    // Palette index of colors which are not in the tree, with 5 bits per channel.
+    private final int[] nearest = new int[1 << 15];
+
+    /**
+     * Node of the octree. Leaves accumulate the color channels of their pixels.
+     */
+    private static final class Node {
+        Node[] children = new Node[8];
+        boolean leaf;
+        long red;
+        long green;
+        long blue;
+        long count;
+        int index;
+        Node nextReducible;
+    }
+
+    /**
+     * Build the palette of an image.
+     *
+     * @param pixels    RGB pixels of the image
+     * @param maxColors maximum number of palette entries, at least 2
+     */
+    OctreeQuantizer(int[] pixels, int maxColors) {
+        this.maxColors = maxColors;
+        reducible[0] = root;
+        int step = Math.max(1, pixels.length / MAX_SAMPLES);
+        for (int i = 0; i < pixels.length; i += step) {
+            insert(pixels[i]);
+        }
+
+        palette = new int[leafCount];
+        int[] size = new int[1];
+        assignIndices(root, size);
+        Arrays.fill(nearest, -1);
+    }
+
+    private void insert(int rgb) {
+        Node node = root;
+        for (int level = 0; level < DEPTH && !node.leaf; level++) {
+            int child = childIndex(rgb, level);
+            if (node.children[child] == null) {
+                Node created = new Node();
+                if (level + 1 == DEPTH) {
+                    created.leaf = true;
+                    leafCount++;
+                } else {
+                    created.nextReducible = reducible[level + 1];
+                    reducible[level + 1] = created;
+                }
+                node.children[child] = created;
+            }
+            node = node.children[child];
+        }
+        node.red += (rgb >> 16) & 0xFF;
+        node.green += (rgb >> 8) & 0xFF;
+        node.blue += rgb & 0xFF;
+        node.count++;
+
+        while (leafCount > maxColors) {
+            reduce();
+        }
+    }
+
+    // Merge the children of the most recently created inner node of the deepest level into it.
+    private void reduce() {
+        int level = DEPTH - 1;
+        while (reducible[level] == null) {
+            level--;
+        }
+        Node node = reducible[level];
+        reducible[level] = node.nextReducible;
+
+        int merged = 0;
+        for (Node child : node.children) {
+            if (child != null) {
+                node.red += child.red;
+                node.green += child.green;
+                node.blue += child.blue;
+                node.count += child.count;
+                merged++;
+            }
+        }
+        node.children = null;
+        node.leaf = true;
+        leafCount -= merged - 1;
+    }
+
+    private void assignIndices(Node node, int[] size) {
+        if (node.leaf) {
+            node.index = size[0]++;
+            long count = Math.max(1, node.count);
+            palette[node.index] = (int) (node.red / count) << 16 | (int) (node.green / count) << 8 |
+                    (int) (node.blue / count);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                assignIndices(child, size);
+            }
+        }
+    }
+
+    private static int childIndex(int rgb, int level) {
+        int shift = 7 - level;
+        return ((rgb >> (16 + shift)) & 1) << 2 | ((rgb >> (8 + shift)) & 1) << 1 | (rgb >> shift) & 1;
+    }
+
+    /**
+     * Return the palette, whose length is the number of colors and at most the maximum number of colors.
+     *
+     * @return RGB colors of the palette
+     */
+    int[] getPalette() {
+        return palette;
+    }
+
+    /**
+     * Map a color to its palette entry.
+     *
+     * @param rgb RGB color
+     * @return index of the palette entry
+     */
+    int indexOf(int rgb) {
+        Node node = root;
+        for (int level = 0; level < DEPTH && !node.leaf; level++) {
+            node = node.children[childIndex(rgb, level)];
+            if (node == null) {
+                // Not sampled, use the nearest palette color.
+                return nearestIndex(rgb);
+            }
+        }
+        return node.index;
+    }
+
+    private int nearestIndex(int rgb) {
+        int key = (rgb >> 9) & 0x7C00 | (rgb >> 6) & 0x3E0 | (rgb >> 3) & 0x1F;
+        if (nearest[key] >= 0) {
+            return nearest[key];
+        }
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int dr = ((palette[i] >> 16) & 0xFF) - r;
+            int dg = ((palette[i] >> 8) & 0xFF) - g;
+            int db = (palette[i] & 0xFF) - b;
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        nearest[key] = best;
+        return best;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mlesniak.raytracer.util;
+
+import com.mlesniak.raytracer.render.Framebuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes uncompressed portable float map (PFM) images with three little-endian floats per pixel, e.g. for further
+ * processing in HDR tools. Color channels are scaled to [0, 1].
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class PfmWriter implements ImageOutput {
+    // Size of the buffer rows are collected in before they are written.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    @Override
+    public void write(Framebuffer image, Path path) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 12 * width)).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // A negative scale denotes little-endian values.
+            buffer.put(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+            // Rows are stored from bottom to top.
+            for (int y = height - 1; y >= 0; y--) {
+                if (buffer.remaining() < 12 * width) {
+                    PpmWriter.flush(channel, buffer);
+                }
+                image.getRow(y, row);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    buffer.putFloat(((rgb >> 16) & 0xFF) / 255f);
+                    buffer.putFloat(((rgb >> 8) & 0xFF) / 255f);
+                    buffer.putFloat((rgb & 0xFF) / 255f);
+                }
+            }
+            PpmWriter.flush(channel, buffer);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.mlesniak.raytracer.util;
+
+import com.mlesniak.raytracer.render.Framebuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes RGB PNG images, compressing blocks of rows in parallel.
+ * <p>
+ * Like pigz, every block of rows is compressed by its own deflater and ends with a sync flush, i.e. on a byte
+ * boundary, hence the compressed blocks can simply be concatenated to a single deflate stream. Each block is written
+ * as an IDAT chunk as soon as it and all previous blocks are compressed; only a bounded number of blocks is in memory
+ * at the same time. Rows use the sub filter, which does not depend on the previous row.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class PngWriter implements ImageOutput {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // Uncompressed size of a block of rows.
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    // Filter type of every row.
+    private static final byte FILTER_SUB = 1;
+
+    private final int threads;
+
+    public PngWriter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a writer with a fixed number of compression threads.
+     *
+     * @param threads number of threads
+     */
+    public PngWriter(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public void write(Framebuffer image, Path path) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowsPerBlock = Math.max(1, BLOCK_SIZE / (1 + 3 * width));
+        int blocks = (height + rowsPerBlock - 1) / rowsPerBlock;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "png-deflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Blocks in image order. A block which finished early waits in its future until all previous ones are written.
+        Deque<Future<byte[][]>> pending = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(channel, ByteBuffer.wrap(SIGNATURE));
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height);
+            // Bit depth 8, RGB, deflate, adaptive filtering, no interlace.
+            header.put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+            writeChunk(channel, "IHDR", header.array());
+
+            Adler32 adler = new Adler32();
+            int next = 0;
+            for (int block = 0; block < blocks; block++) {
+                while (next < blocks && pending.size() < 2 * threads) {
+                    int y0 = next * rowsPerBlock;
+                    int y1 = Math.min(height, y0 + rowsPerBlock);
+                    boolean last = y1 == height;
+                    pending.add(executor.submit(() -> compress(image, y0, y1, last)));
+                    next++;
+                }
+                byte[][] result = get(pending.poll());
+                // The checksum of the zlib stream covers the uncompressed data of all blocks.
+                adler.update(result[0]);
+                byte[] data = result[1];
+                if (block == 0) {
+                    data = concat(new byte[]{0x78, (byte) 0x9C}, data);
+                }
+                if (block == blocks - 1) {
+                    data = concat(data, ByteBuffer.allocate(4).putInt((int) adler.getValue()).array());
+                }
+                writeChunk(channel, "IDAT", data);
+            }
+            writeChunk(channel, "IEND", new byte[0]);
+        } finally {
+            for (Future<byte[][]> block : pending) {
+                block.cancel(true);
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Filter and compress a block of rows.
+     *
+     * @param image source of the image rows
+     * @param y0    first row of the block (inclusive), starting with the top row of the image
+     * @param y1    last row of the block (exclusive)
+     * @param last  true if this is the last block of the image, which finishes the deflate stream
+     * @return the filtered and the compressed data of the block
+     */
+    private static byte[][] compress(Framebuffer image, int y0, int y1, boolean last) {
+        int width = image.getWidth();
+        int rowSize = 1 + 3 * width;
+        byte[] filtered = new byte[(y1 - y0) * rowSize];
+        int[] row = new int[width];
+        int index = 0;
+        for (int y = y0; y < y1; y++) {
+            image.getRow(y, row);
+            filtered[index++] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                filtered[index++] = (byte) ((rgb >> 16) - (previous >> 16));
+                filtered[index++] = (byte) ((rgb >> 8) - (previous >> 8));
+                filtered[index++] = (byte) (rgb - previous);
+                previous = rgb;
+            }
+        }
+
+        // Raw deflate data without zlib header and checksum, which are written once for the whole image.
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(filtered.length / 4);
+        byte[] buffer = new byte[1 << 16];
+        try {
+            deflater.setInput(filtered);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new byte[][]{filtered, out.toByteArray()};
+    }
+
+    // Wait for a compressed block.
+    private static byte[][] get(Future<byte[][]> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing image");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress image", e.getCause());
+        }
+    }
+
+    // Write a chunk with length, type, data and CRC of type and data.
+    private static void writeChunk(FileChannel channel, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        ByteBuffer buffer = ByteBuffer.allocate(12 + data.length);
+        buffer.putInt(data.length).put(typeBytes).put(data).putInt((int) crc.getValue());
+        buffer.flip();
+        write(channel, buffer);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package com.mlesniak.raytracer.util;
+
+import com.mlesniak.raytracer.render.Framebuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes uncompressed binary PPM (P6) images, which is limited only by the speed of the disk.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class PpmWriter implements ImageOutput {
+    // Size of the buffer rows are collected in before they are written.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    @Override
+    public void write(Framebuffer image, Path path) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 3 * width));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.put(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            for (int y = 0; y < height; y++) {
+                if (buffer.remaining() < 3 * width) {
+                    flush(channel, buffer);
+                }
+                image.getRow(y, row);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    buffer.put((byte) (rgb >> 16));
+                    buffer.put((byte) (rgb >> 8));
+                    buffer.put((byte) rgb);
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    // Write the content of the buffer and clear it.
+    static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,24 +1,37 @@
 package com.mlesniak.raytracer.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple stopwatch for performance measurements.
+ * <p>
+ * Every measurement has its own instance, hence concurrent renders, e.g. the frames of an animation, do not overwrite
+ * each other's start time. Time is measured with <code>System.nanoTime()</code>, which is monotonic and not affected by
+ * changes of the wall clock.
  *
  * @author Michael Lesniak (mlesniak@micromata.de)
  */
 public final class Stopwatch {
-    private static Map<String, Long> startTimes = new HashMap<>();
+    private final long start;
 
     private Stopwatch() {
+        start = System.nanoTime();
     }
 
-    public static void start(String id) {
-        startTimes.put(id, System.currentTimeMillis());
+    public static Stopwatch start() {
+        return new Stopwatch();
     }
 
-    public static long stop(String id) {
-        return System.currentTimeMillis() - startTimes.get(id);
+    public long getNanos() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Elapsed time since the stopwatch has been started. The stopwatch keeps running and can be stopped again.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long stop() {
+        return TimeUnit.NANOSECONDS.toMillis(getNanos());
     }
 }
@@ -0,0 +1,221 @@
+package com.mlesniak.raytracer.accel;
+
+import com.mlesniak.raytracer.math.Ray;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Packet tracer which intersects all rays of a packet at once using the Java Vector API.
+ * <p>
+ * Each lane of a vector holds one ray, hence the packet size is the number of double lanes of the preferred species,
+ * e.g. 4 on AVX2 and 8 on AVX-512. The packet traverses the BVH together: a node is visited if any ray enters its
+ * box before its current closest hit. The rays of a packet have to share their origin, which holds for primary rays.
+ * Triangle meshes and instances are intersected afterwards ray by ray with the scalar kernels.
+ * <p>
+ * Only compiled with the <code>simd</code> Maven profile and loaded by {@link PacketTracers}.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public final class VectorPacketTracer implements PacketTracer {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final CompiledScene scene;
+    private final ThreadLocal<Ray> rays = ThreadLocal.withInitial(Ray::new);
+    private final ThreadLocal<HitRecord> hits = ThreadLocal.withInitial(HitRecord::new);
+
+    public VectorPacketTracer(CompiledScene scene) {
+        this.scene = scene;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void closestHits(RayPacket packet, TraversalStack stack) {
+        DoubleVector dx = DoubleVector.fromArray(SPECIES, packet.dx, 0);
+        DoubleVector dy = DoubleVector.fromArray(SPECIES, packet.dy, 0);
+        DoubleVector dz = DoubleVector.fromArray(SPECIES, packet.dz, 0);
+        DoubleVector best = DoubleVector.broadcast(SPECIES, Ray.NO_INTERSECTION);
+        DoubleVector primitive = DoubleVector.broadcast(SPECIES, CompiledScene.NONE);
+
+        if (scene.sphereCount > 0) {
+            DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+            Packet p = new Packet(packet, dx, dy, dz, one.div(dx), one.div(dy), one.div(dz));
+            p.best = best;
+            p.primitive = primitive;
+            traverseSpheres(p, stack);
+            best = p.best;
+            primitive = p.primitive;
+        }
+
+        for (int i = 0; i < scene.planeCount; i++) {
+            double nx = scene.planeNormalX[i];
+            double ny = scene.planeNormalY[i];
+            double nz = scene.planeNormalZ[i];
+            DoubleVector vd = dx.mul(nx).add(dy.mul(ny)).add(dz.mul(nz));
+            // The numerator only depends on the shared origin.
+            double v0 = nx * (scene.planePointX[i] - packet.ox) + ny * (scene.planePointY[i] - packet.oy) +
+                    nz * (scene.planePointZ[i] - packet.oz);
+            DoubleVector t = DoubleVector.broadcast(SPECIES, v0).div(vd);
+            VectorMask<Double> valid = vd.abs().compare(VectorOperators.GE, 0.0001)
+                    .and(t.compare(VectorOperators.GE, 0))
+                    .and(t.compare(VectorOperators.LT, best));
+            best = best.blend(t, valid);
+            primitive = primitive.blend(scene.sphereCount + i, valid);
+        }
+
+        best.intoArray(packet.distance, 0);
+        for (int i = 0; i < packet.size; i++) {
+            packet.primitive[i] = (int) primitive.lane(i);
+        }
+        if (scene.meshCount > 0 || scene.instanceCount > 0) {
+            closestNestedHits(packet, stack);
+        }
+    }
+
+    private void closestNestedHits(RayPacket packet, TraversalStack stack) {
+        Ray ray = rays.get();
+        HitRecord hit = hits.get();
+        for (int i = 0; i < packet.size; i++) {
+            packet.toRay(i, ray);
+            hit.primitive = packet.primitive[i];
+            hit.distance = packet.distance[i];
+            scene.closestNestedHit(ray, hit, stack);
+            packet.distance[i] = hit.distance;
+            packet.primitive[i] = hit.primitive;
+        }
+    }
+
+    private void traverseSpheres(Packet p, TraversalStack stack) {
+        Bvh bvh = scene.bvh;
+        stack.ensureCapacity(bvh.getDepth() + 2);
+        int[] nodes = stack.nodes;
+
+        int sp = 0;
+        nodes[sp++] = 0;
+        while (sp > 0) {
+            int node = nodes[--sp];
+            if (!intersectBox(bvh.bounds, node, p).anyTrue()) {
+                continue;
+            }
+
+            if (bvh.counts[node] > 0) {
+                int first = bvh.offsets[node];
+                int last = first + bvh.counts[node];
+                for (int i = first; i < last; i++) {
+                    intersectSphere(i, p);
+                }
+            } else {
+                // All rays start at the same point, hence the child nearer to the origin is visited first.
+                int left = node + 1;
+                int right = bvh.offsets[node];
+                if (centerDistance(bvh.bounds, left, p) <= centerDistance(bvh.bounds, right, p)) {
+                    nodes[sp++] = right;
+                    nodes[sp++] = left;
+                } else {
+                    nodes[sp++] = left;
+                    nodes[sp++] = right;
+                }
+            }
+        }
+    }
+
+    // Same computation as the scalar kernel in CompiledScene, hence results are identical.
+    private void intersectSphere(int i, Packet p) {
+        double ocx = p.ox - scene.sphereX[i];
+        double ocy = p.oy - scene.sphereY[i];
+        double ocz = p.oz - scene.sphereZ[i];
+        // Since the origin is shared, c is the same for all rays.
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - scene.sphereRadius2[i];
+        DoubleVector b = p.dx.mul(ocx).add(p.dy.mul(ocy)).add(p.dz.mul(ocz));
+
+        DoubleVector disc = b.mul(b).sub(c);
+        VectorMask<Double> valid = disc.compare(VectorOperators.GE, 0);
+        if (!valid.anyTrue()) {
+            return;
+        }
+        DoubleVector t = b.neg().sub(disc.sqrt());
+        if (c < 0) {
+            // Camera inside the sphere, use the far intersection.
+            t = b.neg().add(disc.sqrt());
+        }
+        valid = valid.and(t.compare(VectorOperators.GE, 0)).and(t.compare(VectorOperators.LT, p.best));
+        p.best = p.best.blend(t, valid);
+        p.primitive = p.primitive.blend(i, valid);
+    }
+
+    // Slab test for all rays, comparisons are written such that NaN values are ignored as in Bvh.intersectBox().
+    private static VectorMask<Double> intersectBox(double[] bounds, int node, Packet p) {
+        int b = node * 6;
+        DoubleVector near = DoubleVector.zero(SPECIES);
+        DoubleVector far = p.best;
+
+        DoubleVector t0 = p.invX.mul(bounds[b] - p.ox);
+        DoubleVector t1 = p.invX.mul(bounds[b + 3] - p.ox);
+        VectorMask<Double> swap = t0.compare(VectorOperators.GT, t1);
+        DoubleVector lo = t0.blend(t1, swap);
+        DoubleVector hi = t1.blend(t0, swap);
+        near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+        far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+
+        t0 = p.invY.mul(bounds[b + 1] - p.oy);
+        t1 = p.invY.mul(bounds[b + 4] - p.oy);
+        swap = t0.compare(VectorOperators.GT, t1);
+        lo = t0.blend(t1, swap);
+        hi = t1.blend(t0, swap);
+        near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+        far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+
+        t0 = p.invZ.mul(bounds[b + 2] - p.oz);
+        t1 = p.invZ.mul(bounds[b + 5] - p.oz);
+        swap = t0.compare(VectorOperators.GT, t1);
+        lo = t0.blend(t1, swap);
+        hi = t1.blend(t0, swap);
+        near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+        far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+
+        return near.compare(VectorOperators.LE, far);
+    }
+
+    private static double centerDistance(double[] bounds, int node, Packet p) {
+        int b = node * 6;
+        double x = (bounds[b] + bounds[b + 3]) / 2 - p.ox;
+        double y = (bounds[b + 1] + bounds[b + 4]) / 2 - p.oy;
+        double z = (bounds[b + 2] + bounds[b + 5]) / 2 - p.oz;
+        return x * x + y * y + z * z;
+    }
+
+    /**
+     * Vector registers of a packet during traversal. Escape analysis removes this holder after inlining.
+     */
+    private static final class Packet {
+        final double ox;
+        final double oy;
+        final double oz;
+        final DoubleVector dx;
+        final DoubleVector dy;
+        final DoubleVector dz;
+        final DoubleVector invX;
+        final DoubleVector invY;
+        final DoubleVector invZ;
+        DoubleVector best;
+        DoubleVector primitive;
+
+        Packet(RayPacket packet, DoubleVector dx, DoubleVector dy, DoubleVector dz,
+                DoubleVector invX, DoubleVector invY, DoubleVector invZ) {
+            this.ox = packet.ox;
+            this.oy = packet.oy;
+            this.oz = packet.oz;
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+            this.invX = invX;
+            this.invY = invY;
+            this.invZ = invZ;
+        }
+    }
+}
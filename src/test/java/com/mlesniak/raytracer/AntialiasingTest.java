@@ -0,0 +1,71 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.scene.Scene;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check adaptive supersampling.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class AntialiasingTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+    private static final int MAX_SAMPLES = 16;
+
+    @Test
+    public void onlyEdgesAreSupersampled() {
+        int[] aliased = pixels(new Raytracer(TestScenes.create(WIDTH, HEIGHT, 0)).raytrace());
+
+        Scene scene = TestScenes.create(WIDTH, HEIGHT, 0);
+        scene.setMaxSamples(MAX_SAMPLES);
+        Raytracer raytracer = new Raytracer(scene);
+        int[] antialiased = pixels(raytracer.raytrace());
+
+        assertNotEquals(0, raytracer.getSupersampledPixels());
+        assertTrue(raytracer.getSupersampledPixels() < WIDTH * HEIGHT / 2);
+        assertTrue(raytracer.getExtraSamples() <= raytracer.getSupersampledPixels() * (MAX_SAMPLES - 1));
+        int changed = 0;
+        for (int i = 0; i < aliased.length; i++) {
+            if (aliased[i] != antialiased[i]) {
+                changed++;
+            }
+        }
+        assertTrue(changed <= raytracer.getSupersampledPixels());
+    }
+
+    @Test
+    public void imageIsIndependentOfTiles() {
+        Scene scene = TestScenes.create(WIDTH, HEIGHT, 0);
+        scene.setMaxSamples(MAX_SAMPLES);
+        int[] expected = pixels(new Raytracer(scene).raytrace());
+
+        scene.setTileSize(7);
+        assertArrayEquals(expected, pixels(new Raytracer(scene).raytrace()));
+
+        // Regions detect edges at their border like the complete image.
+        Raytracer raytracer = new Raytracer(scene);
+        int x0 = 20;
+        int y0 = 10;
+        int x1 = 61;
+        int y1 = 43;
+        int[] region = raytracer.raytraceRegion(x0, y0, x1, y1);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                assertEquals(expected[(HEIGHT - y - 1) * WIDTH + x], region[(y1 - y - 1) * (x1 - x0) + x - x0]);
+            }
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,212 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.PackedObjects;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare queries on the compiled scene and its BVH, built in parallel or refitted, against a brute-force loop over
+ * all scene objects.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class BvhTest {
+    private static final double DELTA = 0.000001;
+    private static final int OBJECTS = 500;
+    private static final int RAYS = 2000;
+
+    @Test
+    public void closestHitMatchesBruteForce() {
+        Random random = new Random(42);
+        List<SceneObject> objects = randomSpheres(random);
+        Plane plane = new Plane();
+        plane.setPoint(new Vector3D(0, -15, 0));
+        plane.setNormal(new Vector3D(0, 1, 0));
+        objects.add(plane);
+        assertClosestHits(random, objects, CompiledScene.compile(objects), RAYS);
+    }
+
+    @Test
+    public void parallelBuildMatchesBruteForce() {
+        // Enough spheres to build the upper levels of the hierarchy in parallel.
+        Random random = new Random(3);
+        List<SceneObject> objects = randomSpheres(random, 20000);
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+        assertEquals(objects.size(), compiledScene.getBvh().getPrimitiveCount());
+        assertClosestHits(random, objects, compiledScene, 200);
+    }
+
+    @Test
+    public void refittedSceneMatchesBruteForce() {
+        Random random = new Random(5);
+        List<SceneObject> objects = randomSpheres(random);
+        CompiledScene previous = CompiledScene.compile(objects);
+
+        // Move a few spheres slightly, as an animation would.
+        for (int i = 0; i < objects.size(); i += 10) {
+            Sphere sphere = (Sphere) objects.get(i);
+            sphere.setCenter(sphere.getCenter().plus(new Vector3D(0.5, -0.25, 0.5)));
+        }
+        CompiledScene compiledScene = CompiledScene.compile(PackedObjects.of(objects), null, null, previous);
+        assertTrue(compiledScene.getBvh().isRefitted());
+        assertFalse(previous.getBvh().isRefitted());
+        assertClosestHits(random, objects, compiledScene, RAYS);
+    }
+
+    @Test
+    public void degradedHierarchyIsRebuilt() {
+        Random random = new Random(9);
+        List<SceneObject> objects = randomSpheres(random);
+        CompiledScene previous = CompiledScene.compile(objects);
+
+        // Swap all spheres with random other spheres, hence leaves span the whole scene.
+        List<SceneObject> shuffled = new ArrayList<>(objects);
+        Collections.shuffle(shuffled, random);
+        CompiledScene compiledScene = CompiledScene.compile(PackedObjects.of(shuffled), null, null, previous);
+        assertFalse(compiledScene.getBvh().isRefitted());
+        assertClosestHits(random, shuffled, compiledScene, RAYS);
+
+        // A different number of spheres is never refitted.
+        shuffled.remove(0);
+        compiledScene = CompiledScene.compile(PackedObjects.of(shuffled), null, null, compiledScene);
+        assertFalse(compiledScene.getBvh().isRefitted());
+    }
+
+    @Test
+    public void anyHitMatchesBruteForce() {
+        Random random = new Random(7);
+        List<SceneObject> objects = randomSpheres(random);
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+
+        Vector3D origin = new Vector3D(0, 0, 0);
+        for (int i = 0; i < RAYS; i++) {
+            Vector3D ray = randomDirection(random);
+            boolean expected = false;
+            for (SceneObject object : objects) {
+                expected |= object.computeIntersection(origin, ray).isPresent();
+            }
+            boolean actual = compiledScene.anyHit(new Ray().set(origin, ray), CompiledScene.NONE,
+                    new TraversalStack());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void findOccluderMatchesBruteForce() {
+        Random random = new Random(11);
+        List<SceneObject> objects = randomSpheres(random);
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+        TraversalStack stack = new TraversalStack();
+
+        int occluder = CompiledScene.NONE;
+        for (int i = 0; i < RAYS; i++) {
+            Ray ray = new Ray().set(new Vector3D(0, 0, 0), randomDirection(random));
+            double maxDistance = random.nextDouble() * 30;
+            boolean expected = false;
+            for (SceneObject object : objects) {
+                expected |= object.intersect(ray) < maxDistance;
+            }
+
+            // Pass the previous occluder as candidate, which is not necessarily an occluder of this ray.
+            int found = compiledScene.findOccluder(ray, maxDistance, CompiledScene.NONE, occluder, stack);
+            assertEquals(expected, found != CompiledScene.NONE);
+            if (found != CompiledScene.NONE) {
+                occluder = found;
+            }
+        }
+    }
+
+    @Test
+    public void emptyScene() {
+        CompiledScene compiledScene = CompiledScene.compile(new ArrayList<>());
+        Ray ray = new Ray().set(0, 0, 0, 1, 0, 0);
+        assertFalse(compiledScene.closestHit(ray, new HitRecord(), new TraversalStack()));
+        assertFalse(compiledScene.anyHit(ray, CompiledScene.NONE, new TraversalStack()));
+    }
+
+    @Test
+    public void ignoredPrimitiveIsSkipped() {
+        List<SceneObject> objects = new ArrayList<>();
+        objects.add(sphere(new Vector3D(0, 0, -5), 1));
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+
+        Ray ray = new Ray().set(0, 0, 0, 0, 0, -1);
+        HitRecord hit = new HitRecord();
+        assertTrue(compiledScene.closestHit(ray, hit, new TraversalStack()));
+        assertTrue(compiledScene.anyHit(ray, CompiledScene.NONE, new TraversalStack()));
+        assertFalse(compiledScene.anyHit(ray, hit.primitive, new TraversalStack()));
+    }
+
+    private static void assertClosestHits(Random random, List<SceneObject> objects, CompiledScene compiledScene,
+            int rays) {
+        Vector3D origin = new Vector3D(0, 0, 0);
+        for (int i = 0; i < rays; i++) {
+            Vector3D ray = randomDirection(random);
+            double expected = Double.MAX_VALUE;
+            for (SceneObject object : objects) {
+                Optional<Vector3D> intersection = object.computeIntersection(origin, ray);
+                if (intersection.isPresent()) {
+                    expected = Math.min(expected, origin.distance(intersection.get()));
+                }
+            }
+
+            HitRecord hit = new HitRecord();
+            boolean found = compiledScene.closestHit(new Ray().set(origin, ray), hit, new TraversalStack());
+            assertEquals(expected != Double.MAX_VALUE, found);
+            if (found) {
+                assertEquals(expected, hit.distance, DELTA);
+            }
+        }
+    }
+
+    private static List<SceneObject> randomSpheres(Random random) {
+        return randomSpheres(random, OBJECTS);
+    }
+
+    private static List<SceneObject> randomSpheres(Random random, int count) {
+        List<SceneObject> objects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Vector3D center = new Vector3D(
+                    random.nextDouble() * 40 - 20,
+                    random.nextDouble() * 40 - 20,
+                    random.nextDouble() * 40 - 20);
+            if (center.length() < 2) {
+                // Keep the origin outside of all spheres.
+                continue;
+            }
+            objects.add(sphere(center, 0.1 + random.nextDouble() * 0.9));
+        }
+        return objects;
+    }
+
+    private static Sphere sphere(Vector3D center, double radius) {
+        Sphere sphere = new Sphere();
+        sphere.setCenter(center);
+        sphere.setRadius(radius);
+        return sphere;
+    }
+
+    private static Vector3D randomDirection(Random random) {
+        return new Vector3D(
+                random.nextGaussian(),
+                random.nextGaussian(),
+                random.nextGaussian()).normalize();
+    }
+}
@@ -0,0 +1,178 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.distributed.RenderCoordinator;
+import com.mlesniak.raytracer.distributed.RenderWorker;
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.scene.Scene;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Render scenes with workers on localhost and compare the result with a local render.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class DistributedRenderTest {
+    @Test
+    public void distributedImageEqualsLocalImage() throws Exception {
+        Scene scene = TestScenes.create(150, 100, 0);
+        BufferedImage expected = new Raytracer(scene).raytrace();
+
+        List<RenderWorker> workers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RenderWorker worker = new RenderWorker(0);
+            worker.start();
+            workers.add(worker);
+            addresses.add(new InetSocketAddress("localhost", worker.getPort()));
+        }
+
+        try {
+            RenderCoordinator coordinator = new RenderCoordinator(addresses);
+            coordinator.setTileSize(32);
+            assertArrayEquals(pixels(expected), pixels(coordinator.render(scene)));
+            // Connections are not reused, a second image works as well.
+            assertArrayEquals(pixels(expected), pixels(coordinator.render(scene)));
+        } finally {
+            for (RenderWorker worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    @Test
+    public void tilesOfFailedWorkersAreRetried() throws Exception {
+        Scene scene = TestScenes.create(96, 64, 0);
+        BufferedImage expected = new Raytracer(scene).raytrace();
+
+        // Accepts the scene and dies while rendering the first tile.
+        ServerSocket failing = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            while (!failing.isClosed()) {
+                try (Socket socket = failing.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readInt();
+                    in.readInt();
+                    in.readFully(new byte[in.readInt()]);
+                    out.writeInt(0);
+                    out.flush();
+                    in.readInt();
+                } catch (IOException e) {
+                    // Closed by test.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        RenderWorker worker = new RenderWorker(0);
+        worker.start();
+
+        try {
+            RenderCoordinator coordinator = new RenderCoordinator(Arrays.asList(
+                    new InetSocketAddress("localhost", failing.getLocalPort()),
+                    new InetSocketAddress("localhost", worker.getPort())));
+            coordinator.setTileSize(16);
+            assertArrayEquals(pixels(expected), pixels(coordinator.render(scene)));
+        } finally {
+            failing.close();
+            worker.close();
+        }
+    }
+
+    @Test
+    public void tilesWithWrongPixelCountAreRetried() throws Exception {
+        Scene scene = TestScenes.create(96, 64, 0);
+        BufferedImage expected = new Raytracer(scene).raytrace();
+
+        // Accepts the scene and announces far more pixels than requested for every tile.
+        ServerSocket broken = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            while (!broken.isClosed()) {
+                try (Socket socket = broken.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readInt();
+                    in.readInt();
+                    in.readFully(new byte[in.readInt()]);
+                    out.writeInt(0);
+                    out.flush();
+                    for (int i = 0; i < 6; i++) {
+                        in.readInt();
+                    }
+                    out.writeInt(0);
+                    out.writeInt(Integer.MAX_VALUE);
+                    out.flush();
+                    in.readInt();
+                } catch (IOException e) {
+                    // Closed by coordinator or test.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        RenderWorker worker = new RenderWorker(0);
+        worker.start();
+
+        try {
+            RenderCoordinator coordinator = new RenderCoordinator(Arrays.asList(
+                    new InetSocketAddress("localhost", broken.getLocalPort()),
+                    new InetSocketAddress("localhost", worker.getPort())));
+            coordinator.setTileSize(16);
+            assertArrayEquals(pixels(expected), pixels(coordinator.render(scene)));
+        } finally {
+            broken.close();
+            worker.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutWorkers() throws Exception {
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+
+        RenderCoordinator coordinator = new RenderCoordinator(
+                Arrays.asList(new InetSocketAddress("localhost", port)));
+        coordinator.render(TestScenes.create(32, 32, 0));
+    }
+
+    @Test
+    public void workersAcceptSceneTags() throws Exception {
+        String yaml = TestScenes.create(32, 32, 0).toYaml();
+        assertEquals(Scene.parseScene(yaml).toYaml(), Scene.parseRemoteScene(yaml).toYaml());
+    }
+
+    @Test(expected = IOException.class)
+    public void workersRejectOtherTags() throws Exception {
+        Scene.parseRemoteScene(TestScenes.create(32, 32, 0).toYaml() +
+                "geometries:\n" +
+                "  - !java.lang.Thread\n" +
+                "    name: worker\n");
+    }
+
+    @Test
+    public void workersListenOnLoopback() throws Exception {
+        try (RenderWorker worker = new RenderWorker(0)) {
+            assertTrue(worker.getAddress().isLoopbackAddress());
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
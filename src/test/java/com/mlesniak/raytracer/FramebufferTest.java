@@ -0,0 +1,64 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.render.MappedFramebuffer;
+import com.mlesniak.raytracer.scene.Scene;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that images rendered into a memory-mapped file equal images rendered on the heap.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class FramebufferTest {
+    private static final int WIDTH = 75;
+    private static final int HEIGHT = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedImageEqualsImage() throws Exception {
+        Scene scene = TestScenes.create(WIDTH, HEIGHT, 16);
+        assertMappedImageEqualsImage(scene);
+    }
+
+    @Test
+    public void mappedAntialiasedImageEqualsImage() throws Exception {
+        Scene scene = TestScenes.create(WIDTH, HEIGHT, 16);
+        scene.setMaxSamples(8);
+        assertMappedImageEqualsImage(scene);
+    }
+
+    private void assertMappedImageEqualsImage(Scene scene) throws Exception {
+        BufferedImage expected = new Raytracer(scene).raytrace();
+
+        File file = folder.newFile("image.ppm");
+        int[] row = new int[WIDTH];
+        try (MappedFramebuffer framebuffer = new MappedFramebuffer(file.toPath(), WIDTH, HEIGHT)) {
+            new Raytracer(scene).raytrace(framebuffer);
+            for (int y = 0; y < HEIGHT; y++) {
+                framebuffer.getRow(y, row);
+                assertArrayEquals(expected.getRGB(0, y, WIDTH, 1, null, 0, WIDTH), row);
+            }
+        }
+
+        // The file is a complete PPM image.
+        byte[] data = Files.readAllBytes(file.toPath());
+        String header = "P6\n" + WIDTH + " " + HEIGHT + "\n255\n";
+        assertEquals(header, new String(data, 0, header.length(), StandardCharsets.US_ASCII));
+        assertEquals(header.length() + WIDTH * HEIGHT * 3, data.length);
+        int last = expected.getRGB(WIDTH - 1, HEIGHT - 1);
+        assertEquals(last & 0xFF, data[data.length - 1] & 0xFF);
+    }
+}
@@ -0,0 +1,98 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.util.GifWriter;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Read animations written by the GIF writer back and compare the frames with the original images.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class GifWriterTest {
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+    private static final int FRAMES = 7;
+
+    @Test
+    public void framesAreWrittenInOrder() throws Exception {
+        BufferedImage[] images = new BufferedImage[FRAMES];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // Fewer threads than frames, such that frames wait for their predecessors.
+        GifWriter writer = new GifWriter(output, 100, true, 2);
+        for (int i = 0; i < FRAMES; i++) {
+            images[i] = gradient(i * 30);
+            writer.writeToSequence(images[i]);
+        }
+        writer.close();
+
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            reader.setInput(input);
+            assertEquals(FRAMES, reader.getNumImages(true));
+            for (int i = 0; i < FRAMES; i++) {
+                BufferedImage frame = reader.read(i);
+                assertEquals(WIDTH, frame.getWidth());
+                assertEquals(HEIGHT, frame.getHeight());
+                assertSimilar(images[i], frame, 24);
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void noisyImageNeedsTableResets() throws Exception {
+        // Random pixels fill the LZW table quickly, which is reset multiple times.
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt(8) * 0x202020);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GifWriter writer = new GifWriter(output, 100, false);
+        writer.writeToSequence(image);
+        writer.close();
+
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+        // Only 8 different colors, which are all part of the palette.
+        assertSimilar(image, read, 0);
+    }
+
+    private static BufferedImage gradient(int offset) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int red = (x + offset) % 256;
+                int green = y * 255 / HEIGHT;
+                image.setRGB(x, y, red << 16 | green << 8 | 128);
+            }
+        }
+        return image;
+    }
+
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual, int tolerance) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int difference = Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                    assertTrue("Pixel " + x + "," + y, difference <= tolerance);
+                }
+            }
+        }
+    }
+}
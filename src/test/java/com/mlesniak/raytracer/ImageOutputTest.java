@@ -0,0 +1,108 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.render.ImageFramebuffer;
+import com.mlesniak.raytracer.util.ImageOutputs;
+import com.mlesniak.raytracer.util.PfmWriter;
+import com.mlesniak.raytracer.util.PngWriter;
+import com.mlesniak.raytracer.util.PpmWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Read images written by the image writers back and compare them with the original.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class ImageOutputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pngWithManyBlocksIsReadable() throws Exception {
+        // Large enough for multiple blocks, which are compressed by fewer threads than blocks.
+        BufferedImage image = image(700, 600);
+        File file = folder.newFile("image.png");
+        new PngWriter(2).write(new ImageFramebuffer(image), file.toPath());
+
+        BufferedImage read = ImageIO.read(file);
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        assertArrayEquals(pixels(image), pixels(read));
+    }
+
+    @Test
+    public void ppmContainsRgbBytes() throws Exception {
+        BufferedImage image = image(13, 7);
+        File file = folder.newFile("image.ppm");
+        new PpmWriter().write(new ImageFramebuffer(image), file.toPath());
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        String header = "P6\n13 7\n255\n";
+        assertEquals(header, new String(data, 0, header.length(), StandardCharsets.US_ASCII));
+        assertEquals(header.length() + 13 * 7 * 3, data.length);
+        int rgb = image.getRGB(4, 2);
+        int index = header.length() + (2 * 13 + 4) * 3;
+        assertEquals((rgb >> 16) & 0xFF, data[index] & 0xFF);
+        assertEquals((rgb >> 8) & 0xFF, data[index + 1] & 0xFF);
+        assertEquals(rgb & 0xFF, data[index + 2] & 0xFF);
+    }
+
+    @Test
+    public void pfmStoresRowsBottomUp() throws Exception {
+        BufferedImage image = image(13, 7);
+        File file = folder.newFile("image.pfm");
+        new PfmWriter().write(new ImageFramebuffer(image), file.toPath());
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        String header = "PF\n13 7\n-1.0\n";
+        assertEquals(header.length() + 13 * 7 * 12, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data, header.length(), data.length - header.length())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        // The first pixel of the file is the lower left pixel of the image.
+        int rgb = image.getRGB(0, 6);
+        assertEquals(((rgb >> 16) & 0xFF) / 255f, buffer.getFloat(), 0);
+        assertEquals(((rgb >> 8) & 0xFF) / 255f, buffer.getFloat(), 0);
+        assertEquals((rgb & 0xFF) / 255f, buffer.getFloat(), 0);
+    }
+
+    @Test
+    public void formatIsSelectedByExtension() {
+        assertTrue(ImageOutputs.forFilename("image.PPM") instanceof PpmWriter);
+        assertTrue(ImageOutputs.forFilename("image.pfm") instanceof PfmWriter);
+        assertTrue(ImageOutputs.forFilename("image.png") instanceof PngWriter);
+        assertTrue(ImageOutputs.forFilename("image") instanceof PngWriter);
+    }
+
+    // Smooth gradients with some noise, similar to rendered images.
+    private static BufferedImage image(int width, int height) {
+        Random random = new Random(3);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = random.nextInt(256);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
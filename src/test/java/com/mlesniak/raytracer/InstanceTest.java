@@ -0,0 +1,197 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Geometry;
+import com.mlesniak.raytracer.scene.Instance;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare instances of shared geometries against scenes which contain the transformed objects directly.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class InstanceTest {
+    private static final double DELTA = 0.000001;
+    private static final int INSTANCES = 2000;
+    private static final int RAYS = 2000;
+
+    @Test
+    public void instancesMatchTransformedObjects() {
+        // Two spheres per instance, which stay spheres under rotation and uniform scaling.
+        Geometry geometry = geometry("pair", sphere(new Vector3D(0, 0, 0), 1, 0xFF0000),
+                sphere(new Vector3D(1.5, 0.5, 0), 0.5, 0x00FF00));
+        Random random = new Random(17);
+        List<Instance> instances = new ArrayList<>();
+        List<SceneObject> objects = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            Vector3D translation = randomDirection(random).scale(10 + random.nextDouble() * 90);
+            Vector3D rotation = new Vector3D(random.nextDouble() * 360, random.nextDouble() * 360,
+                    random.nextDouble() * 360);
+            double scale = 0.2 + random.nextDouble();
+            Instance instance = instance("pair", translation, rotation, scale);
+            instances.add(instance);
+
+            double[] m = instance.computeMatrix();
+            for (SceneObject object : geometry.getObjects()) {
+                Sphere sphere = (Sphere) object;
+                Vector3D c = sphere.getCenter();
+                objects.add(sphere(new Vector3D(
+                        m[0] * c.x + m[1] * c.y + m[2] * c.z + m[3],
+                        m[4] * c.x + m[5] * c.y + m[6] * c.z + m[7],
+                        m[8] * c.x + m[9] * c.y + m[10] * c.z + m[11]), sphere.getRadius() * scale,
+                        sphere.getColor()));
+            }
+        }
+        CompiledScene instanced = CompiledScene.compile(new ArrayList<>(), Collections.singletonList(geometry),
+                instances);
+        CompiledScene expected = CompiledScene.compile(objects);
+        assertEquals(INSTANCES, instanced.getInstanceCount());
+        assertEquals(INSTANCES * 2, instanced.getPrimitiveCount());
+
+        TraversalStack stack = new TraversalStack();
+        int hits = 0;
+        for (int i = 0; i < RAYS; i++) {
+            Ray ray = new Ray().set(new Vector3D(0, 0, 0), randomDirection(random));
+            HitRecord expectedHit = new HitRecord();
+            HitRecord hit = new HitRecord();
+            boolean found = expected.closestHit(ray, expectedHit, stack);
+            assertEquals(found, instanced.closestHit(ray, hit, stack));
+            if (!found) {
+                continue;
+            }
+            hits++;
+            assertEquals(expectedHit.distance, hit.distance, DELTA);
+            expected.resolve(ray, expectedHit);
+            instanced.resolve(ray, hit);
+            assertEquals(expectedHit.color, hit.color);
+            assertEquals(0, expectedHit.normal.distance(hit.normal), DELTA);
+            assertEquals(0, expectedHit.point.distance(hit.point), DELTA);
+
+            // Shadow rays from the hit towards the origin ignore the hit primitive itself.
+            Ray back = new Ray().set(hit.point, new Vector3D(-ray.dx, -ray.dy, -ray.dz));
+            int expectedOccluder = expected.findOccluder(back, hit.distance, expectedHit.primitive,
+                    CompiledScene.NONE, stack);
+            int occluder = instanced.findOccluder(back, hit.distance, hit.primitive, CompiledScene.NONE, stack);
+            assertEquals(expectedOccluder != CompiledScene.NONE, occluder != CompiledScene.NONE);
+            // The hit primitive as candidate blocks the ray from the origin.
+            assertEquals(hit.primitive, instanced.findOccluder(ray, hit.distance + 1, CompiledScene.NONE,
+                    hit.primitive, stack));
+        }
+        assertTrue(hits > 0);
+    }
+
+    @Test
+    public void nonUniformMatrix() {
+        Instance instance = new Instance();
+        instance.setGeometry("unit");
+        // Stretch by two along the x-axis and move to x = 10.
+        instance.setMatrix(Arrays.asList(2.0, 0.0, 0.0, 10.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0));
+        CompiledScene compiledScene = CompiledScene.compile(new ArrayList<>(),
+                Collections.singletonList(geometry("unit", sphere(new Vector3D(0, 0, 0), 1, 0xFFFFFF))),
+                Collections.singletonList(instance));
+
+        HitRecord hit = new HitRecord();
+        Ray ray = new Ray().set(0, 0, 0, 1, 0, 0);
+        assertTrue(compiledScene.closestHit(ray, hit, new TraversalStack()));
+        assertEquals(8, hit.distance, DELTA);
+
+        hit.reset();
+        ray = new Ray().set(11, 5, 0, 0, -1, 0);
+        assertTrue(compiledScene.closestHit(ray, hit, new TraversalStack()));
+        compiledScene.resolve(ray, hit);
+        double y = Math.sqrt(1 - 0.25);
+        assertEquals(5 - y, hit.distance, DELTA);
+        // Normal of the ellipsoid x^2 / 4 + y^2 = 1 at (1, y) relative to its center.
+        double nx = 1.0 / 4;
+        double length = Math.sqrt(nx * nx + y * y);
+        assertEquals(nx / length, hit.normal.x, DELTA);
+        assertEquals(y / length, hit.normal.y, DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownGeometry() {
+        CompiledScene.compile(new ArrayList<>(), new ArrayList<>(),
+                Collections.singletonList(instance("missing", new Vector3D(0, 0, 0), null, 1)));
+    }
+
+    @Test
+    public void parseAndRenderInstances() throws Exception {
+        Scene scene = Scene.parseScene("width: 64\n" +
+                "height: 48\n" +
+                "fov: 90\n" +
+                "camera: {x: 0, y: 0, z: 0}\n" +
+                "lookAt: {x: 0, y: 0, z: 1}\n" +
+                "lights:\n" +
+                "  - !com.mlesniak.raytracer.math.Vector3D {x: 5, y: 10, z: 0}\n" +
+                "objects: []\n" +
+                "geometries:\n" +
+                "  - name: ball\n" +
+                "    objects:\n" +
+                "      - !com.mlesniak.raytracer.scene.Sphere\n" +
+                "        color: 0x3060F0\n" +
+                "        radius: 1\n" +
+                "instances:\n" +
+                "  - geometry: ball\n" +
+                "    translation: {x: 0, y: 0, z: 5}\n" +
+                "  - geometry: ball\n" +
+                "    translation: {x: 3, y: 0, z: 8}\n" +
+                "    rotation: {x: 0, y: 45, z: 0}\n" +
+                "    scale: 2\n");
+        assertEquals(2, scene.getInstances().size());
+        assertEquals(2, Scene.parseScene(scene.toYaml()).getInstances().size());
+
+        BufferedImage image = new Raytracer(scene).raytrace();
+        assertNotEquals(0, image.getRGB(32, 24) & 0xFFFFFF);
+        assertEquals(0, image.getRGB(0, 0) & 0xFFFFFF);
+    }
+
+    private static Geometry geometry(String name, SceneObject... objects) {
+        Geometry geometry = new Geometry();
+        geometry.setName(name);
+        geometry.setObjects(Arrays.asList(objects));
+        return geometry;
+    }
+
+    private static Instance instance(String geometry, Vector3D translation, Vector3D rotation, double scale) {
+        Instance instance = new Instance();
+        instance.setGeometry(geometry);
+        instance.setTranslation(translation);
+        instance.setRotation(rotation);
+        instance.setScale(scale);
+        return instance;
+    }
+
+    private static Sphere sphere(Vector3D center, double radius, int color) {
+        Sphere sphere = new Sphere();
+        sphere.setCenter(center);
+        sphere.setRadius(radius);
+        sphere.setColor(color);
+        return sphere;
+    }
+
+    private static Vector3D randomDirection(Random random) {
+        return new Vector3D(
+                random.nextGaussian(),
+                random.nextGaussian(),
+                random.nextGaussian()).normalize();
+    }
+}
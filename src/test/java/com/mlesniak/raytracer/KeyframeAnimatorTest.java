@@ -0,0 +1,56 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.animation.KeyframeAnimator;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check interpolation of keyframes parsed from a scene description.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class KeyframeAnimatorTest {
+    private static final double DELTA = 0.000001;
+
+    @Test
+    public void interpolatesKeyframes() throws Exception {
+        Scene scene = Scene.parseScene(TestScenes.create(10, 10, 0).toYaml() +
+                "animation:\n" +
+                "  ticks: 10\n" +
+                "  keyframes:\n" +
+                "    - property: objects.0.radius\n" +
+                "      tick: 8\n" +
+                "      value: 3\n" +
+                "    - property: objects.0.radius\n" +
+                "      tick: 4\n" +
+                "      value: 1\n" +
+                "    - property: lights.0.y\n" +
+                "      tick: 0\n" +
+                "      value: 0\n" +
+                "    - property: lights.0.y\n" +
+                "      tick: 10\n" +
+                "      value: 10\n" +
+                "      interpolation: smooth\n" +
+                "    - property: width\n" +
+                "      tick: 0\n" +
+                "      value: 99.6\n");
+        KeyframeAnimator animator = new KeyframeAnimator(scene.getAnimation().getKeyframes());
+        Sphere sphere = (Sphere) scene.getObjects().get(0);
+
+        animator.animate(scene, 0);
+        assertEquals(1, sphere.getRadius(), DELTA);
+        assertEquals(0, scene.getLights().get(0).y, DELTA);
+        assertEquals(100, scene.getWidth());
+
+        animator.animate(scene, 5);
+        assertEquals(1.5, sphere.getRadius(), DELTA);
+        assertEquals(5, scene.getLights().get(0).y, DELTA);
+
+        animator.animate(scene, 9);
+        assertEquals(3, sphere.getRadius(), DELTA);
+        assertEquals(10 * 0.972, scene.getLights().get(0).y, DELTA);
+    }
+}
@@ -0,0 +1,322 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.accel.TriangleMesh;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.mesh.MeshLoader;
+import com.mlesniak.raytracer.scene.Mesh;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load meshes from OBJ and PLY files and compare their intersections against a brute-force loop over all triangles.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class MeshTest {
+    private static final double DELTA = 0.000001;
+    private static final int RAYS = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void objWithPolygonsAndRelativeIndices() throws Exception {
+        TriangleMesh mesh = MeshLoader.load(write("quad.obj",
+                "# unit quad at z = 5\n" +
+                "o quad\n" +
+                "v -1 -1 5\n" +
+                "v 1 -1 5.0\n" +
+                "\n" +
+                "v 1.0 1e0 5\n" +
+                "v -1 1 +5\n" +
+                "vt 0 0\n" +
+                "vn 0 0 -1\n" +
+                "f 1/1/1 2/1/1 3//1 -1\n" +
+                "f -4 -3 -2\n").toPath());
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(3, mesh.getTriangleCount());
+        assertEquals(5, mesh.intersect(new Ray().set(0, 0, 0, 0, 0, 1)), DELTA);
+        assertEquals(Ray.NO_INTERSECTION, mesh.intersect(new Ray().set(0, 0, 0, 0, 0, -1)), DELTA);
+
+        Vector3D normal = new Vector3D();
+        mesh.computeNormal(0.5, 0.5, 5, normal);
+        assertEquals(1, Math.abs(normal.z), DELTA);
+    }
+
+    @Test
+    public void plyAsciiAndBinaryAreEqual() throws Exception {
+        String header = "ply\n" +
+                "format %s 1.0\n" +
+                "comment exported for testing\n" +
+                "element vertex 4\n" +
+                "property float x\n" +
+                "property float y\n" +
+                "property float z\n" +
+                "property uchar red\n" +
+                "element face 1\n" +
+                "property uchar flags\n" +
+                "property list uchar int vertex_indices\n" +
+                "element edge 1\n" +
+                "property int vertex1\n" +
+                "property int vertex2\n" +
+                "end_header\n";
+        TriangleMesh ascii = MeshLoader.load(write("ascii.ply", String.format(header, "ascii") +
+                "-1 -1 5 255\n1 -1 5 0\n1 1 5 0\n-1 1 5 0\n0 4 0 1 2 3\n0 1\n").toPath());
+
+        ByteBuffer data = ByteBuffer.allocate(4 * 13 + 2 + 4 * 4 + 2 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        float[][] vertices = {{-1, -1, 5}, {1, -1, 5}, {1, 1, 5}, {-1, 1, 5}};
+        for (float[] vertex : vertices) {
+            data.putFloat(vertex[0]).putFloat(vertex[1]).putFloat(vertex[2]).put((byte) 255);
+        }
+        data.put((byte) 0).put((byte) 4).putInt(0).putInt(1).putInt(2).putInt(3);
+        data.putInt(0).putInt(1);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        binary.write(String.format(header, "binary_little_endian").getBytes(StandardCharsets.US_ASCII));
+        binary.write(data.array(), 0, data.position());
+        File file = folder.newFile("binary.ply");
+        Files.write(file.toPath(), binary.toByteArray());
+        TriangleMesh little = MeshLoader.load(file.toPath());
+
+        assertEquals(2, ascii.getTriangleCount());
+        assertEquals(ascii.getTriangleCount(), little.getTriangleCount());
+        Random random = new Random(3);
+        for (int i = 0; i < RAYS; i++) {
+            Ray ray = new Ray().set(new Vector3D(0, 0, 0), randomDirection(random));
+            assertEquals(ascii.intersect(ray), little.intersect(ray), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidVertexIndex() throws Exception {
+        MeshLoader.load(write("invalid.obj", "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 4\n").toPath());
+    }
+
+    @Test(expected = IOException.class)
+    public void plyCountsBeyondFileSize() throws Exception {
+        MeshLoader.load(write("truncated.ply", "ply\n" +
+                "format binary_little_endian 1.0\n" +
+                "element vertex 700000000\n" +
+                "property float x\n" +
+                "property float y\n" +
+                "property float z\n" +
+                "end_header\n").toPath());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFormat() throws Exception {
+        MeshLoader.load(write("mesh.stl", "solid\n").toPath());
+    }
+
+    @Test
+    public void sharedEdgesAndVerticesAreWatertight() {
+        // Uneven grid whose inner edges are shared. Rays through inner vertices and edges must hit some triangle.
+        int size = 8;
+        Random random = new Random(5);
+        float[] positions = new float[(size + 1) * (size + 1) * 3];
+        for (int y = 0; y <= size; y++) {
+            for (int x = 0; x <= size; x++) {
+                int v = (y * (size + 1) + x) * 3;
+                positions[v] = x - size / 2f;
+                positions[v + 1] = y - size / 2f;
+                positions[v + 2] = 10 + random.nextFloat();
+            }
+        }
+        int[] triangles = new int[size * size * 6];
+        int t = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * (size + 1) + x;
+                triangles[t++] = v;
+                triangles[t++] = v + 1;
+                triangles[t++] = v + size + 2;
+                triangles[t++] = v;
+                triangles[t++] = v + size + 2;
+                triangles[t++] = v + size + 1;
+            }
+        }
+        TriangleMesh mesh = new TriangleMesh(positions, triangles);
+
+        Vector3D origin = new Vector3D(0.1, -0.2, 0);
+        for (int i = 0; i < triangles.length; i += 3) {
+            int a = triangles[i] * 3;
+            int b = triangles[i + 1] * 3;
+            int c = triangles[i + 2] * 3;
+            for (int j = 0; j <= 4; j++) {
+                // Vertices and points along the edges.
+                double s = j / 4.0;
+                assertHit(mesh, origin, lerp(positions, a, b, s));
+                assertHit(mesh, origin, lerp(positions, b, c, s));
+                assertHit(mesh, origin, lerp(positions, c, a, s));
+            }
+        }
+    }
+
+    @Test
+    public void closestHitMatchesBruteForce() throws Exception {
+        Random random = new Random(13);
+        float[] positions = new float[300 * 9];
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < positions.length; i += 3) {
+            if (i % 9 == 0) {
+                Vector3D center = randomDirection(random).scale(5 + random.nextDouble() * 15);
+                positions[i] = (float) center.x;
+                positions[i + 1] = (float) center.y;
+                positions[i + 2] = (float) center.z;
+            } else {
+                int first = i - i % 9;
+                positions[i] = positions[first] + (float) random.nextGaussian();
+                positions[i + 1] = positions[first + 1] + (float) random.nextGaussian();
+                positions[i + 2] = positions[first + 2] + (float) random.nextGaussian();
+            }
+            obj.append("v ").append(positions[i]).append(' ').append(positions[i + 1]).append(' ')
+                    .append(positions[i + 2]).append('\n');
+        }
+        for (int i = 1; i <= positions.length / 3; i += 3) {
+            obj.append("f ").append(i).append(' ').append(i + 1).append(' ').append(i + 2).append('\n');
+        }
+        Mesh mesh = new Mesh();
+        mesh.setFile(write("soup.obj", obj.toString()).getPath());
+        List<SceneObject> objects = new ArrayList<>();
+        objects.add(mesh);
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+        assertEquals(300, compiledScene.getTriangleCount());
+
+        TraversalStack stack = new TraversalStack();
+        for (int i = 0; i < RAYS; i++) {
+            Ray ray = new Ray().set(new Vector3D(0, 0, 0), randomDirection(random));
+            double expected = Ray.NO_INTERSECTION;
+            for (int v = 0; v < positions.length; v += 9) {
+                expected = Math.min(expected, intersect(positions, v, ray));
+            }
+
+            HitRecord hit = new HitRecord();
+            boolean found = compiledScene.closestHit(ray, hit, stack);
+            assertEquals(expected != Ray.NO_INTERSECTION, found);
+            if (!found) {
+                continue;
+            }
+            assertEquals(expected, hit.distance, DELTA);
+
+            // A shadow ray which starts at the hit does not hit its own triangle, but every ray towards the origin
+            // is blocked by the triangle.
+            compiledScene.resolve(ray, hit);
+            Ray back = new Ray().set(hit.point, new Vector3D(-ray.dx, -ray.dy, -ray.dz));
+            assertFalse(compiledScene.findOccluder(back, hit.distance * 0.5, hit.primitive, CompiledScene.NONE,
+                    stack) == hit.primitive);
+            Ray blocked = new Ray().set(0, 0, 0, ray.dx, ray.dy, ray.dz);
+            assertNotEquals(CompiledScene.NONE, compiledScene.findOccluder(blocked, hit.distance + 1,
+                    CompiledScene.NONE, hit.primitive, stack));
+        }
+        assertTrue(stack.getTriangleTests() > 0);
+    }
+
+    @Test
+    public void renderSceneWithMesh() throws Exception {
+        Scene scene = TestScenes.create(64, 48, 0);
+        BufferedImage without = new Raytracer(scene).raytrace();
+
+        Mesh mesh = new Mesh();
+        mesh.setFile(write("tetrahedron.obj",
+                "v 0 1 4\nv -1 -0.5 3.5\nv 1 -0.5 3.5\nv 0 -0.5 5\n" +
+                "f 1 2 3\nf 1 3 4\nf 1 4 2\nf 2 4 3\n").getPath());
+        mesh.setColor(0xF03030);
+        List<SceneObject> objects = new ArrayList<>(scene.getObjects());
+        objects.add(mesh);
+        scene.setObjects(objects);
+        BufferedImage with = new Raytracer(scene).raytrace();
+
+        // The tetrahedron covers the center of the image.
+        assertNotEquals(without.getRGB(32, 24), with.getRGB(32, 24));
+        assertEquals(without.getRGB(0, 0), with.getRGB(0, 0));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static void assertHit(TriangleMesh mesh, Vector3D origin, Vector3D target) {
+        if (Math.abs(target.x) == 4 || Math.abs(target.y) == 4) {
+            // Outer border of the grid.
+            return;
+        }
+        Ray ray = new Ray().set(origin, origin.path(target).normalize());
+        assertNotEquals("Ray towards " + target, Ray.NO_INTERSECTION, mesh.intersect(ray), 0);
+    }
+
+    private static Vector3D lerp(float[] positions, int a, int b, double s) {
+        return new Vector3D(
+                positions[a] + (positions[b] - positions[a]) * s,
+                positions[a + 1] + (positions[b + 1] - positions[a + 1]) * s,
+                positions[a + 2] + (positions[b + 2] - positions[a + 2]) * s);
+    }
+
+    // Moeller-Trumbore intersection of the triangle starting at the given position.
+    private static double intersect(float[] p, int v, Ray ray) {
+        double e1x = p[v + 3] - p[v];
+        double e1y = p[v + 4] - p[v + 1];
+        double e1z = p[v + 5] - p[v + 2];
+        double e2x = p[v + 6] - p[v];
+        double e2y = p[v + 7] - p[v + 1];
+        double e2z = p[v + 8] - p[v + 2];
+        double px = ray.dy * e2z - ray.dz * e2y;
+        double py = ray.dz * e2x - ray.dx * e2z;
+        double pz = ray.dx * e2y - ray.dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (Math.abs(det) < 1e-12) {
+            return Ray.NO_INTERSECTION;
+        }
+        double tx = ray.ox - p[v];
+        double ty = ray.oy - p[v + 1];
+        double tz = ray.oz - p[v + 2];
+        double u = (tx * px + ty * py + tz * pz) / det;
+        if (u < 0 || u > 1) {
+            return Ray.NO_INTERSECTION;
+        }
+        double qx = ty * e1z - tz * e1y;
+        double qy = tz * e1x - tx * e1z;
+        double qz = tx * e1y - ty * e1x;
+        double w = (ray.dx * qx + ray.dy * qy + ray.dz * qz) / det;
+        if (w < 0 || u + w > 1) {
+            return Ray.NO_INTERSECTION;
+        }
+        double t = (e2x * qx + e2y * qy + e2z * qz) / det;
+        if (t <= 0) {
+            return Ray.NO_INTERSECTION;
+        }
+        return t;
+    }
+
+    private static Vector3D randomDirection(Random random) {
+        return new Vector3D(
+                random.nextGaussian(),
+                random.nextGaussian(),
+                random.nextGaussian()).normalize();
+    }
+}
@@ -0,0 +1,75 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.PacketTracer;
+import com.mlesniak.raytracer.accel.PacketTracers;
+import com.mlesniak.raytracer.accel.RayPacket;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare closest hits of packets with tracing each ray on its own.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class PacketTracerTest {
+    private static final int OBJECTS = 500;
+    private static final int PACKETS = 500;
+
+    @Test
+    public void packetMatchesSingleRays() {
+        Random random = new Random(42);
+        List<SceneObject> objects = new ArrayList<>();
+        for (int i = 0; i < OBJECTS; i++) {
+            Sphere sphere = new Sphere();
+            sphere.setCenter(new Vector3D(
+                    random.nextDouble() * 40 - 20,
+                    random.nextDouble() * 40 - 20,
+                    random.nextDouble() * 40 + 2));
+            sphere.setRadius(0.1 + random.nextDouble() * 0.9);
+            objects.add(sphere);
+        }
+        Plane plane = new Plane();
+        plane.setPoint(new Vector3D(0, -15, 0));
+        plane.setNormal(new Vector3D(0, 1, 0));
+        objects.add(plane);
+        CompiledScene compiledScene = CompiledScene.compile(objects);
+
+        PacketTracer tracer = PacketTracers.create(compiledScene);
+        RayPacket packet = new RayPacket(tracer.getPacketSize());
+        TraversalStack stack = new TraversalStack();
+        Ray ray = new Ray();
+        HitRecord hit = new HitRecord();
+        for (int p = 0; p < PACKETS; p++) {
+            // Coherent directions around a random center direction, as for neighbouring pixels.
+            Vector3D center = new Vector3D(random.nextGaussian(), random.nextGaussian(), 2).normalize();
+            for (int i = 0; i < packet.size; i++) {
+                Vector3D direction = new Vector3D(
+                        center.x + random.nextGaussian() * 0.05,
+                        center.y + random.nextGaussian() * 0.05,
+                        center.z).normalize();
+                packet.setDirection(i, direction.x, direction.y, direction.z);
+            }
+            tracer.closestHits(packet, stack);
+
+            for (int i = 0; i < packet.size; i++) {
+                hit.reset();
+                compiledScene.closestHit(packet.toRay(i, ray), hit, stack);
+                assertEquals(hit.primitive, packet.primitive[i]);
+                assertEquals(hit.distance, packet.distance[i], 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.render.CancellationToken;
+import com.mlesniak.raytracer.render.RenderJob;
+import com.mlesniak.raytracer.render.RenderScheduler;
+import com.mlesniak.raytracer.scene.Scene;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that progressive rendering refines to exactly the image of a single pass.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class ProgressiveRenderTest {
+    private static final RenderScheduler SCHEDULER = new RenderScheduler(4);
+
+    @Test
+    public void finalFrameEqualsSinglePass() {
+        // Odd tile size and image dimensions such that blocks are not aligned to tiles.
+        Scene scene = TestScenes.create(101, 67, 5);
+        BufferedImage expected = new Raytracer(scene, SCHEDULER).raytrace();
+
+        List<Integer> strides = new ArrayList<>();
+        Optional<BufferedImage> image = new Raytracer(scene, SCHEDULER).raytraceProgressive(
+                (frame, stride) -> strides.add(stride), new CancellationToken());
+
+        assertTrue(image.isPresent());
+        assertEquals(Arrays.asList(8, 4, 2, 1), strides);
+        assertArrayEquals(pixels(expected), pixels(image.get()));
+    }
+
+    @Test
+    public void cancelledRenderStops() {
+        Scene scene = TestScenes.create(64, 48, 0);
+        CancellationToken token = new CancellationToken();
+        List<Integer> strides = new ArrayList<>();
+        Optional<BufferedImage> image = new Raytracer(scene, SCHEDULER).raytraceProgressive((frame, stride) -> {
+            strides.add(stride);
+            token.cancel();
+        }, token);
+
+        assertFalse(image.isPresent());
+        assertEquals(Collections.singletonList(Raytracer.PREVIEW_STRIDE), strides);
+    }
+
+    @Test
+    public void asyncRenderCompletes() throws Exception {
+        Scene scene = TestScenes.create(80, 60, 16);
+        BufferedImage expected = new Raytracer(scene, SCHEDULER).raytrace();
+
+        RenderJob job = new Raytracer(scene, SCHEDULER).raytraceAsync((frame, stride) -> {
+        });
+        BufferedImage image = job.getFuture().get();
+        assertArrayEquals(pixels(expected), pixels(image));
+        assertEquals(1, job.getProgress(), 0.000001);
+    }
+
+    @Test
+    public void supersededRenderIsCancelled() throws Exception {
+        Scene scene = TestScenes.create(320, 240, 0);
+        RenderJob first = new Raytracer(scene, SCHEDULER).raytraceAsync((frame, stride) -> {
+        });
+        first.cancel();
+        RenderJob second = new Raytracer(scene, SCHEDULER).raytraceAsync((frame, stride) -> {
+        });
+
+        assertTrue(second.getFuture().get() != null);
+        assertTrue(first.isCancelled());
+        try {
+            first.getFuture().get();
+            fail("Cancelled render completed");
+        } catch (CancellationException e) {
+            // Expected.
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,108 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.SceneSnapshot;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that raytracers render immutable snapshots of their scene and handle multiple lights.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class RaytracerTest {
+    @Test
+    public void sceneModificationsDoNotAffectRaytracer() {
+        BufferedImage expected = new Raytracer(TestScenes.create(64, 48, 0)).raytrace();
+
+        Scene scene = TestScenes.create(64, 48, 0);
+        Raytracer raytracer = new Raytracer(scene);
+        // Modifications as done by animation scripts while previous frames are rendered.
+        scene.getCamera().x += 1;
+        scene.getLookAt().y += 1;
+        scene.getLights().get(0).z -= 3;
+        ((Sphere) scene.getObjects().get(0)).setRadius(2);
+        scene.setWidth(32);
+
+        assertArrayEquals(pixels(expected), pixels(raytracer.raytrace()));
+    }
+
+    @Test
+    public void snapshotWithCameraEqualsNewScene() {
+        Scene moved = TestScenes.create(64, 48, 0);
+        moved.getLookAt().x += 0.5;
+        moved.getCamera().y += 0.25;
+        BufferedImage expected = new Raytracer(moved).raytrace();
+
+        Scene scene = TestScenes.create(64, 48, 0);
+        SceneSnapshot snapshot = SceneSnapshot.of(scene).withCamera(moved.getCamera(), moved.getLookAt());
+        assertArrayEquals(pixels(expected), pixels(new Raytracer(snapshot).raytrace()));
+        // The snapshot does not expose its internal vectors.
+        snapshot.getCamera().x = 100;
+        assertArrayEquals(pixels(expected), pixels(new Raytracer(snapshot).raytrace()));
+    }
+
+    @Test
+    public void identicalLightsEqualSingleLight() {
+        BufferedImage expected = new Raytracer(TestScenes.create(64, 48, 0)).raytrace();
+
+        Scene scene = TestScenes.create(64, 48, 0);
+        Vector3D light = scene.getLights().get(0);
+        scene.setLights(Arrays.asList(light, light.copy(), light.copy()));
+        assertArrayEquals(pixels(expected), pixels(new Raytracer(scene).raytrace()));
+    }
+
+    @Test
+    public void sampledLightsApproximateAllLights() {
+        Scene scene = TestScenes.create(64, 48, 0);
+        List<Vector3D> lights = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            lights.add(new Vector3D(i - 8, 10, i % 4));
+        }
+        scene.setLights(lights);
+        int[] exact = pixels(new Raytracer(scene).raytrace());
+
+        scene.setLightSamples(4);
+        int[] sampled = pixels(new Raytracer(scene).raytrace());
+        assertEquals(brightness(exact), brightness(sampled), 0.05 * brightness(exact));
+
+        // Random numbers depend on the pixel only.
+        scene.setTileSize(7);
+        assertArrayEquals(sampled, pixels(new Raytracer(scene).raytrace()));
+    }
+
+    @Test
+    public void lightsBehindSurfaceDoNotDarken() {
+        // Only the plane, with one light above and one below it, i.e. each point faces exactly one light.
+        Scene scene = TestScenes.create(64, 48, 0);
+        scene.setObjects(scene.getObjects().subList(5, 6));
+        scene.setLights(Arrays.asList(new Vector3D(5, 10, 0), new Vector3D(5, -10, 0)));
+        int[] exact = pixels(new Raytracer(scene).raytrace());
+
+        // The sampled estimate never chooses a light behind the surface and has to agree.
+        scene.setLightSamples(1);
+        assertArrayEquals(exact, pixels(new Raytracer(scene).raytrace()));
+    }
+
+    private static double brightness(int[] pixels) {
+        double sum = 0;
+        for (int pixel : pixels) {
+            sum += ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+        }
+        return sum / pixels.length;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,75 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.accel.CompiledScene;
+import com.mlesniak.raytracer.accel.HitRecord;
+import com.mlesniak.raytracer.accel.TraversalStack;
+import com.mlesniak.raytracer.math.Ray;
+import com.mlesniak.raytracer.metrics.RenderMetrics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the counters of the render metrics and of the traversal stack.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class RenderMetricsTest {
+    @Test
+    public void tileTimesAreBinnedByPowersOfTwo() {
+        RenderMetrics metrics = new RenderMetrics();
+        metrics.addTile(TimeUnit.MICROSECONDS.toNanos(0));
+        metrics.addTile(TimeUnit.MICROSECONDS.toNanos(1));
+        metrics.addTile(TimeUnit.MICROSECONDS.toNanos(1000));
+        metrics.addTile(TimeUnit.MICROSECONDS.toNanos(1023));
+        metrics.addTile(TimeUnit.HOURS.toNanos(1));
+
+        long[] histogram = metrics.getTileTimeHistogram();
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[1]);
+        assertEquals(2, histogram[10]);
+        assertEquals(1, histogram[histogram.length - 1]);
+        assertEquals(5, metrics.getTiles());
+
+        metrics.reset();
+        assertEquals(0, metrics.getTiles());
+        assertEquals(0, metrics.getTileTimeHistogram()[10]);
+    }
+
+    @Test
+    public void renderUtilizationCountsBusyTiles() throws Exception {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.Measurement measurement = metrics.startRender();
+        Thread.sleep(20);
+        // Two threads, one of them busy during the whole render.
+        metrics.addTile(measurement.getStopwatch().getNanos());
+        metrics.finishRender(measurement, 2, 100);
+
+        assertEquals(1, metrics.getRenders());
+        assertTrue(metrics.getRenderMillis() >= 20);
+        assertTrue(metrics.getThreadUtilization() > 0.4);
+        assertTrue(metrics.getThreadUtilization() <= 0.5);
+    }
+
+    @Test
+    public void traversalWorkIsCounted() {
+        CompiledScene compiledScene = CompiledScene.compile(TestScenes.create(10, 10, 0).getObjects());
+        TraversalStack stack = new TraversalStack();
+        HitRecord hit = new HitRecord();
+        assertTrue(compiledScene.closestHit(new Ray().set(0, 0, 0, 0, 0, 1), hit, stack));
+        assertTrue(stack.getNodesVisited() > 0);
+        assertTrue(stack.getSphereTests() > 0);
+        assertTrue(stack.getSphereTests() <= compiledScene.getSphereCount());
+        assertEquals(compiledScene.getPlaneCount(), stack.getPlaneTests());
+
+        RenderMetrics metrics = new RenderMetrics();
+        metrics.addIntersections(stack.getNodesVisited(), stack.getSphereTests(), stack.getPlaneTests(),
+                stack.getTriangleTests());
+        assertEquals(stack.getSphereTests(), metrics.getSphereTests());
+        stack.resetCounters();
+        assertEquals(0, stack.getNodesVisited());
+    }
+}
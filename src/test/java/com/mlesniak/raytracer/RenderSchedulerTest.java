@@ -0,0 +1,42 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.render.RenderScheduler;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that tiled rendering covers every pixel exactly once.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class RenderSchedulerTest {
+    @Test
+    public void everyPixelIsRenderedOnce() {
+        RenderScheduler scheduler = new RenderScheduler(4);
+        int[][] sizes = {{1, 1}, {31, 17}, {64, 64}, {100, 37}, {257, 129}};
+        int[] tileSizes = {0, 1, 7, 16, 32};
+
+        for (int[] size : sizes) {
+            for (int tileSize : tileSizes) {
+                int width = size[0];
+                int height = size[1];
+                AtomicIntegerArray counts = new AtomicIntegerArray(width * height);
+                scheduler.render(width, height, tileSize, (x0, y0, x1, y1) -> {
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = x0; x < x1; x++) {
+                            counts.incrementAndGet(y * width + x);
+                        }
+                    }
+                });
+
+                for (int i = 0; i < counts.length(); i++) {
+                    assertEquals("Pixel " + i + " of " + width + "x" + height + ", tile size " + tileSize,
+                            1, counts.get(i));
+                }
+            }
+        }
+    }
+}
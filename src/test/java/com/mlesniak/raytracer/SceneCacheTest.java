@@ -0,0 +1,162 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Geometry;
+import com.mlesniak.raytracer.scene.Instance;
+import com.mlesniak.raytracer.scene.Mesh;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneCache;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that cached scenes equal the parsed scene files and that stale or broken caches are ignored.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class SceneCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachedSceneEqualsParsedScene() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        String expected = Scene.parseScene(new String(Files.readAllBytes(yaml), StandardCharsets.UTF_8)).toYaml();
+
+        assertEquals(expected, SceneCache.read(yaml).toYaml());
+        assertTrue(Files.exists(SceneCache.getCachePath(yaml)));
+        assertEquals(expected, SceneCache.read(yaml).toYaml());
+    }
+
+    @Test
+    public void cacheIsUsed() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        SceneCache.read(yaml);
+
+        // Patch the width behind magic, version and hash, which is only visible if the cache is read.
+        Path cache = SceneCache.getCachePath(yaml);
+        byte[] bytes = Files.readAllBytes(cache);
+        ByteBuffer.wrap(bytes).putInt(8 + 32, 99);
+        Files.write(cache, bytes);
+        assertEquals(99, SceneCache.read(yaml).getWidth());
+    }
+
+    @Test
+    public void staleCacheIsReplaced() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        SceneCache.read(yaml);
+
+        Files.write(yaml, createScene(32).toYaml().getBytes(StandardCharsets.UTF_8));
+        assertEquals(32, SceneCache.read(yaml).getWidth());
+        assertEquals(32, SceneCache.read(yaml).getWidth());
+    }
+
+    @Test
+    public void brokenCacheIsIgnored() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        String expected = SceneCache.read(yaml).toYaml();
+
+        Path cache = SceneCache.getCachePath(yaml);
+        byte[] bytes = Files.readAllBytes(cache);
+        Files.write(cache, Arrays.copyOf(bytes, bytes.length / 2));
+        assertEquals(expected, SceneCache.read(yaml).toYaml());
+        assertEquals(bytes.length, Files.size(cache));
+    }
+
+    @Test
+    public void corruptedLengthIsIgnored() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        String expected = SceneCache.read(yaml).toYaml();
+
+        // The length of the filename follows magic, version, hash, width and height.
+        Path cache = SceneCache.getCachePath(yaml);
+        for (int length : new int[]{-5, Integer.MAX_VALUE}) {
+            byte[] bytes = Files.readAllBytes(cache);
+            ByteBuffer.wrap(bytes).putInt(8 + 32 + 8, length);
+            Files.write(cache, bytes);
+            assertEquals(expected, SceneCache.read(yaml).toYaml());
+        }
+    }
+
+    @Test
+    public void failedWriteLeavesNoTemporaryFile() throws Exception {
+        Path yaml = writeScene(createScene(64));
+        // A non-empty directory in place of the cache can not be replaced.
+        Path cache = Files.createDirectory(SceneCache.getCachePath(yaml));
+        Files.createFile(cache.resolve("blocked"));
+
+        assertEquals(64, SceneCache.read(yaml).getWidth());
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(Arrays.asList(yaml, cache), files.sorted().collect(Collectors.toList()));
+        }
+    }
+
+    private Path writeScene(Scene scene) throws Exception {
+        Path yaml = folder.newFile("scene.yaml").toPath();
+        Files.write(yaml, scene.toYaml().getBytes(StandardCharsets.UTF_8));
+        return yaml;
+    }
+
+    // Scene which uses every kind of property.
+    private static Scene createScene(int width) {
+        Scene scene = TestScenes.create(width, 48, 16);
+        scene.setFilename("image-\u00e4.png");
+        scene.setMaxSamples(4);
+        scene.setMaxDepth(3);
+
+        Mesh mesh = new Mesh();
+        mesh.setFile("models/bunny.obj");
+        mesh.setReflectivity(0.5);
+        mesh.setTransparency(0.25);
+        mesh.setRefractiveIndex(1.5);
+        List<SceneObject> objects = new ArrayList<>(scene.getObjects());
+        objects.add(mesh);
+        scene.setObjects(objects);
+
+        Sphere sphere = new Sphere();
+        sphere.setRadius(0.5);
+        Geometry geometry = new Geometry();
+        geometry.setName("ball");
+        geometry.setObjects(Collections.singletonList(sphere));
+        scene.setGeometries(Collections.singletonList(geometry));
+        Instance moved = new Instance();
+        moved.setGeometry("ball");
+        moved.setTranslation(new Vector3D(1, 2, 3));
+        moved.setRotation(new Vector3D(0, 90, 0));
+        moved.setScale(2);
+        Instance matrix = new Instance();
+        matrix.setGeometry("ball");
+        matrix.setMatrix(Arrays.asList(1.0, 0.0, 0.0, 4.0, 0.0, 1.0, 0.0, 5.0, 0.0, 0.0, 1.0, 6.0));
+        scene.setInstances(Arrays.asList(moved, matrix));
+
+        Scene.AnimationSettings animation = new Scene.AnimationSettings();
+        animation.setTicks(10);
+        animation.setDuration(40);
+        animation.setLoop(true);
+        Scene.Keyframe keyframe = new Scene.Keyframe();
+        keyframe.setProperty("lights.0.y");
+        keyframe.setTick(5);
+        keyframe.setValue(2.5);
+        keyframe.setInterpolation("smooth");
+        animation.setKeyframes(Collections.singletonList(keyframe));
+        scene.setAnimation(animation);
+        return scene;
+    }
+}
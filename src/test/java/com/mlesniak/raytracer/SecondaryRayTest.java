@@ -0,0 +1,148 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Check reflected and refracted rays against scenes which show the same surfaces directly.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class SecondaryRayTest {
+    private static final int SIZE = 33;
+
+    @Test
+    public void mirrorShowsObjectBehindCamera() {
+        Scene direct = scene(new Vector3D(0, 0, 5), new Vector3D(0, 0, 0), new Vector3D(0, 5, -5));
+        direct.getObjects().add(sphere(new Vector3D(0, 0, -10), 1, 0xFF3020));
+
+        Scene mirrored = scene(new Vector3D(0, 0, -5), new Vector3D(0, 0, 0), new Vector3D(0, 5, -5));
+        mirrored.getObjects().add(sphere(new Vector3D(0, 0, -10), 1, 0xFF3020));
+        Plane mirror = new Plane();
+        mirror.setPoint(new Vector3D(0, 0, 0));
+        mirror.setNormal(new Vector3D(0, 0, -1));
+        mirror.setReflectivity(1);
+        mirrored.getObjects().add(mirror);
+
+        int expected = center(direct);
+        assertNotEquals(0xFF000000, expected);
+        assertColorEquals(expected, center(mirrored));
+    }
+
+    @Test
+    public void clearGlassShowsObjectBehind() {
+        Scene direct = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 10, 0));
+        direct.getObjects().add(sphere(new Vector3D(0, 0, 10), 1, 0x20FF30));
+
+        Scene glass = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 10, 0));
+        glass.getObjects().add(sphere(new Vector3D(0, 0, 10), 1, 0x20FF30));
+        // Without refraction and reflection at normal incidence, the center ray passes through the sphere unchanged.
+        Sphere clear = sphere(new Vector3D(0, 0, 5), 1, 0xFFFFFF);
+        clear.setTransparency(1);
+        glass.getObjects().add(clear);
+
+        int expected = center(direct);
+        assertNotEquals(0xFF000000, expected);
+        assertColorEquals(expected, center(glass));
+    }
+
+    @Test
+    public void facingMirrorsAreBounded() {
+        Scene scene = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 10, 0));
+        scene.getObjects().add(sphere(new Vector3D(0, 0, 3), 0.5, 0x2030FF));
+        for (int i = -1; i <= 1; i += 2) {
+            Plane mirror = new Plane();
+            mirror.setPoint(new Vector3D(0, 0, 10 * i));
+            mirror.setNormal(new Vector3D(0, 0, -i));
+            mirror.setReflectivity(0.99);
+            scene.getObjects().add(mirror);
+        }
+
+        scene.setMaxDepth(1000);
+        int deep = center(scene);
+        scene.setMaxDepth(1);
+        assertNotEquals(0xFF000000, deep);
+        assertNotEquals(0xFF000000, center(scene));
+    }
+
+    @Test
+    public void enclosingSphereCastsShadow() {
+        Vector3D light = new Vector3D(0, 20, -100);
+        Scene lit = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), light);
+        lit.getObjects().add(sphere(new Vector3D(0, 0, 5), 1, 0x20FF30));
+
+        // Shadow of a sphere between the object and the light, outside of the view.
+        Scene shadowed = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), light);
+        shadowed.getObjects().add(sphere(new Vector3D(0, 0, 5), 1, 0x20FF30));
+        shadowed.getObjects().add(sphere(new Vector3D(0, 10.4, -50), 5, 0xFFFFFF));
+
+        // The camera and the object are inside a dome, the light is outside.
+        Scene dome = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), light);
+        dome.getObjects().add(sphere(new Vector3D(0, 0, 5), 1, 0x20FF30));
+        dome.getObjects().add(sphere(new Vector3D(0, 0, 0), 50, 0xFFFFFF));
+
+        int expected = center(shadowed);
+        assertNotEquals(center(lit), expected);
+        assertColorEquals(expected, center(dome));
+    }
+
+    @Test
+    public void cameraInsideSphereSeesInnerSurface() {
+        Scene outside = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 0, 5));
+        outside.getObjects().add(sphere(new Vector3D(0, 0, 20), 2, 0xFF2020));
+
+        Scene inside = scene(new Vector3D(0, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 0, 5));
+        inside.getObjects().add(sphere(new Vector3D(0, 0, 20), 2, 0xFF2020));
+        inside.getObjects().add(sphere(new Vector3D(0, 0, 0), 10, 0x20FF30));
+
+        // The enclosing sphere hides the object behind it. Its inner surface faces away from the light inside.
+        assertNotEquals(0xFF000000, center(outside));
+        assertEquals(0xFF000000, center(inside));
+    }
+
+    private static Scene scene(Vector3D camera, Vector3D lookAt, Vector3D light) {
+        Scene scene = new Scene();
+        scene.setWidth(SIZE);
+        scene.setHeight(SIZE);
+        scene.setCamera(camera);
+        scene.setLookAt(lookAt);
+        scene.setFov(60);
+        scene.setLights(Collections.singletonList(light));
+        List<SceneObject> objects = new ArrayList<>();
+        scene.setObjects(objects);
+        return scene;
+    }
+
+    private static Sphere sphere(Vector3D center, double radius, int color) {
+        Sphere sphere = new Sphere();
+        sphere.setCenter(center);
+        sphere.setRadius(radius);
+        sphere.setColor(color);
+        return sphere;
+    }
+
+    private static int center(Scene scene) {
+        BufferedImage image = new Raytracer(scene).raytrace();
+        return image.getRGB(SIZE / 2, SIZE / 2);
+    }
+
+    // Allow rounding differences since secondary rays start slightly off the surface.
+    private static void assertColorEquals(int expected, int actual) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            assertEquals(Integer.toHexString(actual), (expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 1);
+        }
+    }
+}
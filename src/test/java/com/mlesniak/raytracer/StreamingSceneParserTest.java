@@ -0,0 +1,131 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Raytracer;
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Mesh;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+import com.mlesniak.raytracer.scene.StreamingSceneParser;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compare scenes whose objects are streamed into packed storage with scenes parsed by YamlReader.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+public class StreamingSceneParserTest {
+    private static final String HEADER = "width: 64\n" +
+            "height: 48\n" +
+            "fov: 90\n" +
+            "camera: {x: 0, y: 0, z: 0}\n" +
+            "lookAt: {x: 0, y: 0, z: 1}\n" +
+            "lights:\n" +
+            "  - !com.mlesniak.raytracer.math.Vector3D {x: 5, y: 10, z: 0}\n";
+
+    @Test
+    public void streamedSceneEqualsParsedScene() throws Exception {
+        // Block and flow style, comments, values which are left to YamlReader and keys after the objects.
+        String yaml = HEADER +
+                "objects:\n" +
+                "  # Spheres\n" +
+                "  - !com.mlesniak.raytracer.scene.Sphere\n" +
+                "    color: 0xFF8000  # orange\n" +
+                "    center:\n" +
+                "      x: -1.5\n" +
+                "      y: 0\n" +
+                "      z: 6\n" +
+                "    radius: 1\n" +
+                "\n" +
+                "  - !com.mlesniak.raytracer.scene.Sphere\n" +
+                "    center: {x: 1.5, y: 0.5, z: 7}\n" +
+                "    radius: 1.25\n" +
+                "    reflectivity: 0.5\n" +
+                "  - !com.mlesniak.raytracer.scene.Sphere\n" +
+                "    color: '255'\n" +
+                "    center: {x: 0, y: 2, z: 9}\n" +
+                "    radius: 0.5\n" +
+                "  - !com.mlesniak.raytracer.scene.Mesh\n" +
+                "    file: models/bunny.obj\n" +
+                "    transparency: 0.25\n" +
+                "  - !com.mlesniak.raytracer.scene.Plane\n" +
+                "    color: 0xA0A0A0\n" +
+                "    point: {x: 0, y: -1, z: 0}\n" +
+                "    normal:\n" +
+                "      x: 0\n" +
+                "      y: 1\n" +
+                "      z: 0\n" +
+                "maxDepth: 3\n";
+        Scene expected = Scene.parseScene(yaml);
+        Scene scene = StreamingSceneParser.parse(new StringReader(yaml));
+        assertNotNull(scene.getPackedObjects());
+        assertEquals(5, scene.getPackedObjects().size());
+        assertEquals(3, scene.getMaxDepth());
+        assertEquals(expected.toYaml(), scene.toYaml());
+        // Converted into beans on first access.
+        assertNull(scene.getPackedObjects());
+        assertEquals(255, scene.getObjects().get(2).getColor());
+        assertEquals("models/bunny.obj", ((Mesh) scene.getObjects().get(3)).getFile());
+    }
+
+    @Test
+    public void emptyObjects() throws Exception {
+        for (String objects : new String[]{"objects: []\n", "objects:\n", ""}) {
+            String yaml = HEADER + objects + "maxDepth: 3\n";
+            assertEquals(Scene.parseScene(yaml).toYaml(), StreamingSceneParser.parse(new StringReader(yaml)).toYaml());
+        }
+    }
+
+    @Test
+    public void streamedSceneRendersLikeParsedScene() throws Exception {
+        Scene scene = TestScenes.create(64, 48, 0);
+        Random random = new Random(5);
+        List<SceneObject> objects = new ArrayList<>(scene.getObjects());
+        for (int i = 0; i < 500; i++) {
+            Sphere sphere = new Sphere();
+            sphere.setCenter(new Vector3D(random.nextDouble() * 20 - 10, random.nextDouble() * 10 - 1,
+                    8 + random.nextDouble() * 20));
+            sphere.setRadius(0.1 + random.nextDouble() * 0.4);
+            sphere.setColor(random.nextInt(0x1000000));
+            sphere.setReflectivity(random.nextDouble() * 0.5);
+            objects.add(sphere);
+        }
+        scene.setObjects(objects);
+        String yaml = scene.toYaml();
+
+        Scene streamed = StreamingSceneParser.parse(new StringReader(yaml));
+        assertEquals(objects.size(), streamed.getPackedObjects().getSphereCount() +
+                streamed.getPackedObjects().getPlaneCount());
+        BufferedImage expected = new Raytracer(Scene.parseScene(yaml)).raytrace();
+        BufferedImage image = new Raytracer(streamed).raytrace();
+        assertArrayEquals(expected.getRGB(0, 0, 64, 48, null, 0, 64), image.getRGB(0, 0, 64, 48, null, 0, 64));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownProperty() throws Exception {
+        StreamingSceneParser.parse(new StringReader(HEADER +
+                "objects:\n" +
+                "  - !com.mlesniak.raytracer.scene.Sphere\n" +
+                "    radius: 1\n" +
+                "    size: 2\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void objectsWithoutList() throws Exception {
+        StreamingSceneParser.parse(new StringReader(HEADER +
+                "objects:\n" +
+                "  radius: 1\n"));
+    }
+}
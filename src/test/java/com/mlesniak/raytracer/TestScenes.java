@@ -0,0 +1,56 @@
+package com.mlesniak.raytracer;
+
+import com.mlesniak.raytracer.math.Vector3D;
+import com.mlesniak.raytracer.scene.Plane;
+import com.mlesniak.raytracer.scene.Scene;
+import com.mlesniak.raytracer.scene.SceneObject;
+import com.mlesniak.raytracer.scene.Sphere;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Small scenes shared by rendering tests.
+ *
+ * @author Michael Lesniak (mlesniak@micromata.de)
+ */
+final class TestScenes {
+    private TestScenes() {
+    }
+
+    /**
+     * Create a scene with a row of spheres above a plane.
+     *
+     * @param width    image width
+     * @param height   image height
+     * @param tileSize tile size, 0 for the default
+     * @return the scene
+     */
+    static Scene create(int width, int height, int tileSize) {
+        Scene scene = new Scene();
+        scene.setWidth(width);
+        scene.setHeight(height);
+        scene.setTileSize(tileSize);
+        scene.setCamera(new Vector3D(0, 0, 0));
+        scene.setLookAt(new Vector3D(0, 0, 1));
+        scene.setFov(90);
+        scene.setLights(Collections.singletonList(new Vector3D(5, 10, 0)));
+
+        List<SceneObject> objects = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Sphere sphere = new Sphere();
+            sphere.setCenter(new Vector3D(i * 1.5 - 3, 0, 6 + i));
+            sphere.setRadius(1);
+            sphere.setColor(0x3060F0 + i * 0x200000);
+            objects.add(sphere);
+        }
+        Plane plane = new Plane();
+        plane.setPoint(new Vector3D(0, -1, 0));
+        plane.setNormal(new Vector3D(0, 1, 0));
+        plane.setColor(0xA0A0A0);
+        objects.add(plane);
+        scene.setObjects(objects);
+        return scene;
+    }
+}